@@ -35,13 +35,17 @@ import org.globalse.arena.remote.exceptions.GamePeerAlreadyRegisteredException;
 import org.globalse.arena.remote.exceptions.InvalidLoginException;
 import org.globalse.arena.remote.exceptions.InvalidTicketException;
 import org.globalse.arena.server.Game;
+import org.globalse.arena.server.Match;
+import org.globalse.arena.server.MatchPool;
 import org.globalse.arena.user.User;
 
 /**
  * Implementation of <code>RemoteGamePeer</code>. <code>GamePeer</code> registers with the
  * specified arena server when created and then waits for requests for creating matches.
  * Remote matches live on until it is not referenced by anybody and
- * garbage collected.
+ * garbage collected. Matches of poolable games are taken from a pool of
+ * pre-exported match shells, so that creating the matches of a round only
+ * binds shells to their round and players.
  *
  * @author Allen Dutoit
  */
@@ -55,6 +59,12 @@ public class GamePeer extends UnicastRemoteObject implements RemoteGamePeer {
 	// Game peer ticket expected when creating matches
 	private String peerTicket;
 	
+	// Maximum number of active matches reported to the arena, 0 if unlimited
+	private int maxMatches = 0;
+	
+	// Pre-exported match shells
+	private MatchPool matchPool = new MatchPool(MatchPool.DEFAULT_SIZE);
+	
 	/**
 	 * Creates a game peer object and registers it with the specified arena using
 	 * the specified operator user name and password. This constructor also generates
@@ -92,9 +102,62 @@ public class GamePeer extends UnicastRemoteObject implements RemoteGamePeer {
 		if (!this.peerTicket.equals(peerTicket)) {
 			throw new InvalidTicketException("Game peer received invalid ticket.");
 		}
-		RemoteMatch result = game.createMatch(round, players);
+		RemoteMatch result = matchPool.createMatch(game, round, players);
 		logger.info("Game peer successfully created match.");
 		return result;
 	}
 	
+	synchronized public RemoteMatch[] createMatches(String peerTicket, Game game, RemoteRound round, User[][] pairings)
+		throws RemoteException, InvalidTicketException {
+		if (!this.peerTicket.equals(peerTicket)) {
+			throw new InvalidTicketException("Game peer received invalid ticket.");
+		}
+		RemoteMatch[] result = new RemoteMatch[pairings.length];
+		for (int i = 0; i < pairings.length; i++) {
+			result[i] = matchPool.createMatch(game, round, pairings[i]);
+		}
+		logger.info("Game peer successfully created " + result.length + " matches.");
+		return result;
+	}
+	
+	/**
+	 * Sets the maximum number of active matches reported to the arena server,
+	 * which does not create matches on this game peer beyond this limit. 0 means
+	 * no limit.
+	 */
+	synchronized public void setMaxMatches(int maxMatches) {
+		if (maxMatches < 0) {
+			throw new IllegalArgumentException("Maximum number of matches cannot be negative.");
+		}
+		this.maxMatches = maxMatches;
+	}
+	
+	synchronized public int getMaxMatches() {
+		return maxMatches;
+	}
+	
+	/**
+	 * Sets the number of pre-exported match shells kept per poolable game. 0
+	 * disables pooling.
+	 */
+	public void setMatchPoolSize(int size) {
+		matchPool.setSize(size);
+	}
+	
+	public int getMatchPoolSize() {
+		return matchPool.getSize();
+	}
+	
+	public GamePeerLoad getLoad(String peerTicket)
+		throws RemoteException, InvalidTicketException {
+		int max = 0;
+		synchronized(this) {
+			if (!this.peerTicket.equals(peerTicket)) {
+				throw new InvalidTicketException("Game peer received invalid ticket.");
+			}
+			max = maxMatches;
+		}
+		return new GamePeerLoad(Match.getNumLiveMatches(), Match.getNumLiveListeners(), Match.getMoveLatency(), max);
+	}
+	
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.gamepeer;
+
+import java.io.Serializable;
+
+/**
+ * This class is a snapshot of the load of a game peer, returned by
+ * {@link RemoteGamePeer#getLoad}. The arena server uses it to decide on which
+ * game peer new matches are created. Once created, GamePeerLoads are not updated.
+ */
+public class GamePeerLoad implements Serializable {
+	
+	private int numMatches;
+	private int numListeners;
+	private long moveLatency;
+	private int maxMatches;
+	
+	public GamePeerLoad(int numMatches, int numListeners, long moveLatency, int maxMatches) {
+		this.numMatches = numMatches;
+		this.numListeners = numListeners;
+		this.moveLatency = moveLatency;
+		this.maxMatches = maxMatches;
+	}
+	
+	/**
+	 * Returns the number of matches of the game peer which are neither finished
+	 * nor terminated.
+	 */
+	public int getNumMatches() {
+		return numMatches;
+	}
+	
+	/**
+	 * Returns the number of players and spectators listening to the active
+	 * matches of the game peer.
+	 */
+	public int getNumListeners() {
+		return numListeners;
+	}
+	
+	/**
+	 * Returns the recent average time in milliseconds between a move being played
+	 * on the game peer and its delivery to the players of the match.
+	 */
+	public long getMoveLatency() {
+		return moveLatency;
+	}
+	
+	/**
+	 * Returns the maximum number of active matches the game peer accepts, or 0
+	 * if the game peer does not set a limit.
+	 */
+	public int getMaxMatches() {
+		return maxMatches;
+	}
+}
@@ -29,8 +29,9 @@ import org.globalse.arena.server.Game;
 import org.globalse.arena.user.User;
 
 /**
- * Remote interface for the game peer, which includes a single method
- * for the arena server to request the create of a remote match.
+ * Remote interface for the game peer, which includes methods
+ * for the arena server to request the create of remote matches and a method
+ * for reporting the load of the game peer.
  *
  * @author Allen Dutoit
  */
@@ -55,4 +56,41 @@ public interface RemoteGamePeer extends Remote {
 	public RemoteMatch createMatch(String ticket, Game game, RemoteRound round, User[] players)
 		throws RemoteException, InvalidTicketException;
 	
+	/**
+	 * This method creates several matches of the same round in the context of this
+	 * game peer and returns remote references to the new matches. It is equivalent to
+	 * invoking createMatch once per pairing, but only takes a single round trip.
+	 * Game peers of earlier versions do not implement this method, in which case the
+	 * arena server falls back on createMatch.
+	 *
+	 * @param    ticket              the game peer ticket that was used to register the game peer with the server
+	 * @param    game                the concrete game for which the matches should be created
+	 * @param    round               the round to which the new matches belong; the round always resides on the arena server
+	 * @param    pairings            for each match, an array of players that will take part in the match
+	 *
+	 * @return   remote references to the newly created matches, in the order of the pairings
+	 *
+	 * @exception   RemoteException
+	 * @exception   InvalidTicketException
+	 *
+	 * @see #createMatch
+	 */
+	public RemoteMatch[] createMatches(String ticket, Game game, RemoteRound round, User[][] pairings)
+		throws RemoteException, InvalidTicketException;
+	
+	/**
+	 * Returns the current load of this game peer. The arena server polls this
+	 * method periodically to decide where new matches are created.
+	 *
+	 * @param    ticket              the game peer ticket that was used to register the game peer with the server
+	 *
+	 * @return   a GamePeerLoad
+	 *
+	 * @exception   RemoteException
+	 * @exception   InvalidTicketException
+	 *
+	 */
+	public GamePeerLoad getLoad(String ticket)
+		throws RemoteException, InvalidTicketException;
+	
 }
@@ -31,6 +31,8 @@ import java.rmi.RemoteException;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 import org.globalse.arena.remote.exceptions.InvalidLoginException;
+import org.globalse.arena.server.Match;
+import org.globalse.arena.server.MatchPool;
 import org.globalse.arena.util.PropertyLoader;
 
 /**
@@ -42,6 +44,12 @@ import org.globalse.arena.util.PropertyLoader;
  *     <LI><code>ArenaPort</code> (default 1099)      the TCP/IP port on which the arena server listens for new RMI connections</LI>
  *     <LI><code>Operator</code>  (default admin)     the user name of the operator</LI>
  *     <LI><code>OperatorPassword</code> (no default) the operator password</LI>
+ *     <LI><code>MatchNotifierThreads</code> (default 4) the number of threads delivering the events of the matches of this peer to players, and the number of threads delivering them to spectators</LI>
+ *     <LI><code>MatchCallDeadline</code> (default 10000) the time in milliseconds a match listener is given to return from a call before its thread is replaced; spectators missing the deadline are removed from the match, players are not</LI>
+ *     <LI><code>MatchRelayThreshold</code> (default 50) the number of spectators watching a match directly before new spectators are redirected to relays</LI>
+ *     <LI><code>MatchMaxRelays</code> (default 8) the maximum number of relays a match creates once the relay threshold is reached, 0 to disable relays</LI>
+ *     <LI><code>MaxMatches</code> (default 0)        the maximum number of active matches the arena server creates on this peer, 0 for no limit</LI>
+ *     <LI><code>MatchPoolSize</code> (default 8)     the number of pre-exported match shells kept per poolable game, 0 to disable pooling</LI>
  * </UL>
  * In addition, this class will use the properties file to initialize the loggers. See the
  * documentation on <code>java.util.logging</code> for information about logging properties.
@@ -90,8 +98,14 @@ public class StartGamePeer {
 		String operatorPassword = propertyLoader.getStringProperty("OperatorPassword", null);
 		boolean initializationSucceeded = false;
 		
+		Match.setNumNotifierThreads(propertyLoader.getIntProperty("MatchNotifierThreads", Match.DEFAULT_NUM_NOTIFIER_THREADS));
+		Match.setCallDeadline(propertyLoader.getIntProperty("MatchCallDeadline", (int)Match.DEFAULT_CALL_DEADLINE));
+		Match.setRelayThreshold(propertyLoader.getIntProperty("MatchRelayThreshold", Match.DEFAULT_RELAY_THRESHOLD));
+		Match.setMaxRelays(propertyLoader.getIntProperty("MatchMaxRelays", Match.DEFAULT_MAX_RELAYS));
 		try {
-			new GamePeer(arenaHost, arenaPort, operatorName, operatorPassword);
+			GamePeer peer = new GamePeer(arenaHost, arenaPort, operatorName, operatorPassword);
+			peer.setMaxMatches(propertyLoader.getIntProperty("MaxMatches", 0));
+			peer.setMatchPoolSize(propertyLoader.getIntProperty("MatchPoolSize", MatchPool.DEFAULT_SIZE));
 			initializationSucceeded = true;
 		} catch (NotBoundException e) {
 			logger.severe("Not such server at specified host (" + arenaHost + ") and port (" + arenaPort + ").");
@@ -23,6 +23,8 @@ package org.globalse.arena.matchfrontend;
 import org.globalse.arena.remote.*;
 import java.rmi.server.UnicastRemoteObject;
 import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This class is an adapter wrapping around a local arena listener so that it can
@@ -40,14 +42,23 @@ import java.rmi.RemoteException;
  *   having to be installed with every match front end.</LI>
  * </UL>
  *
+ * The adapter accepts batches of events, so that the arena server can deliver
+ * many events in a single remote call. Events of a batch are forwarded to the local
+ * listener one by one, in order. The adapter remembers the sequence number of the
+ * last event it received for each game, so that it can be registered again after a
+ * disconnection without reloading the state of the game.
+ *
  * @see RemoteArenaListener
+ * @see RemoteBatchArenaListener
  * @see LocalArenaListener
  * @see org.globalse.arena.remote.RemoteArena#addListener
  * @author Allen Dutoit
  */
-public final class ArenaListenerAdapter extends UnicastRemoteObject implements RemoteArenaListener {
+public final class ArenaListenerAdapter extends UnicastRemoteObject implements RemoteBatchArenaListener {
 	
 	private LocalArenaListener localListener;
+	// Sequence number of the last event received, indexed by game name
+	private Map lastSequenceNumbers = new HashMap();
 	
 	public ArenaListenerAdapter(LocalArenaListener localListener) throws RemoteException {
 		super();
@@ -74,5 +85,29 @@ public final class ArenaListenerAdapter extends UnicastRemoteObject implements R
 		localListener.matchInfoChanged(matchInfo);
 	}
 	
+	public void eventsOccurred(ArenaEvent[] events) throws RemoteException {
+		for (int i = 0; i < events.length; i++) {
+			events[i].notify(this);
+			setLastSequenceNumber(events[i].getGameName(), events[i].getSequenceNumber());
+		}
+	}
+	
+	synchronized private void setLastSequenceNumber(String gameName, long sequenceNumber) {
+		if (gameName != null && sequenceNumber > getLastSequenceNumber(gameName)) {
+			lastSequenceNumbers.put(gameName, new Long(sequenceNumber));
+		}
+	}
+	
+	/**
+	 * Returns the sequence number of the last event of the specified game received
+	 * by this adapter, or 0 if no event of the game was received yet.
+	 *
+	 * @see org.globalse.arena.remote.RemoteArena#addListener(String, String, RemoteArenaListener, long)
+	 */
+	synchronized public long getLastSequenceNumber(String gameName) {
+		Long sequenceNumber = (Long)lastSequenceNumbers.get(gameName);
+		return sequenceNumber == null ? 0 : sequenceNumber.longValue();
+	}
+	
 }
 
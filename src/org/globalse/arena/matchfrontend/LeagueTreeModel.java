@@ -27,12 +27,15 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.Vector;
 import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
 import javax.swing.tree.TreeModel;
 import javax.swing.tree.TreePath;
 import org.globalse.arena.remote.exceptions.AccessDeniedException;
+import org.globalse.arena.remote.exceptions.ArenaException;
 import org.globalse.arena.remote.exceptions.GameNotFoundException;
 import org.globalse.arena.remote.exceptions.InvalidTicketException;
 import org.globalse.arena.user.User;
@@ -53,10 +56,16 @@ public class LeagueTreeModel implements TreeModel, LocalArenaListener {
     private String root = null;
     private LeagueTreeNode rootNode = null;
 	private Map nodeMap= new HashMap();
+	// Match nodes indexed by match id, for matches restored as new remote objects
+	private Map matchNodes = new HashMap();
     private List listeners = new Vector();
 	private String gameName;
 	private ArenaListenerAdapter adapter;
 	
+	// Period in milliseconds at which the model checks that it is still registered
+	private static final long REGISTRATION_CHECK_PERIOD = 10000;
+	private Timer registrationCheck = new Timer(true);
+	
 	public LeagueTreeModel(String gameName) throws RemoteException, InvalidTicketException, GameNotFoundException {
 		this.root = gameName + " Leagues";
 		this.rootNode = new LeagueTreeNode(root);
@@ -64,12 +73,50 @@ public class LeagueTreeModel implements TreeModel, LocalArenaListener {
 		adapter = new ArenaListenerAdapter(this);
 		String ticket = MatchFrontEnd.getTicket();
 		MatchFrontEnd.getRemoteArena().addListener(ticket, gameName, adapter);
+		registrationCheck.schedule(new TimerTask() {
+					public void run() {
+						checkRegistration();
+					}
+				}, REGISTRATION_CHECK_PERIOD, REGISTRATION_CHECK_PERIOD);
 	}
 	
 	public void leaveArena() throws RemoteException, InvalidTicketException, GameNotFoundException {
+		registrationCheck.cancel();
 		MatchFrontEnd.getRemoteArena().removeListener(gameName, adapter);
 	}
 	
+	// Rejoins the arena if the arena removed the listener of this model, e.g.,
+	// after a network failure or because the model fell behind.
+	private void checkRegistration() {
+		try {
+			if (!MatchFrontEnd.getRemoteArena().hasListener(gameName, adapter)) {
+				rejoinArena();
+			}
+		} catch (RemoteException e) {
+			// The arena cannot be reached, try again at the next check.
+		} catch (ArenaException e) {
+			MatchFrontEnd.getLogger().log(Level.SEVERE, getClass().getName(),
+										  "Could not rejoin the arena: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Registers the model again with the arena after a disconnection. The model
+	 * is only reloaded if the arena cannot send the events missed in between, or
+	 * if the model did not receive any event before the disconnection.
+	 */
+	public void rejoinArena()
+		throws RemoteException, InvalidTicketException, AccessDeniedException, GameNotFoundException {
+		String ticket = MatchFrontEnd.getTicket();
+		long lastSequenceNumber = adapter.getLastSequenceNumber(gameName);
+		if (lastSequenceNumber == 0) {
+			MatchFrontEnd.getRemoteArena().addListener(ticket, gameName, adapter);
+			loadLeagueInfo();
+		} else if (!MatchFrontEnd.getRemoteArena().addListener(ticket, gameName, adapter, lastSequenceNumber)) {
+			loadLeagueInfo();
+		}
+	}
+	
     public Object getRoot() {
 		return rootNode;
     }
@@ -154,6 +201,7 @@ public class LeagueTreeModel implements TreeModel, LocalArenaListener {
 			LeagueTreeNode matchNode = new LeagueTreeNode(matchInfo, getMatchLabel(matchInfo));
 			tournamentNode.addChild(matchNode);
 			nodeMap.put(matchInfo.getMatch(), matchNode);
+			matchNodes.put(matchInfo.getMatchId(), matchNode);
 		}
 		User[] byes = roundInfo.getByes();
 		for (int i = 0; i < byes.length; i++) {
@@ -336,7 +384,17 @@ public class LeagueTreeModel implements TreeModel, LocalArenaListener {
 	
 	public void matchInfoChanged(MatchInfo matchInfo) {
 		LeagueTreeNode node = (LeagueTreeNode)nodeMap.get(matchInfo.getMatch());
+		if (node == null) {
+			// The match may have been restored after its game peer failed.
+			node = (LeagueTreeNode)matchNodes.get(matchInfo.getMatchId());
+			if (node != null) {
+				nodeMap.remove(node.getMatchInfo().getMatch());
+				nodeMap.put(matchInfo.getMatch(), node);
+				MatchFrontEnd.matchRelocated(matchInfo);
+			}
+		}
 		if (node != null) {
+			node.setMatchInfo(matchInfo);
 			node.setText(getMatchLabel(matchInfo));
 			fireTreeNodesChanged(node);
 		}
@@ -85,6 +85,10 @@ public class LeagueTreeNode {
 		return matchInfo;
     }
 	
+	public void setMatchInfo(MatchInfo info) {
+		matchInfo = info;
+	}
+	
     public String getText() {
 		return text;
     }
@@ -28,6 +28,13 @@ import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RMISecurityManager;
 import java.rmi.RemoteException;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import org.globalse.arena.matchfrontend.LeaguesFrame;
 import org.globalse.arena.remote.GameDescriptor;
@@ -68,6 +75,9 @@ public class MatchFrontEnd {
 	private static String ticket;
 	private static User user;
 	
+	// Lists of open match panels able to follow relocated matches, indexed by match id
+	private static Map relocationListeners = new HashMap();
+	
 	private static void initArena(PropertyLoader propertyLoader) throws RemoteException, NotBoundException, MalformedURLException {
 		String serverName = propertyLoader.getStringProperty("ArenaHost", "localhost");
 		int serverPort = propertyLoader.getIntProperty("ArenaPort", 1099);
@@ -178,6 +188,44 @@ public class MatchFrontEnd {
 		return ticket;
 	}
 	
+	synchronized private static void addRelocationListener(String matchId, MatchRelocationListener listener) {
+		List listeners = (List)relocationListeners.get(matchId);
+		if (listeners == null) {
+			listeners = new ArrayList();
+			relocationListeners.put(matchId, listeners);
+		}
+		listeners.add(listener);
+	}
+	
+	synchronized private static void removeRelocationListener(String matchId, MatchRelocationListener listener) {
+		List listeners = (List)relocationListeners.get(matchId);
+		if (listeners != null) {
+			listeners.remove(listener);
+			if (listeners.isEmpty()) {
+				relocationListeners.remove(matchId);
+			}
+		}
+	}
+	
+	/**
+	 * Notifies the open match panels of a match that the match was restored as a
+	 * new remote object, after the game peer running it failed.
+	 */
+	public static void matchRelocated(MatchInfo matchInfo) {
+		MatchRelocationListener[] listeners = null;
+		synchronized(MatchFrontEnd.class) {
+			List list = (List)relocationListeners.get(matchInfo.getMatchId());
+			if (list == null) {
+				return;
+			}
+			listeners = (MatchRelocationListener[])list.toArray(new MatchRelocationListener[list.size()]);
+		}
+		logger.log(Level.INFO, "MatchFrontEnd", "Match " + matchInfo.getMatchId() + " was relocated, reconnecting.");
+		for (int i = 0; i < listeners.length; i++) {
+			listeners[i].matchRelocated(matchInfo);
+		}
+	}
+	
 	public static JFrame createMatchFrame(MatchInfo matchInfo, String gameName) throws RemoteException, InvalidTicketException, AccessDeniedException, GameNotFoundException {
 		String separator = "";
 		String matchLabel = "";
@@ -189,7 +237,18 @@ public class MatchFrontEnd {
 		JFrame frame = new JFrame();
 		MatchPanelFactory panelFactory = null;
 		panelFactory = MatchFrontEnd.getRemoteArena().getMatchPanelFactory(ticket, gameName);
-		frame.getContentPane().add(panelFactory.createMatchPanel(MatchFrontEnd.getTicket(), matchInfo));
+		JPanel panel = panelFactory.createMatchPanel(MatchFrontEnd.getTicket(), matchInfo);
+		frame.getContentPane().add(panel);
+		if (panel instanceof MatchRelocationListener) {
+			final String matchId = matchInfo.getMatchId();
+			final MatchRelocationListener listener = (MatchRelocationListener)panel;
+			addRelocationListener(matchId, listener);
+			frame.addWindowListener(new WindowAdapter() {
+						public void windowClosed(WindowEvent e) {
+							removeRelocationListener(matchId, listener);
+						}
+					});
+		}
 		if (matchInfo.hasPlayer(MatchFrontEnd.getUser())) {
 			frame.setTitle("Playing " + matchLabel);
 		} else {
@@ -259,6 +318,11 @@ public class MatchFrontEnd {
 			} else {
 				logger.log(Level.INFO, "MatchFrontEnd", "getting match by id " + ticket + " " + matchId);
 				MatchInfo matchInfo = remoteArena.getMatchById(ticket, matchId);
+				if (matchInfo.getMatch() == null) {
+					JOptionPane.showMessageDialog(null, "Match " + matchId + " is over and was archived.",
+												  "ARENA Error", JOptionPane.ERROR_MESSAGE);
+					System.exit(1);
+				}
 				logger.log(Level.INFO, "MatchFrontEnd", "creating match frame ...");
 				JFrame matchFrame = createMatchFrame(matchInfo, gameName);
 				logger.log(Level.INFO, "MatchFrontEnd", "...successfully");
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.matchfrontend;
+
+import org.globalse.arena.remote.MatchInfo;
+
+/**
+ * This interface can be implemented by game-specific match panels which are able to
+ * follow a match to a new remote object. When the game peer running a match fails,
+ * the arena server restores the match elsewhere under the same match id. The match
+ * front end then notifies the open match panels of the match, which should join or
+ * watch the restored match.
+ *
+ * @see MatchFrontEnd#createMatchFrame
+ */
+public interface MatchRelocationListener {
+	
+	/**
+	 * Invoked when the match displayed by the panel was restored as a new remote
+	 * object. The specified match info refers to the new remote object.
+	 */
+	public void matchRelocated(MatchInfo match);
+	
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.remote;
+
+import java.io.Serializable;
+import java.rmi.RemoteException;
+
+/**
+ * This class is a container for transporting a single arena event (e.g., a change of
+ * league, tournament, round, or match) to remote arena listeners. Arena events are
+ * used to deliver several events in one remote call to listeners implementing
+ * <code>RemoteBatchArenaListener</code>. Once created, ArenaEvents are not updated.
+ *
+ * Events delivered by the arena carry the name of their game and a sequence number,
+ * which increases with each event of the same game. A listener that was disconnected can pass the sequence
+ * number of the last event it received to {@link RemoteArena#addListener(String, String, RemoteArenaListener, long)}
+ * to receive the events it missed instead of reloading the state of the game.
+ *
+ * @see RemoteBatchArenaListener
+ */
+public class ArenaEvent implements Serializable {
+	
+	public final static int LEAGUE_INFO_CHANGED = 0;
+	public final static int TOURNAMENT_CREATED = 1;
+	public final static int TOURNAMENT_INFO_CHANGED = 2;
+	public final static int ROUND_CREATED = 3;
+	public final static int MATCH_INFO_CHANGED = 4;
+	
+	private int type;
+	private Serializable info;
+	private String gameName = null;
+	private long sequenceNumber = 0;
+	
+	public ArenaEvent(LeagueInfo leagueInfo) {
+		this(LEAGUE_INFO_CHANGED, leagueInfo);
+	}
+	
+	public ArenaEvent(int type, TournamentInfo tournamentInfo) {
+		this(type, (Serializable)tournamentInfo);
+		if (type != TOURNAMENT_CREATED && type != TOURNAMENT_INFO_CHANGED) {
+			throw new IllegalArgumentException("Invalid type for a tournament event.");
+		}
+	}
+	
+	public ArenaEvent(RoundInfo roundInfo) {
+		this(ROUND_CREATED, roundInfo);
+	}
+	
+	public ArenaEvent(MatchInfo matchInfo) {
+		this(MATCH_INFO_CHANGED, matchInfo);
+	}
+	
+	/**
+	 * Creates a copy of an event with the specified game name and sequence number.
+	 * This is used by the arena server when it dispatches the event.
+	 *
+	 * @param    event               the event to copy
+	 * @param    gameName            the name of the game of the event
+	 * @param    sequenceNumber      the position of the event in the events of its game
+	 *
+	 */
+	public ArenaEvent(ArenaEvent event, String gameName, long sequenceNumber) {
+		this(event.type, event.info);
+		this.gameName = gameName;
+		this.sequenceNumber = sequenceNumber;
+	}
+	
+	private ArenaEvent(int type, Serializable info) {
+		if (info == null) {
+			throw new NullPointerException("Cannot create an arena event without info.");
+		}
+		this.type = type;
+		this.info = info;
+	}
+	
+	/**
+	 * Returns the type of this event, which is one of the constants defined by this class.
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getType() {
+		return type;
+	}
+	
+	/**
+	 * Returns the sequence number of this event within the events of its game, or 0
+	 * if the event was not dispatched by an arena. Sequence numbers start at 1 and
+	 * increase with each event dispatched for the game. A listener may observe gaps,
+	 * since it only receives the events it has access to.
+	 *
+	 * @return   a long
+	 *
+	 */
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+	
+	/**
+	 * Returns the name of the game this event belongs to, or null if the event
+	 * was not dispatched by an arena. Sequence numbers of events of different
+	 * games are unrelated.
+	 *
+	 * @return   a String
+	 *
+	 */
+	public String getGameName() {
+		return gameName;
+	}
+	
+	/**
+	 * Returns the league info of a LEAGUE_INFO_CHANGED event, null otherwise.
+	 *
+	 * @return   a LeagueInfo
+	 *
+	 */
+	public LeagueInfo getLeagueInfo() {
+		return type == LEAGUE_INFO_CHANGED ? (LeagueInfo)info : null;
+	}
+	
+	/**
+	 * Returns the tournament info of a TOURNAMENT_CREATED or TOURNAMENT_INFO_CHANGED
+	 * event, null otherwise.
+	 *
+	 * @return   a TournamentInfo
+	 *
+	 */
+	public TournamentInfo getTournamentInfo() {
+		return type == TOURNAMENT_CREATED || type == TOURNAMENT_INFO_CHANGED ? (TournamentInfo)info : null;
+	}
+	
+	/**
+	 * Returns the round info of a ROUND_CREATED event, null otherwise.
+	 *
+	 * @return   a RoundInfo
+	 *
+	 */
+	public RoundInfo getRoundInfo() {
+		return type == ROUND_CREATED ? (RoundInfo)info : null;
+	}
+	
+	/**
+	 * Returns the match info of a MATCH_INFO_CHANGED event, null otherwise.
+	 *
+	 * @return   a MatchInfo
+	 *
+	 */
+	public MatchInfo getMatchInfo() {
+		return type == MATCH_INFO_CHANGED ? (MatchInfo)info : null;
+	}
+	
+	/**
+	 * Invokes the listener method corresponding to the type of this event. This is
+	 * used by the arena server for listeners that do not accept batches of events, and
+	 * by listeners receiving a batch to process each event in turn.
+	 *
+	 * @param    listener            a  RemoteArenaListener
+	 *
+	 * @exception   RemoteException
+	 *
+	 */
+	public void notify(RemoteArenaListener listener) throws RemoteException {
+		switch (type) {
+			case LEAGUE_INFO_CHANGED:
+				listener.leagueInfoChanged((LeagueInfo)info);
+				break;
+			case TOURNAMENT_CREATED:
+				listener.tournamentCreated((TournamentInfo)info);
+				break;
+			case TOURNAMENT_INFO_CHANGED:
+				listener.tournamentInfoChanged((TournamentInfo)info);
+				break;
+			case ROUND_CREATED:
+				listener.roundCreated((RoundInfo)info);
+				break;
+			case MATCH_INFO_CHANGED:
+				listener.matchInfoChanged((MatchInfo)info);
+				break;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.remote;
+
+import java.io.Serializable;
+
+/**
+ * This class describes the subset of the events of a game a remote arena listener
+ * is interested in. The scope of a filter is either the whole game, a single league
+ * (including its tournaments, rounds, and matches), or a single tournament (including
+ * its rounds and matches). In addition, a filter can restrict the types of events
+ * delivered (see the type constants of {@link ArenaEvent}). Leagues and tournaments
+ * are identified by the ids found in their <code>LeagueInfo</code> and
+ * <code>TournamentInfo</code>.
+ *
+ * Filters are evaluated by the arena server, so that a front end following a single
+ * tournament does not receive the events of the rest of the game. Once created,
+ * ArenaEventFilters are not updated.
+ *
+ * @see RemoteArena#addListener(String, String, RemoteArenaListener, ArenaEventFilter)
+ */
+public class ArenaEventFilter implements Serializable {
+
+	// Mask accepting all event types
+	private final static int ALL_TYPES = -1;
+
+	private String leagueId;
+	private String tournamentId;
+	private int typeMask;
+
+	private ArenaEventFilter(String leagueId, String tournamentId, int typeMask) {
+		this.leagueId = leagueId;
+		this.tournamentId = tournamentId;
+		this.typeMask = typeMask;
+	}
+
+	/**
+	 * Returns a filter accepting all the events of the game.
+	 */
+	public static ArenaEventFilter forGame() {
+		return new ArenaEventFilter(null, null, ALL_TYPES);
+	}
+
+	/**
+	 * Returns a filter accepting the events of a single league, including the events
+	 * of its tournaments.
+	 *
+	 * @param    leagueId            the id of the league, as returned by LeagueInfo.getId
+	 *
+	 */
+	public static ArenaEventFilter forLeague(String leagueId) {
+		if (leagueId == null) {
+			throw new NullPointerException("Cannot create a league filter with a null league id.");
+		}
+		return new ArenaEventFilter(leagueId, null, ALL_TYPES);
+	}
+
+	/**
+	 * Returns a filter accepting the events of a single tournament, including the
+	 * events of its rounds and matches.
+	 *
+	 * @param    tournamentId        the id of the tournament, as returned by TournamentInfo.getId
+	 *
+	 */
+	public static ArenaEventFilter forTournament(String tournamentId) {
+		if (tournamentId == null) {
+			throw new NullPointerException("Cannot create a tournament filter with a null tournament id.");
+		}
+		return new ArenaEventFilter(null, tournamentId, ALL_TYPES);
+	}
+
+	/**
+	 * Returns a filter with the same scope as this filter which only accepts events
+	 * of the specified types.
+	 *
+	 * @param    types               an array of ArenaEvent type constants
+	 *
+	 */
+	public ArenaEventFilter withTypes(int [] types) {
+		int mask = 0;
+		for (int i = 0; i < types.length; i++) {
+			mask |= 1 << types[i];
+		}
+		return new ArenaEventFilter(leagueId, tournamentId, mask);
+	}
+
+	/**
+	 * Returns the id of the league this filter is restricted to, or null if the
+	 * scope of the filter is not a league.
+	 *
+	 * @return   a String
+	 *
+	 */
+	public String getLeagueId() {
+		return leagueId;
+	}
+
+	/**
+	 * Returns the id of the tournament this filter is restricted to, or null if the
+	 * scope of the filter is not a tournament.
+	 *
+	 * @return   a String
+	 *
+	 */
+	public String getTournamentId() {
+		return tournamentId;
+	}
+
+	/**
+	 * Returns true if events of the specified type pass this filter.
+	 *
+	 * @param    type                an ArenaEvent type constant
+	 *
+	 */
+	public boolean acceptsType(int type) {
+		return (typeMask & (1 << type)) != 0;
+	}
+}
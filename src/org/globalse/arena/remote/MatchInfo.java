@@ -30,6 +30,7 @@ import org.globalse.arena.user.User;
  * This class is a container for transporting information about matches to and
  * from remote methods. Instances are created by the game peer and sent to the
  * match front ends. Once created, MatchInfos are not updated as Matches change.
+ * The infos of released matches do not reference their remote match.
  *
  * @see RemoteMatch#getInfo
  * @author Michael Nagel
@@ -53,6 +54,22 @@ public class MatchInfo implements Serializable {
 		} catch (RemoteException e) {} catch (InvalidStateException e) {}
     }
 	
+	private MatchInfo(MatchInfo info) {
+		this.match = null;
+		this.id = info.id;
+		this.players = info.players;
+		this.state = info.state;
+		this.ranks = info.ranks;
+	}
+	
+	/**
+	 * Returns a copy of this info which does not reference the remote match. The
+	 * arena server keeps such copies for the matches it released.
+	 */
+	public MatchInfo withoutMatch() {
+		return new MatchInfo(this);
+	}
+	
     public String getMatchId() {
 		return id;
     }
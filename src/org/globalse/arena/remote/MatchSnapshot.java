@@ -0,0 +1,99 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.remote;
+
+import java.io.Serializable;
+
+/**
+ * This class is a container for transporting the part of the state of a match
+ * a spectator is missing when it starts watching the match. A snapshot consists
+ * of an optional game specific state and of the moves played after that state.
+ * Spectators reconnecting to a match only receive the moves they missed, while
+ * spectators joining a match late receive the compact state of the match if the
+ * game provides one, instead of all the moves played so far. Once created,
+ * MatchSnapshots are not updated as the match changes.
+ *
+ * @see RemoteMatch#watch(RemoteMatchListener, int)
+ */
+public class MatchSnapshot implements Serializable {
+	
+	/**
+	 * Move index passed to watch by spectators which do not know any move yet and
+	 * accept a game specific state instead of the moves played so far.
+	 */
+	public final static int WITH_STATE = -1;
+	
+	private int firstMoveIndex;
+	private Serializable state;
+	private Move[] moves;
+	
+	public MatchSnapshot(int firstMoveIndex, Serializable state, Move[] moves) {
+		if (moves == null) {
+			throw new NullPointerException("Cannot create a match snapshot with null moves.");
+		}
+		this.firstMoveIndex = firstMoveIndex;
+		this.state = state;
+		this.moves = moves;
+	}
+	
+	/**
+	 * Returns the index of the first move of this snapshot, that is, the number of
+	 * moves played before it.
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getFirstMoveIndex() {
+		return firstMoveIndex;
+	}
+	
+	/**
+	 * Returns the game specific state of the match after the first
+	 * <code>getFirstMoveIndex()</code> moves, or null if the snapshot does not
+	 * include a state.
+	 *
+	 * @return   a Serializable
+	 *
+	 */
+	public Serializable getState() {
+		return state;
+	}
+	
+	/**
+	 * Returns the moves played after the first <code>getFirstMoveIndex()</code> moves.
+	 *
+	 * @return   a Move[]
+	 *
+	 */
+	public Move[] getMoves() {
+		return moves;
+	}
+	
+	/**
+	 * Returns the number of moves played in the match when this snapshot was taken.
+	 *
+	 * @return   an int
+	 *
+	 */
+	public int getNumMoves() {
+		return firstMoveIndex + moves.length;
+	}
+}
@@ -91,8 +91,44 @@ public interface RemoteArena extends Remote {
 	public void addListener(String ticket, String gameName, RemoteArenaListener listener)
 		throws RemoteException, InvalidTicketException, GameNotFoundException;
 	
+	/**
+	 * Registers a listener after a disconnection. The arena sends the listener
+	 * the events of the game with a sequence number greater than
+	 * <code>lastSequenceNumber</code> (see {@link ArenaEvent#getSequenceNumber}),
+	 * as long as they are still held by the arena. If some of the missed events
+	 * are not available anymore, the listener is registered anyway, this method
+	 * returns false, and the caller should reload the leagues and tournaments of
+	 * the game.
+	 */
+	public boolean addListener(String ticket, String gameName, RemoteArenaListener listener, long lastSequenceNumber)
+		throws RemoteException, InvalidTicketException, GameNotFoundException;
+	
+	/**
+	 * Registers a listener for the events of a game passing the specified filter,
+	 * for example, the events of a single league or tournament. A listener has at
+	 * most one subscription per game: registering it again replaces its filter.
+	 */
+	public void addListener(String ticket, String gameName, RemoteArenaListener listener, ArenaEventFilter filter)
+		throws RemoteException, InvalidTicketException, GameNotFoundException;
+	
+	/**
+	 * Registers a filtered listener after a disconnection. Only the missed events
+	 * passing the filter are sent. See {@link #addListener(String, String, RemoteArenaListener, long)}.
+	 */
+	public boolean addListener(String ticket, String gameName, RemoteArenaListener listener, ArenaEventFilter filter, long lastSequenceNumber)
+		throws RemoteException, InvalidTicketException, GameNotFoundException;
+	
 	public void removeListener(String gameName, RemoteArenaListener listener)
 		throws RemoteException, InvalidTicketException, GameNotFoundException;
+	
+	/**
+	 * Returns true if the listener is still registered for the events of the game.
+	 * The arena removes listeners which fail, miss their call deadline, or, for
+	 * listeners accepting batches, fall too far behind. Such listeners can register
+	 * again with the sequence number of the last event they received.
+	 */
+	public boolean hasListener(String gameName, RemoteArenaListener listener)
+		throws RemoteException, GameNotFoundException;
 
 	// Method used by game peers to make themselves avaiable to an arena.
 	public void registerGamePeer(String arenaTicket, RemoteGamePeer gamePeer, String peerTicket)
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.remote;
+import java.rmi.RemoteException;
+
+/**
+ * Interface for remote arena listeners which accept several events in a single
+ * remote call. Implementing this interface is optional: the arena server delivers
+ * events to listeners which only implement <code>RemoteArenaListener</code> one at a
+ * time, through the event specific methods.
+ *
+ * The arena server fills a batch with the events queued for a listener within a
+ * short window or up to a maximum batch size. Events in a batch are ordered in the
+ * same way they would have been delivered one by one.
+ *
+ * @see ArenaEvent
+ */
+public interface RemoteBatchArenaListener extends RemoteArenaListener {
+	
+	public void eventsOccurred(ArenaEvent[] events) throws RemoteException;
+
+}
@@ -135,6 +135,10 @@ public interface RemoteMatch extends Remote {
 	 * behind player listeners to make sure players are notified in the best possible time. This method
 	 * is typically invoked by the match front end of the spectator.
 	 *
+	 * If many spectators already watch the match, the listener is registered with
+	 * a relay instead, which then sends the events. Matches create their own relays
+	 * as needed; other relays can be added with addRelay.
+	 *
 	 * @param    listener            a  RemoteMatchListener to which notification events should be sent
 	 *
 	 * @return   an array representing the sequence of moves that have been played so far.
@@ -145,6 +149,71 @@ public interface RemoteMatch extends Remote {
 	public Move[] watch(RemoteMatchListener listener)
 		throws RemoteException;
 	
+	/**
+	 * This method registers a listener for a spectator, like watch, but only returns
+	 * the part of the match the spectator does not know yet. A spectator reconnecting
+	 * to the match passes the number of moves it already received and gets the moves
+	 * played since. A spectator joining the match passes MatchSnapshot.WITH_STATE and
+	 * gets the game specific state of the match if the game provides one, or all the
+	 * moves played so far otherwise.
+	 *
+	 * @param    listener            a  RemoteMatchListener to which notification events should be sent
+	 * @param    fromMoveIndex       the number of moves already known by the spectator, or MatchSnapshot.WITH_STATE
+	 *
+	 * @return   a MatchSnapshot with the missing moves and, possibly, the state of the match
+	 *
+	 * @exception   RemoteException
+	 *
+	 */
+	public MatchSnapshot watch(RemoteMatchListener listener, int fromMoveIndex)
+		throws RemoteException;
+	
+	/**
+	 * This method turns a newly created match into a copy of a match that was lost,
+	 * for example because the game peer it was running on failed. The match takes over
+	 * the id of the lost match and replays its moves without notifying anybody. The
+	 * match stays in the INITIALIZING state, so that it can then be opened and joined
+	 * again by the players. This method is invoked by the round when replacing the
+	 * lost match.
+	 *
+	 * This method throws an InvalidStateException if the state of the match was not
+	 * INITIALIZING or if the game does not support restoring matches, an
+	 * InvalidTicketException if the specified ticket has expired, and an
+	 * AccessDeniedException if the ticket does not correspond to a user who is
+	 * allowed to open matches.
+	 *
+	 * @param    ticket              a  string representing the logged in user
+	 * @param    matchId             the id of the lost match
+	 * @param    moves               the moves played in the lost match, in order
+	 *
+	 * @exception   RemoteException
+	 * @exception   InvalidTicketException
+	 * @exception   AccessDeniedException
+	 * @exception   InvalidStateException
+	 *
+	 */
+	public void restore(String ticket, String matchId, Move[] moves)
+		throws RemoteException, InvalidTicketException, AccessDeniedException, InvalidStateException;
+	
+	/**
+	 * This method registers a relay re-broadcasting the events of this match. The
+	 * relay is added as a spectator. Once the number of spectators reaches a threshold,
+	 * new spectators are redirected to the least loaded relay. This method can only be
+	 * invoked by the owner of the tournament.
+	 *
+	 * @param    ticket              a  string representing a logged in user
+	 * @param    relay               a  RemoteMatchRelay
+	 *
+	 * @return   an array representing the sequence of moves that have been played so far.
+	 *
+	 * @exception   RemoteException
+	 * @exception   InvalidTicketException
+	 * @exception   AccessDeniedException
+	 *
+	 */
+	public Move[] addRelay(String ticket, RemoteMatchRelay relay)
+		throws RemoteException, InvalidTicketException, AccessDeniedException;
+	
 	/**
 	 * This method unregisters a listener for this match. After invoking this method, the
 	 * specified listener will not receive events about this match anymore. If the specified
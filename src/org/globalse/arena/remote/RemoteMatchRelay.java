@@ -0,0 +1,66 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.remote;
+
+import java.rmi.RemoteException;
+
+/**
+ * Interface for relays re-broadcasting the events of a single match to spectators.
+ * A relay subscribes to the match once, as a spectator, and forwards each event it
+ * receives to its own spectators. Relays are used for popular matches, so that the
+ * virtual machine running the match (often a game peer) does not need to notify
+ * every spectator itself.
+ *
+ * Matches deploy relays in their own virtual machine once the number of spectators
+ * watching them directly reaches a threshold. Additional relays, e.g., on other
+ * hosts, are registered with {@link RemoteMatch#addRelay}. Once the number of
+ * spectators watching a match directly reaches a threshold, the match redirects
+ * new spectators to the least loaded relay. This is transparent to spectators, which
+ * keep using {@link RemoteMatch#watch} and {@link RemoteMatch#leave}.
+ *
+ * @see org.globalse.arena.server.MatchRelay
+ */
+public interface RemoteMatchRelay extends RemoteMatchListener {
+	
+	/**
+	 * Registers a spectator with this relay and returns the moves played so far.
+	 * Subsequent events of the match are forwarded to the listener, in order.
+	 */
+	public Move[] watch(RemoteMatchListener listener) throws RemoteException;
+	
+	/**
+	 * Registers a spectator with this relay, like watch, but only returns the moves
+	 * played after the specified number of moves. Relays do not keep the game
+	 * specific state of the match: a spectator passing MatchSnapshot.WITH_STATE
+	 * gets all the moves played so far.
+	 */
+	public MatchSnapshot watch(RemoteMatchListener listener, int fromMoveIndex) throws RemoteException;
+	
+	/**
+	 * Unregisters a spectator previously registered with watch.
+	 */
+	public void leave(RemoteMatchListener listener) throws RemoteException;
+	
+	/**
+	 * Returns the number of spectators currently registered with this relay.
+	 */
+	public int getNumSpectators() throws RemoteException;
+}
@@ -25,6 +25,7 @@ import java.rmi.server.RemoteServer;
 import java.rmi.server.ServerNotActiveException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -32,6 +33,7 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.globalse.arena.gamepeer.RemoteGamePeer;
+import org.globalse.arena.remote.ArenaEventFilter;
 import org.globalse.arena.remote.GameDescriptor;
 import org.globalse.arena.remote.LeagueInfo;
 import org.globalse.arena.remote.MatchInfo;
@@ -49,8 +51,10 @@ import org.globalse.arena.remote.exceptions.TournamentStyleNotFoundException;
 import org.globalse.arena.remote.exceptions.UserAlreadyExistsException;
 import org.globalse.arena.server.GamePeerManager;
 import org.globalse.arena.user.AccessPolicy;
-import org.globalse.arena.user.DefaultAccessPolicy;
+import org.globalse.arena.user.CompiledAccessPolicy;
 import org.globalse.arena.user.GateKeeper;
+import org.globalse.arena.user.PasswordHasher;
+import org.globalse.arena.user.UserStore;
 import org.globalse.arena.user.User;
 
 /**
@@ -81,7 +85,10 @@ public class Arena extends UnicastRemoteObject implements RemoteArena  {
 	
 	// The access policy authorizes logged in users for each remote method
 	// invoked in the arena or related League or Tournament.
-	private AccessPolicy policy = new DefaultAccessPolicy();
+	private AccessPolicy policy = new CompiledAccessPolicy();
+	
+	// Incremented whenever the access policy or the operator change
+	private volatile long accessVersion = 0;
 	
 	// Map of styles registered in this arena, indexed by style name
 	private Map styles = new HashMap();
@@ -113,19 +120,74 @@ public class Arena extends UnicastRemoteObject implements RemoteArena  {
 		return gateKeeper.isUserGuest(user);
 	}
 	
+	public User getGuest() {
+		return gateKeeper.getGuest();
+	}
+	
 	public User createUser(String username, String password) throws UserAlreadyExistsException {
 		return gateKeeper.createUser(username, password);
 	}
 	
+	/**
+	 * Creates users in parallel from an iterator over arrays holding a user name
+	 * and a password, e.g., when provisioning the accounts of a season. Logins and
+	 * ticket checks are not delayed by the import. Accounts whose name is already
+	 * taken are skipped. Returns the number of users created.
+	 */
+	public int importUsers(Iterator accounts) {
+		return gateKeeper.importUsers(accounts, GateKeeper.DEFAULT_NUM_IMPORT_THREADS);
+	}
+	
 	public User getUser(String ticket) throws RemoteException, InvalidTicketException {
 		return gateKeeper.getUser(ticket);
 	}
 	
+	/**
+	 * Replaces the store of the users allowed to log into the arena. Must be
+	 * invoked before any user logs in, since existing sessions are lost.
+	 */
+	void setUserStore(UserStore store) {
+		gateKeeper = new GateKeeper(store);
+		// The new gatekeeper has its own guest.
+		accessVersionChanged();
+	}
+	
+	/**
+	 * Sets the number of iterations of new password hashes, the number of threads
+	 * checking passwords on login, and the maximum number of logins being checked
+	 * above which new logins are rejected.
+	 */
+	void setPasswordHashing(int iterations, int numThreads, int maxPending) {
+		PasswordHasher hasher = gateKeeper.getPasswordHasher();
+		hasher.setIterations(iterations);
+		hasher.setNumThreads(numThreads);
+		hasher.setMaxPending(maxPending);
+	}
+	
+	/**
+	 * Sets the absolute and idle timeouts of sessions in milliseconds, 0 for no
+	 * timeout.
+	 */
+	void setSessionTimeouts(long absoluteTimeout, long idleTimeout) {
+		gateKeeper.setSessionTimeouts(absoluteTimeout, idleTimeout);
+	}
+	
+	// Used by tournaments, which act on behalf of the user who launched them
+	// until they are over.
+	void retainTicket(String ticket) throws InvalidTicketException {
+		gateKeeper.retainSession(ticket);
+	}
+	
+	void releaseTicket(String ticket) {
+		gateKeeper.releaseSession(ticket);
+	}
+	
 	////////////////////////////////////////////////////////////////////////////
 	// Access control
 	
 	void setAccessPolicy(AccessPolicy policy) {
 		this.policy = policy;
+		accessVersionChanged();
 	}
 	
 	public User getOperator() {
@@ -134,6 +196,21 @@ public class Arena extends UnicastRemoteObject implements RemoteArena  {
 	
 	void setOperator(User operator) {
 		this.operator = operator;
+		accessVersionChanged();
+	}
+	
+	synchronized private void accessVersionChanged() {
+		accessVersion++;
+	}
+	
+	/**
+	 * Returns a counter that is incremented whenever a change in the arena (e.g.,
+	 * a new access policy or operator) may affect access decisions. Together with
+	 * the versions of leagues and tournaments, this lets the notifier detect when
+	 * cached access decisions are stale.
+	 */
+	public long getAccessVersion() {
+		return accessVersion;
 	}
 	
 	private void checkArenaAccess(User user, String access)
@@ -172,6 +249,18 @@ public class Arena extends UnicastRemoteObject implements RemoteArena  {
 		return policy.hasTournamentAccess(user, tournament, access);
 	}
 	
+	BitSet getLeagueAccess(User[] users, League league, String access) {
+		return policy.getLeagueAccess(users, league, access);
+	}
+	
+	BitSet getTournamentAccess(User user, Tournament[] tournaments, String access) {
+		return policy.getTournamentAccess(user, tournaments, access);
+	}
+	
+	BitSet getTournamentAccess(User[] users, Tournament tournament, String access) {
+		return policy.getTournamentAccess(users, tournament, access);
+	}
+	
     ////////////////////////////////////////////////////////////////////////////
 	// Methods for accessing top level objects (styles, games, leagues)
 	
@@ -246,16 +335,11 @@ public class Arena extends UnicastRemoteObject implements RemoteArena  {
 	public LeagueInfo[] getLeagueInfos(String ticket)
 		throws RemoteException, InvalidTicketException, AccessDeniedException {
 		User user = getUser(ticket);
-		List result = new ArrayList();
+		League[] candidates;
 		synchronized(leagues) {
-			for (Iterator i = leagues.iterator(); i.hasNext();) {
-				League league = (League)i.next();
-				if (policy.hasLeagueAccess(user, league, AccessPolicy.READ)) {
-					result.add(new LeagueInfo(league));
-				}
-			}
+			candidates = (League[])leagues.toArray(new League[leagues.size()]);
 		}
-		return (LeagueInfo[])result.toArray(new LeagueInfo[result.size()]);
+		return getReadableLeagueInfos(user, candidates);
 	}
 	
 	public LeagueInfo [] getLeagueInfosByGame(String ticket, String gameName)
@@ -263,18 +347,28 @@ public class Arena extends UnicastRemoteObject implements RemoteArena  {
 		User user = getUser(ticket);
 		// This triggers an ElementNotFound exception when the game name is not valid.
 		Game game = getGameByName(gameName);
-		List result = new ArrayList();
+		List candidates = new ArrayList();
 		synchronized(leagues) {
 			for (Iterator i = leagues.iterator(); i.hasNext();) {
 				League league = (League)i.next();
 				if (league.getGame() == game) {
-					if (policy.hasLeagueAccess(user, league, AccessPolicy.READ)) {
-						result.add(new LeagueInfo(league));
-					}
+					candidates.add(league);
 				}
 			}
 		}
-		return (LeagueInfo[])result.toArray(new LeagueInfo[result.size()]);
+		return getReadableLeagueInfos(user, (League[])candidates.toArray(new League[candidates.size()]));
+	}
+	
+	// Authorizes the user for all the candidate leagues at once and returns the
+	// infos of the leagues the user can see.
+	private LeagueInfo[] getReadableLeagueInfos(User user, League[] candidates) {
+		BitSet readable = policy.getLeagueAccess(user, candidates, AccessPolicy.READ);
+		LeagueInfo[] result = new LeagueInfo[readable.cardinality()];
+		int j = 0;
+		for (int i = readable.nextSetBit(0); i >= 0; i = readable.nextSetBit(i + 1)) {
+			result[j++] = new LeagueInfo(candidates[i]);
+		}
+		return result;
 	}
 	
 	void addLeague(League league) {
@@ -330,12 +424,39 @@ public class Arena extends UnicastRemoteObject implements RemoteArena  {
 		notifier.addListener(game, user, listener);
 	}
 	
+	public boolean addListener(String ticket, String gameName, RemoteArenaListener listener, long lastSequenceNumber)
+		throws RemoteException, InvalidTicketException, GameNotFoundException {
+		User user = getUser(ticket);
+		Game game = getGameByName(gameName);
+		return notifier.addListener(game, user, listener, ArenaEventFilter.forGame(), lastSequenceNumber);
+	}
+	
+	public void addListener(String ticket, String gameName, RemoteArenaListener listener, ArenaEventFilter filter)
+		throws RemoteException, InvalidTicketException, GameNotFoundException {
+		User user = getUser(ticket);
+		Game game = getGameByName(gameName);
+		notifier.addListener(game, user, listener, filter);
+	}
+	
+	public boolean addListener(String ticket, String gameName, RemoteArenaListener listener, ArenaEventFilter filter, long lastSequenceNumber)
+		throws RemoteException, InvalidTicketException, GameNotFoundException {
+		User user = getUser(ticket);
+		Game game = getGameByName(gameName);
+		return notifier.addListener(game, user, listener, filter, lastSequenceNumber);
+	}
+	
 	public void removeListener(String gameName, RemoteArenaListener listener)
 		throws RemoteException, GameNotFoundException {
 		Game game = getGameByName(gameName);
 		notifier.removeListener(game, listener);
 	}
 	
+	public boolean hasListener(String gameName, RemoteArenaListener listener)
+		throws RemoteException, GameNotFoundException {
+		Game game = getGameByName(gameName);
+		return notifier.hasListener(game, listener);
+	}
+	
 	////////////////////////////////////////////////////////////////////////////
 	// Method for remote logging by match front ends
 	public void log(Level level, String className, String message) {
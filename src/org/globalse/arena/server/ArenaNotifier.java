@@ -22,17 +22,29 @@ package org.globalse.arena.server;
 
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.WeakHashMap;
+import java.util.logging.Logger;
+import org.globalse.arena.remote.ArenaEvent;
+import org.globalse.arena.remote.ArenaEventFilter;
 import org.globalse.arena.remote.LeagueInfo;
 import org.globalse.arena.remote.MatchInfo;
 import org.globalse.arena.remote.RemoteArenaListener;
+import org.globalse.arena.remote.RemoteBatchArenaListener;
 import org.globalse.arena.remote.RoundInfo;
 import org.globalse.arena.remote.TournamentInfo;
+import org.globalse.arena.remote.exceptions.GameNotFoundException;
 import org.globalse.arena.user.AccessPolicy;
 import org.globalse.arena.user.User;
+import org.globalse.arena.util.WorkerPool;
 
 /**
  * This class is responsible for managing arena listeners and the threads associated
@@ -41,21 +53,71 @@ import org.globalse.arena.user.User;
  * arena listeners, they are handled instead by the RemoteMatch and RemoteMatchListener
  * interfaces.
  *
- * This class allocates a thread and an event queue for each active game. Leagues,
- * tournaments, rounds, and matches queue events by invoking the fire methods. When
- * the queue is not empty, the notifier thread assocaited with the game
+ * This class allocates a lane and an event queue for each active game. Leagues,
+ * tournaments, rounds, and matches queue events by invoking the fire methods. Game
+ * lanes share a bounded pool of notifier threads (see {@link WorkerPool}): when
+ * the queue of a game is not empty, a notifier thread of the pool takes the lane,
  * finds the relevant listeners associated with the object of interest, checks
  * the access of the user associated with the listener, and invokes the appropriate
  * listener method. If the call to the listener fails (e.g., network failure or
  * match front end crashed), the listener is removed from the arena. The thread then
  * moves on to the next listener.
  *
- * When the event queue for a game is empty, the thread ends to minimize the number
- * of active threads (for example, many games might not be active for a long time).
- * A new thread will be created when the first event for the game is queued.
+ * Events of the same game are always delivered one at a time and in the order they
+ * were queued, while events of different games are delivered in parallel, up to the
+ * number of threads in the pool. Lanes do not hold any thread while their queue is
+ * empty, so that inactive games do not cost any thread, and the total number of
+ * notifier threads does not depend on the number of games. The number of threads
+ * is set with the NotifierThreads property of the arena.
  *
- * Synchronization between producer and consumer threads is achieved with a
- * lock on the eventQueues object.
+ * Events carrying a snapshot of a league, tournament, or match (i.e., the info
+ * changed events) are coalesced: when several such events about the same object are
+ * waiting in the queue of a game, only the newest one is delivered. This reduces
+ * the number of snapshots serialized and sent during registration storms, when
+ * many players join tournaments and matches at the same time.
+ *
+ * Each event dispatched by a game lane is given a sequence number, which increases
+ * with each event of the game, and is kept in a bounded history of recent events.
+ * A listener re-subscribing after a disconnection passes the sequence number of
+ * the last event it received and is sent the events it missed, provided they are
+ * still in the history. Otherwise, the listener is told to reload the state of
+ * the game. Replaying and dispatching events of a game are mutually exclusive, so
+ * that a re-subscribing listener receives each event exactly once.
+ *
+ * Each game lane also records its queue depth and the dispatch latency of its
+ * events, that is, the time between the fire method and the start of the delivery
+ * of the event. These statistics, along with the number of coalesced and dropped
+ * events, can be logged periodically by setting the NotifierStatisticsPeriod
+ * property of the arena.
+ *
+ * Game lanes do not call listeners directly. Instead, each remote arena listener
+ * has its own bounded outbound queue (a listener channel), executed by a separate pool
+ * of sender threads. A slow or half-dead match front end thus only delays its own
+ * events, and not the events of the other subscribers of the same game. When the
+ * queue of a listener is full, the overflow policy decides whether the oldest event
+ * is dropped, whether the event replaces a pending event about the same league,
+ * tournament, or match (coalesce), or whether the listener is evicted. Listeners
+ * accepting batches receive sequence numbers and can resume after an eviction, so
+ * they are always evicted rather than silently losing events. A listener
+ * that does not return from a call within the call deadline is evicted as well, and
+ * the blocked sender thread is temporarily replaced so that other listeners are not
+ * affected.
+ *
+ * A listener subscribes either to a whole game, to a single league, or to a single
+ * tournament, and can restrict the types of events it receives (see
+ * {@link ArenaEventFilter}). Subscriptions are indexed by scope, so that delivering
+ * an event only visits the subscriptions of its game, league, and tournament.
+ *
+ * The listeners having access to a league or a tournament are resolved once and
+ * cached, so that delivering an event does not check the access of every user
+ * subscribed to the game. A cached entry records the versions of the arena, league,
+ * tournament, and subscriptions it was computed with, and is recomputed as soon as
+ * one of them changes (e.g., a player joins a restricted league, the tournament
+ * changes state, or a listener is added or removed).
+ *
+ * Listeners implementing RemoteBatchArenaListener receive the events queued within
+ * a short batch window, up to a maximum batch size, in a single remote call. Other
+ * listeners receive events one at a time through the event specific methods.
  *
  * This class is package protected so that only Arena, League, Tournament, Round, and
  * Match access this class.
@@ -64,106 +126,572 @@ import org.globalse.arena.user.User;
  */
 class ArenaNotifier {
 	
-	// Map of game listeners indexed by games. Game listeners are in turn also
-	// a map of user listeners indexed by user. User listeners are a list of
-	// remote arena listeners.
+	private static Logger logger = Logger.getLogger("org.globalse.arena.server");
+	
+	// Map of game subscriptions indexed by games. The subscriptions of a game
+	// are indexed by scope (game, league, or tournament) and by user.
 	private Map listeners = new HashMap();
 	
-	// Map of notifier threads indexed by Game
-	private Map threads = new HashMap();
+	// Incremented whenever a listener is added or removed, protected by the lock
+	// on listeners.
+	private long subscriptionVersion = 0;
+	
+	// Cache of resolved subscriptions indexed by League or Tournament, protected by
+	// the lock on listeners. Entries vanish with the leagues and tournaments.
+	private Map resolvedListeners = new WeakHashMap();
+	
+	// Default number of threads delivering events to arena listeners
+	static final int DEFAULT_NUM_THREADS = 4;
+	
+	// Pool of notifier threads shared by all games
+	private WorkerPool pool = new WorkerPool("ArenaNotifier", DEFAULT_NUM_THREADS);
+	
+	// Map of game lanes indexed by Game
+	private Map lanes = new HashMap();
+	
+	// Policies applied when the outbound queue of a listener is full
+	static final String DROP_OLDEST = "drop-oldest";
+	static final String COALESCE = "coalesce";
+	static final String EVICT = "evict";
+	
+	// Default settings for listener channels
+	static final int DEFAULT_NUM_SENDERS = 8;
+	static final int DEFAULT_QUEUE_CAPACITY = 256;
+	static final long DEFAULT_CALL_DEADLINE = 10000;
+	static final int DEFAULT_BATCH_SIZE = 32;
+	static final long DEFAULT_BATCH_WINDOW = 20;
+	
+	// Default number of recent events kept per game for replay
+	static final int DEFAULT_HISTORY_SIZE = 1024;
+	
+	// Default period of the statistics report in milliseconds, 0 as the report is
+	// disabled by default
+	static final long DEFAULT_STATISTICS_PERIOD = 0;
+	
+	// Period of the watchdog checking call deadlines, in milliseconds
+	private static final long WATCHDOG_PERIOD = 1000;
+	
+	// Pool of sender threads shared by all listener channels
+	private WorkerPool deliveryPool = new WorkerPool("ArenaSender", DEFAULT_NUM_SENDERS);
 	
-	// Map of event queues indexed by Game
-	private Map eventQueues = new HashMap();
+	// Map of listener channels indexed by remote arena listener
+	private Map channels = new HashMap();
+	
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private String overflowPolicy = COALESCE;
+	private long callDeadline = DEFAULT_CALL_DEADLINE;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private long batchWindow = DEFAULT_BATCH_WINDOW;
+	private int historySize = DEFAULT_HISTORY_SIZE;
+	
+	// Number of events dropped because of full listener queues
+	private long numDroppedEvents = 0;
+	
+	private Timer watchdog = new Timer(true);
+	
+	private long statisticsPeriod = DEFAULT_STATISTICS_PERIOD;
+	private TimerTask statisticsReport = null;
+	
+	ArenaNotifier() {
+		watchdog.schedule(new Watchdog(), WATCHDOG_PERIOD, WATCHDOG_PERIOD);
+	}
+	
+	void setNumThreads(int numThreads) {
+		pool.setSize(numThreads);
+	}
+	
+	int getNumThreads() {
+		return pool.getSize();
+	}
+	
+	void setNumSenders(int numSenders) {
+		deliveryPool.setSize(numSenders);
+	}
+	
+	int getNumSenders() {
+		return deliveryPool.getSize();
+	}
+	
+	synchronized void setListenerQueueCapacity(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Listener queue capacity must be at least 1.");
+		}
+		this.queueCapacity = capacity;
+	}
+	
+	synchronized int getListenerQueueCapacity() {
+		return queueCapacity;
+	}
+	
+	synchronized void setOverflowPolicy(String policy) {
+		if (!DROP_OLDEST.equals(policy) && !COALESCE.equals(policy) && !EVICT.equals(policy)) {
+			throw new IllegalArgumentException("Unknown listener overflow policy \"" + policy + "\".");
+		}
+		this.overflowPolicy = policy;
+	}
+	
+	synchronized String getOverflowPolicy() {
+		return overflowPolicy;
+	}
+	
+	/**
+	 * Sets the time in milliseconds a listener is given to return from a call before
+	 * it is evicted.
+	 */
+	synchronized void setCallDeadline(long deadline) {
+		if (deadline <= 0) {
+			throw new IllegalArgumentException("Listener call deadline must be positive.");
+		}
+		this.callDeadline = deadline;
+	}
+	
+	synchronized long getCallDeadline() {
+		return callDeadline;
+	}
+	
+	/**
+	 * Sets the maximum number of events delivered in a single call to a listener
+	 * accepting batches.
+	 */
+	synchronized void setListenerBatchSize(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Listener batch size must be at least 1.");
+		}
+		this.batchSize = size;
+	}
+	
+	synchronized int getListenerBatchSize() {
+		return batchSize;
+	}
+	
+	/**
+	 * Sets the time in milliseconds events are collected for a listener accepting
+	 * batches before the batch is sent, unless the batch is full earlier.
+	 */
+	synchronized void setListenerBatchWindow(long window) {
+		if (window < 0) {
+			throw new IllegalArgumentException("Listener batch window cannot be negative.");
+		}
+		this.batchWindow = window;
+	}
+	
+	synchronized long getListenerBatchWindow() {
+		return batchWindow;
+	}
+	
+	/**
+	 * Sets the number of recent events kept for each game, so that listeners can
+	 * resume after a disconnection. A size of 0 disables replay.
+	 */
+	synchronized void setHistorySize(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("Event history size cannot be negative.");
+		}
+		this.historySize = size;
+	}
+	
+	synchronized int getHistorySize() {
+		return historySize;
+	}
+	
+	/**
+	 * Sets the period in milliseconds at which the queue depth, dispatch latency,
+	 * and coalesced events of each game, and the number of dropped events, are
+	 * logged. A period of 0 disables the report.
+	 */
+	synchronized void setStatisticsPeriod(long period) {
+		if (period < 0) {
+			throw new IllegalArgumentException("Notifier statistics period cannot be negative.");
+		}
+		if (statisticsReport != null) {
+			statisticsReport.cancel();
+			statisticsReport = null;
+		}
+		this.statisticsPeriod = period;
+		if (period > 0) {
+			statisticsReport = new StatisticsReport();
+			watchdog.schedule(statisticsReport, period, period);
+		}
+	}
+	
+	synchronized long getStatisticsPeriod() {
+		return statisticsPeriod;
+	}
+	
+	synchronized long getNumDroppedEvents() {
+		return numDroppedEvents;
+	}
+	
+	synchronized private void eventDropped() {
+		numDroppedEvents++;
+	}
 	
 	public void addListener(Game game, User user, RemoteArenaListener listener) {
+		addListener(game, user, listener, ArenaEventFilter.forGame());
+	}
+	
+	/**
+	 * Adds a listener receiving only the events of the game passing the specified
+	 * filter. A listener has at most one subscription per game: adding a listener
+	 * again replaces its previous filter.
+	 */
+	public void addListener(Game game, User user, RemoteArenaListener listener, ArenaEventFilter filter) {
 		synchronized(listeners) {
-			List userListeners = getListenersByGameAndUser(game, user);
-			if (!userListeners.contains(listener)) {
-				userListeners.add(listener);
+			GameSubscriptions subscriptions = getSubscriptions(game);
+			subscriptions.remove(listener);
+			subscriptions.add(new Subscription(user, listener, filter));
+			subscriptionVersion++;
+			synchronized(channels) {
+				if (channels.get(listener) == null) {
+					channels.put(listener, new ListenerChannel(listener));
+				}
 			}
 		}
 	}
 	
+	/**
+	 * Adds a listener that was previously disconnected and sends it the events of
+	 * the game it missed, that is, the events with a sequence number greater than
+	 * the specified one. Returns false if some of these events are not available
+	 * anymore, in which case the listener is still added but must reload the state
+	 * of the game.
+	 */
+	public boolean addListener(Game game, User user, RemoteArenaListener listener, ArenaEventFilter filter, long lastSequenceNumber) {
+		return getLane(game).resume(new Subscription(user, listener, filter), lastSequenceNumber);
+	}
+	
 	public void removeListener(Game game, RemoteArenaListener listener) {
 		synchronized(listeners) {
-			Map gameListeners = getListenersByGame(game);
-			for (Iterator i = gameListeners.values().iterator(); i.hasNext();) {
-				List userListeners = (List)i.next();
-				if (userListeners.contains(listener)) {
-					// Do not break out on the first match: the same listener could be
-					// registered for different games and users
-					userListeners.remove(listener);
+			if (getSubscriptions(game).remove(listener)) {
+				subscriptionVersion++;
+			}
+			if (!isRegistered(listener)) {
+				closeChannel(listener);
+			}
+		}
+	}
+	
+	/**
+	 * Returns true if the listener is subscribed to the events of the game.
+	 * Listeners use this method to find out whether they were evicted.
+	 */
+	public boolean hasListener(Game game, RemoteArenaListener listener) {
+		synchronized(listeners) {
+			GameSubscriptions subscriptions = (GameSubscriptions)listeners.get(game);
+			return subscriptions != null && subscriptions.contains(listener);
+		}
+	}
+	
+	// Removes a listener from all games, after it failed or missed its deadline.
+	private void evictListener(RemoteArenaListener listener) {
+		synchronized(listeners) {
+			for (Iterator i = listeners.values().iterator(); i.hasNext();) {
+				if (((GameSubscriptions)i.next()).remove(listener)) {
+					subscriptionVersion++;
 				}
 			}
+			closeChannel(listener);
+		}
+	}
+	
+	private boolean isRegistered(RemoteArenaListener listener) {
+		for (Iterator i = listeners.values().iterator(); i.hasNext();) {
+			if (((GameSubscriptions)i.next()).contains(listener)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void closeChannel(RemoteArenaListener listener) {
+		ListenerChannel channel = null;
+		synchronized(channels) {
+			channel = (ListenerChannel)channels.remove(listener);
+		}
+		if (channel != null) {
+			channel.close();
 		}
 	}
 	
-	private Map getListenersByGame(Game game) {
-		Map gameListeners = (Map)listeners.get(game);
-		if (gameListeners == null) {
-			gameListeners = new HashMap();
-			listeners.put(game, gameListeners);
+	private ListenerChannel getChannel(RemoteArenaListener listener) {
+		synchronized(channels) {
+			return (ListenerChannel)channels.get(listener);
 		}
-		return gameListeners;
 	}
 	
-	private List getListenersByGameAndUser(Game game, User user) {
-		Map gameListeners = getListenersByGame(game);
-		List userListeners = (List)gameListeners.get(user);
-		if (userListeners == null) {
-			userListeners = new ArrayList();
-			gameListeners.put(user, userListeners);
+	private GameSubscriptions getSubscriptions(Game game) {
+		GameSubscriptions subscriptions = (GameSubscriptions)listeners.get(game);
+		if (subscriptions == null) {
+			subscriptions = new GameSubscriptions();
+			listeners.put(game, subscriptions);
 		}
-		return userListeners;
+		return subscriptions;
 	}
 	
-	private RemoteArenaListener [] getListeners(League league) {
-		List result = new ArrayList();
+	private Subscription [] getListeners(League league) {
 		synchronized(listeners) {
-			Game game = league.getGame();
-			Map gameListeners = getListenersByGame(game);
-			for (Iterator i = gameListeners.entrySet().iterator(); i.hasNext();) {
-				Map.Entry entry = (Map.Entry)i.next();
-				User user = (User)entry.getKey();
-				if (Arena.getInstance().hasLeagueAccess(user, league, AccessPolicy.READ)) {
-					result.addAll((List)entry.getValue());
-				}
+			long [] versions = new long [] {
+				Arena.getInstance().getAccessVersion(),
+				subscriptionVersion,
+				league.getVersion()
+			};
+			ResolvedListeners resolved = (ResolvedListeners)resolvedListeners.get(league);
+			if (resolved != null && resolved.isValid(versions)) {
+				return resolved.getSubscriptions();
 			}
+			List result = new ArrayList();
+			GameSubscriptions subscriptions = getSubscriptions(league.getGame());
+			addLeagueListeners(subscriptions.gameWide, league, result);
+			addLeagueListeners((Map)subscriptions.byLeague.get(league.getId()), league, result);
+			resolved = new ResolvedListeners(versions, result);
+			resolvedListeners.put(league, resolved);
+			return resolved.getSubscriptions();
 		}
-		return (RemoteArenaListener[])result.toArray(new RemoteArenaListener[result.size()]);
 	}
 	
-	private RemoteArenaListener [] getListeners(Tournament tournament) {
-		List result = new ArrayList();
+	private Subscription [] getListeners(Tournament tournament) {
 		synchronized(listeners) {
-			Game game = tournament.getLeague().getGame();
-			Map gameListeners = getListenersByGame(game);
-			for (Iterator i = gameListeners.entrySet().iterator(); i.hasNext();) {
-				Map.Entry entry = (Map.Entry)i.next();
-				User user = (User)entry.getKey();
-				if (Arena.getInstance().hasTournamentAccess(user, tournament, AccessPolicy.READ)) {
-					result.addAll((List)entry.getValue());
+			League league = tournament.getLeague();
+			long [] versions = new long [] {
+				Arena.getInstance().getAccessVersion(),
+				subscriptionVersion,
+				league.getVersion(),
+				tournament.getVersion()
+			};
+			ResolvedListeners resolved = (ResolvedListeners)resolvedListeners.get(tournament);
+			if (resolved != null && resolved.isValid(versions)) {
+				return resolved.getSubscriptions();
+			}
+			List result = new ArrayList();
+			GameSubscriptions subscriptions = getSubscriptions(league.getGame());
+			addTournamentListeners(subscriptions.gameWide, tournament, result);
+			addTournamentListeners((Map)subscriptions.byLeague.get(league.getId()), tournament, result);
+			addTournamentListeners((Map)subscriptions.byTournament.get(tournament.getId()), tournament, result);
+			resolved = new ResolvedListeners(versions, result);
+			resolvedListeners.put(tournament, resolved);
+			return resolved.getSubscriptions();
+		}
+	}
+	
+	// Adds the subscriptions of the users who can see the league to the result.
+	// The map of subscriptions can be null if nobody subscribed to the scope.
+	private void addLeagueListeners(Map userSubscriptions, League league, List result) {
+		if (userSubscriptions == null) {
+			return;
+		}
+		Map.Entry[] entries = getEntries(userSubscriptions);
+		BitSet readable = Arena.getInstance().getLeagueAccess(getUsers(entries), league, AccessPolicy.READ);
+		addSubscriptions(entries, readable, result);
+	}
+	
+	private void addTournamentListeners(Map userSubscriptions, Tournament tournament, List result) {
+		if (userSubscriptions == null) {
+			return;
+		}
+		Map.Entry[] entries = getEntries(userSubscriptions);
+		BitSet readable = Arena.getInstance().getTournamentAccess(getUsers(entries), tournament, AccessPolicy.READ);
+		addSubscriptions(entries, readable, result);
+	}
+	
+	private static Map.Entry[] getEntries(Map userSubscriptions) {
+		return (Map.Entry[])userSubscriptions.entrySet().toArray(new Map.Entry[userSubscriptions.size()]);
+	}
+	
+	private static User[] getUsers(Map.Entry[] entries) {
+		User[] users = new User[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			users[i] = (User)entries[i].getKey();
+		}
+		return users;
+	}
+	
+	// Adds the subscriptions of the entries whose bit is set to the result.
+	private static void addSubscriptions(Map.Entry[] entries, BitSet selected, List result) {
+		for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+			result.addAll((List)entries[i].getValue());
+		}
+	}
+	
+	// A listener registered for a game, along with the user it was registered by
+	// and the filter selecting the events it receives.
+	private static class Subscription {
+		private User user;
+		private RemoteArenaListener listener;
+		private ArenaEventFilter filter;
+		Subscription(User user, RemoteArenaListener listener, ArenaEventFilter filter) {
+			if (filter == null) {
+				filter = ArenaEventFilter.forGame();
+			}
+			this.user = user;
+			this.listener = listener;
+			this.filter = filter;
+		}
+		User getUser() {
+			return user;
+		}
+		RemoteArenaListener getListener() {
+			return listener;
+		}
+		ArenaEventFilter getFilter() {
+			return filter;
+		}
+		// Returns true if the notification is of an accepted type and within
+		// the scope of this subscription. Access is not checked.
+		boolean accepts(Notification notification) {
+			if (!filter.acceptsType(notification.getEvent().getType())) {
+				return false;
+			}
+			Tournament tournament = notification.getTournament();
+			if (filter.getTournamentId() != null) {
+				return tournament != null && filter.getTournamentId().equals(tournament.getId());
+			}
+			if (filter.getLeagueId() != null) {
+				League league = tournament != null ? tournament.getLeague() : notification.getLeague();
+				return filter.getLeagueId().equals(league.getId());
+			}
+			return true;
+		}
+	}
+	
+	// The subscriptions of a game, indexed by scope, so that an event only visits
+	// the subscriptions of its game, league, and tournament. Each index maps users
+	// to the list of their subscriptions, so that access is checked once per user.
+	private static class GameSubscriptions {
+		private Map gameWide = new HashMap();
+		// Maps of user subscriptions indexed by league id and tournament id
+		private Map byLeague = new HashMap();
+		private Map byTournament = new HashMap();
+		
+		void add(Subscription subscription) {
+			ArenaEventFilter filter = subscription.getFilter();
+			Map userSubscriptions;
+			if (filter.getTournamentId() != null) {
+				userSubscriptions = getScope(byTournament, filter.getTournamentId());
+			} else if (filter.getLeagueId() != null) {
+				userSubscriptions = getScope(byLeague, filter.getLeagueId());
+			} else {
+				userSubscriptions = gameWide;
+			}
+			List list = (List)userSubscriptions.get(subscription.getUser());
+			if (list == null) {
+				list = new ArrayList();
+				userSubscriptions.put(subscription.getUser(), list);
+			}
+			list.add(subscription);
+		}
+		
+		private Map getScope(Map scopes, String id) {
+			Map userSubscriptions = (Map)scopes.get(id);
+			if (userSubscriptions == null) {
+				userSubscriptions = new HashMap();
+				scopes.put(id, userSubscriptions);
+			}
+			return userSubscriptions;
+		}
+		
+		// Removes all the subscriptions of the listener. Returns true if there was any.
+		boolean remove(RemoteArenaListener listener) {
+			boolean removed = remove(gameWide, listener);
+			for (Iterator i = byLeague.values().iterator(); i.hasNext();) {
+				Map userSubscriptions = (Map)i.next();
+				removed |= remove(userSubscriptions, listener);
+				if (userSubscriptions.isEmpty()) {
+					i.remove();
 				}
 			}
+			for (Iterator i = byTournament.values().iterator(); i.hasNext();) {
+				Map userSubscriptions = (Map)i.next();
+				removed |= remove(userSubscriptions, listener);
+				if (userSubscriptions.isEmpty()) {
+					i.remove();
+				}
+			}
+			return removed;
+		}
+		
+		private boolean remove(Map userSubscriptions, RemoteArenaListener listener) {
+			boolean removed = false;
+			for (Iterator i = userSubscriptions.values().iterator(); i.hasNext();) {
+				List list = (List)i.next();
+				for (Iterator j = list.iterator(); j.hasNext();) {
+					if (((Subscription)j.next()).getListener().equals(listener)) {
+						j.remove();
+						removed = true;
+					}
+				}
+				if (list.isEmpty()) {
+					i.remove();
+				}
+			}
+			return removed;
+		}
+		
+		boolean contains(RemoteArenaListener listener) {
+			if (contains(gameWide, listener)) {
+				return true;
+			}
+			for (Iterator i = byLeague.values().iterator(); i.hasNext();) {
+				if (contains((Map)i.next(), listener)) {
+					return true;
+				}
+			}
+			for (Iterator i = byTournament.values().iterator(); i.hasNext();) {
+				if (contains((Map)i.next(), listener)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		private boolean contains(Map userSubscriptions, RemoteArenaListener listener) {
+			for (Iterator i = userSubscriptions.values().iterator(); i.hasNext();) {
+				for (Iterator j = ((List)i.next()).iterator(); j.hasNext();) {
+					if (((Subscription)j.next()).getListener().equals(listener)) {
+						return true;
+					}
+				}
+			}
+			return false;
 		}
-		return (RemoteArenaListener[])result.toArray(new RemoteArenaListener[result.size()]);
 	}
 	
-	private abstract class ArenaEvent {
+	// The subscriptions having access to a league or tournament, along with the
+	// versions of the objects the access decisions were based on. The array of
+	// subscriptions is never modified once created, so it can be shared by callers.
+	private static class ResolvedListeners {
+		private long [] versions;
+		private Subscription [] subscriptions;
+		ResolvedListeners(long [] versions, List subscriptions) {
+			this.versions = versions;
+			this.subscriptions = (Subscription[])subscriptions.toArray(new Subscription[subscriptions.size()]);
+		}
+		boolean isValid(long [] currentVersions) {
+			return Arrays.equals(versions, currentVersions);
+		}
+		Subscription [] getSubscriptions() {
+			return subscriptions;
+		}
+	}
+	
+	// An arena event queued for delivery, along with the league or tournament it is
+	// about, which determines which listeners have access to it.
+	private class Notification {
 		private League league;
 		private Tournament tournament;
-		ArenaEvent(League league, Tournament tournament) {
+		private ArenaEvent event;
+		// Identifies the state carried by this event, so that a newer event with
+		// the same key supersedes this one. Null if the event cannot be superseded.
+		private String key;
+		// Set when a newer event with the same key is queued before this one is delivered.
+		private boolean superseded = false;
+		Notification(League league, Tournament tournament, ArenaEvent event, String key) {
 			if (league == null && tournament == null) {
 				throw new IllegalArgumentException("League and tournament cannot be both null.");
 			}
 			this.league = league;
 			this.tournament = tournament;
-		}
-		ArenaEvent(League league) {
-			this(league, null);
-		}
-		ArenaEvent(Tournament tournament) {
-			this(null, tournament);
+			this.event = event;
+			this.key = key;
 		}
 		Tournament getTournament() {
 			return tournament;
@@ -171,141 +699,429 @@ class ArenaNotifier {
 		League getLeague() {
 			return league;
 		}
-		abstract void notify(RemoteArenaListener listener) throws RemoteException;
+		ArenaEvent getEvent() {
+			return event;
+		}
+		String getKey() {
+			return key;
+		}
+		long getSequenceNumber() {
+			return event.getSequenceNumber();
+		}
+		void setSequenceNumber(String gameName, long sequenceNumber) {
+			event = new ArenaEvent(event, gameName, sequenceNumber);
+		}
 	}
 	
-	private class NotifierThread extends Thread {
+	private class GameLane extends WorkerPool.Lane {
 		private Game game;
-		NotifierThread(Game game) {
+		// Name of the game, resolved on the first dispatch
+		private String gameName = null;
+		// Most recent pending notification indexed by key
+		private Map pendingByKey = new HashMap();
+		private long numCoalesced = 0;
+		
+		// Protects the sequence number and the history. Dispatching an event and
+		// replaying the history are done with this lock, so that a resuming
+		// listener is never sent the same event twice. This is a separate lock so
+		// that fire methods can queue events while the lane resolves listeners.
+		private Object dispatchLock = new Object();
+		private long lastSequenceNumber = 0;
+		// Recently dispatched notifications, oldest first
+		private LinkedList history = new LinkedList();
+		
+		GameLane(Game game) {
+			super(pool);
 			this.game = game;
 		}
 		
-		public void run() {
-			ArenaEvent event = null;
-			RemoteArenaListener [] listeners;
-			
-			while (true) {
-				
-				// Get the next event in the game queue. If there are no such
-				// events, remove this thread from the threads map and terminate.
-				// Both actions need to be in the same synchronized block to prevent
-				// that a thread terminates while a new event is queued.
-				synchronized(eventQueues) {
-					event = nextEvent(game);
-					if (event == null) {
-						threads.remove(game);
-						break;
+		// Queues a notification, marking the pending notification with the same
+		// key (if any) as superseded. Only the newest snapshot of a league,
+		// tournament, or match is thus delivered to the listeners.
+		void queue(Notification notification) {
+			synchronized(this) {
+				String key = notification.getKey();
+				if (key != null) {
+					Notification previous = (Notification)pendingByKey.put(key, notification);
+					if (previous != null) {
+						previous.superseded = true;
+						numCoalesced++;
 					}
 				}
+				enqueue(notification);
+			}
+		}
+		
+		synchronized long getNumCoalesced() {
+			return numCoalesced;
+		}
+		
+		private String getGameName() {
+			if (gameName == null) {
+				try {
+					gameName = GameManager.getInstance().getGameName(game);
+				} catch (GameNotFoundException e) {
+					logger.warning("Dispatching events of an unregistered game.");
+				}
+			}
+			return gameName;
+		}
+		
+		protected void process(Object item) {
+			Notification notification = (Notification)item;
+			synchronized(this) {
+				if (notification.superseded) {
+					return;
+				}
+				if (notification.getKey() != null) {
+					pendingByKey.remove(notification.getKey());
+				}
+			}
+			synchronized(dispatchLock) {
+				notification.setSequenceNumber(getGameName(), ++lastSequenceNumber);
+				int size = getHistorySize();
+				if (size > 0) {
+					history.addLast(notification);
+				}
+				while (history.size() > size) {
+					history.removeFirst();
+				}
 				
-				// An event was successfully dequeued. Get the applicable listeners
-				// depending on whether it is a league or a tournament event. The
-				// getListeners method also checks access.
-				Tournament tournament = event.getTournament();
+				Subscription [] subscriptions;
+				
+				// Get the applicable subscriptions depending on whether it is a league
+				// or a tournament event. The getListeners method also checks access.
+				Tournament tournament = notification.getTournament();
 				if (tournament != null) {
-					listeners = getListeners(tournament);
+					subscriptions = getListeners(tournament);
 				} else {
-					listeners = getListeners(event.getLeague());
+					subscriptions = getListeners(notification.getLeague());
 				}
 				
-				// For each listener, send the event using the event specific
-				// notification method. If the notification fails for a listener,
-				// remove the listener from the arena to avoid future such exceptions.
-				for (int i = 0; i < listeners.length; i++) {
-					try {
-						event.notify(listeners[i]);
-					} catch (Exception e) {
-						removeListener(game, listeners[i]);
+				// Hand the event to the channel of each listener interested in this
+				// type of event. The channel sends the event using the event specific
+				// notification method and removes the listener from the arena if the
+				// notification fails.
+				int type = notification.getEvent().getType();
+				for (int i = 0; i < subscriptions.length; i++) {
+					if (!subscriptions[i].getFilter().acceptsType(type)) {
+						continue;
+					}
+					ListenerChannel channel = getChannel(subscriptions[i].getListener());
+					if (channel != null) {
+						channel.offer(notification);
 					}
 				}
 			}
 		}
+		
+		// Adds a listener and queues the events it missed since the specified
+		// sequence number. Returns false if these events are not all available.
+		boolean resume(Subscription subscription, long lastSeen) {
+			User user = subscription.getUser();
+			RemoteArenaListener listener = subscription.getListener();
+			synchronized(dispatchLock) {
+				addListener(game, user, listener, subscription.getFilter());
+				if (lastSeen == lastSequenceNumber) {
+					return true;
+				}
+				// A sequence number from the future means the arena was restarted.
+				if (lastSeen > lastSequenceNumber || history.isEmpty()) {
+					return false;
+				}
+				Notification oldest = (Notification)history.getFirst();
+				if (oldest.getSequenceNumber() > lastSeen + 1) {
+					return false;
+				}
+				// Replaying more events than the queue of the listener can hold
+				// would drop some of them.
+				if (lastSequenceNumber - lastSeen > getListenerQueueCapacity()) {
+					return false;
+				}
+				ListenerChannel channel = getChannel(listener);
+				if (channel == null) {
+					return false;
+				}
+				Arena arena = Arena.getInstance();
+				for (Iterator i = history.iterator(); i.hasNext();) {
+					Notification notification = (Notification)i.next();
+					if (notification.getSequenceNumber() <= lastSeen || !subscription.accepts(notification)) {
+						continue;
+					}
+					Tournament tournament = notification.getTournament();
+					boolean access;
+					if (tournament != null) {
+						access = arena.hasTournamentAccess(user, tournament, AccessPolicy.READ);
+					} else {
+						access = arena.hasLeagueAccess(user, notification.getLeague(), AccessPolicy.READ);
+					}
+					if (access) {
+						channel.offer(notification);
+					}
+				}
+				return true;
+			}
+		}
+		
+		long getLastSequenceNumber() {
+			synchronized(dispatchLock) {
+				return lastSequenceNumber;
+			}
+		}
 	}
 	
-	private void queueEvent(Game game, ArenaEvent event) {
-		synchronized(eventQueues) {
-			
-			// Find the event queue applicable to this game and create one if
-			// necessary.
-			List eventQueue = (List)eventQueues.get(game);
-			if (eventQueue == null) {
-				eventQueue = new ArrayList();
-				eventQueues.put(game, eventQueue);
+	private class ListenerChannel extends WorkerPool.Lane {
+		private RemoteArenaListener listener;
+		// Time the current call to the listener started, 0 when no call is in progress
+		private long callStarted = 0;
+		private boolean stalled = false;
+		private boolean closed = false;
+		private boolean batching;
+		
+		ListenerChannel(RemoteArenaListener listener) {
+			super(deliveryPool);
+			this.listener = listener;
+			this.batching = listener instanceof RemoteBatchArenaListener;
+		}
+		
+		RemoteArenaListener getListener() {
+			return listener;
+		}
+		
+		void offer(Notification notification) {
+			boolean evict = false;
+			synchronized(this) {
+				if (closed) {
+					return;
+				}
+				if (getDepth() >= getListenerQueueCapacity()) {
+					String policy = getOverflowPolicy();
+					// Dropping events would make a listener which tracks sequence numbers
+					// skip them when it resumes. Evicting it makes it resume from the
+					// last event it actually received.
+					if (policy.equals(EVICT) || batching) {
+						evict = true;
+					} else if (policy.equals(COALESCE) && coalesce(notification)) {
+						eventDropped();
+					} else {
+						removeOldest();
+						eventDropped();
+					}
+				}
+				if (!evict) {
+					enqueue(notification);
+				}
+			}
+			if (evict) {
+				logger.warning("Outbound queue of arena listener is full, removing listener.");
+				evictListener(listener);
 			}
-			eventQueue.add(event);
-			
-			// Check if there is a thread for notifying events in this game. If
-			// not, create one.
-			NotifierThread thread = (NotifierThread)threads.get(game);
-			if (thread == null) {
-				thread = new NotifierThread(game);
-				threads.put(game, thread);
-				thread.start();
+		}
+		
+		// Removes the most recent pending event about the same object, if any. The
+		// newer event is then queued at the end of the lane, so that it is not
+		// delivered before the events queued in between.
+		private boolean coalesce(Notification notification) {
+			String key = notification.getKey();
+			if (key == null) {
+				return false;
+			}
+			Object[] pending = getPendingItems();
+			for (int i = pending.length - 1; i >= 0; i--) {
+				if (key.equals(((Notification)pending[i]).getKey())) {
+					return removePending(pending[i]);
+				}
+			}
+			return false;
+		}
+		
+		// Listeners accepting batches get all the events queued within the batch
+		// window, up to the batch size, in a single call.
+		protected int getBatchSize() {
+			return batching ? getListenerBatchSize() : 1;
+		}
+		
+		protected long getBatchWindow() {
+			return batching ? getListenerBatchWindow() : 0;
+		}
+		
+		protected void process(Object item) {
+			process(new Object[] {item});
+		}
+		
+		protected void process(Object[] items) {
+			synchronized(this) {
+				if (closed) {
+					return;
+				}
+				callStarted = System.currentTimeMillis();
+			}
+			boolean failed = false;
+			try {
+				if (batching) {
+					ArenaEvent[] events = new ArenaEvent[items.length];
+					for (int i = 0; i < items.length; i++) {
+						events[i] = ((Notification)items[i]).getEvent();
+					}
+					((RemoteBatchArenaListener)listener).eventsOccurred(events);
+				} else {
+					for (int i = 0; i < items.length; i++) {
+						((Notification)items[i]).getEvent().notify(listener);
+					}
+				}
+			} catch (Exception e) {
+				failed = true;
+			}
+			boolean wasStalled = false;
+			synchronized(this) {
+				callStarted = 0;
+				wasStalled = stalled;
+				stalled = false;
+			}
+			if (wasStalled) {
+				deliveryPool.recovered();
+			}
+			if (failed) {
+				evictListener(listener);
+			}
+		}
+		
+		// Invoked by the watchdog. Returns true if the current call just missed
+		// its deadline.
+		boolean checkDeadline(long now) {
+			synchronized(this) {
+				if (stalled || callStarted == 0 || now - callStarted < getCallDeadline()) {
+					return false;
+				}
+				stalled = true;
 			}
+			deliveryPool.stalled();
+			return true;
+		}
+		
+		synchronized void close() {
+			closed = true;
+			clear();
 		}
 	}
 	
-	private ArenaEvent nextEvent(Game game) {
-		ArenaEvent result = null;
-		synchronized(eventQueues) {
-			List eventQueue = (List)eventQueues.get(game);
-			if (eventQueue != null && eventQueue.size() > 0) {
-				result = (ArenaEvent)eventQueue.get(0);
-				eventQueue.remove(result);
+	private class Watchdog extends TimerTask {
+		public void run() {
+			ListenerChannel[] all;
+			synchronized(channels) {
+				all = (ListenerChannel[])channels.values().toArray(new ListenerChannel[channels.size()]);
+			}
+			long now = System.currentTimeMillis();
+			for (int i = 0; i < all.length; i++) {
+				if (all[i].checkDeadline(now)) {
+					logger.warning("Arena listener did not return within " + getCallDeadline() + " ms, removing listener.");
+					evictListener(all[i].getListener());
+				}
 			}
 		}
-		return result;
 	}
 	
-	void fireLeagueInfoChanged(final League league) {
-		ArenaEvent event = new ArenaEvent(league) {
-			private LeagueInfo leagueInfo = new LeagueInfo(league);
-			void notify(RemoteArenaListener listener) throws RemoteException {
-				listener.leagueInfoChanged(leagueInfo);
+	private class StatisticsReport extends TimerTask {
+		public void run() {
+			Game[] games;
+			synchronized(lanes) {
+				games = (Game[])lanes.keySet().toArray(new Game[lanes.size()]);
+			}
+			for (int i = 0; i < games.length; i++) {
+				logger.info("Notifier statistics of game " + getLane(games[i]).getGameName() + ": "
+								+ getQueueDepth(games[i]) + " queued event(s) (max " + getMaxQueueDepth(games[i]) + "), "
+								+ "dispatch latency " + getAverageDispatchLatency(games[i]) + " ms (max " + getMaxDispatchLatency(games[i]) + " ms), "
+								+ getNumCoalescedEvents(games[i]) + " coalesced event(s).");
 			}
-		};
-		queueEvent(league.getGame(), event);
+			logger.info("Notifier statistics: " + getNumDroppedEvents() + " event(s) dropped from full listener queues.");
+		}
 	}
 	
-	void fireTournamentCreated(final Tournament tournament) {
-		ArenaEvent event = new ArenaEvent(tournament) {
-			private TournamentInfo tournamentInfo = new TournamentInfo(tournament);
-			void notify(RemoteArenaListener listener) throws RemoteException {
-				listener.tournamentCreated(tournamentInfo);
+	private GameLane getLane(Game game) {
+		synchronized(lanes) {
+			GameLane lane = (GameLane)lanes.get(game);
+			if (lane == null) {
+				lane = new GameLane(game);
+				lanes.put(game, lane);
 			}
-		};
-		queueEvent(tournament.getLeague().getGame(), event);
+			return lane;
+		}
 	}
 	
-	void fireTournamentInfoChanged(final Tournament tournament) {
-		ArenaEvent event = new ArenaEvent(tournament) {
-			private TournamentInfo tournamentInfo = new TournamentInfo(tournament);
-			void notify(RemoteArenaListener listener) throws RemoteException {
-				listener.tournamentInfoChanged(tournamentInfo);
-			}
-		};
-		queueEvent(tournament.getLeague().getGame(), event);
+	private void queueEvent(Game game, Notification notification) {
+		getLane(game).queue(notification);
+	}
+	
+	/**
+	 * Returns the sequence number of the last event dispatched for the specified game.
+	 */
+	long getLastSequenceNumber(Game game) {
+		return getLane(game).getLastSequenceNumber();
+	}
+	
+	/**
+	 * Returns the number of events of the specified game waiting to be delivered.
+	 */
+	int getQueueDepth(Game game) {
+		return getLane(game).getDepth();
 	}
 	
-	void fireRoundCreated(final Round round) {
+	/**
+	 * Returns the largest number of events of the specified game that were
+	 * waiting to be delivered at the same time.
+	 */
+	int getMaxQueueDepth(Game game) {
+		return getLane(game).getMaxDepth();
+	}
+	
+	/**
+	 * Returns the average time in milliseconds events of the specified game waited
+	 * before being delivered.
+	 */
+	long getAverageDispatchLatency(Game game) {
+		return getLane(game).getAverageLatency();
+	}
+	
+	/**
+	 * Returns the longest time in milliseconds an event of the specified game waited
+	 * before being delivered.
+	 */
+	long getMaxDispatchLatency(Game game) {
+		return getLane(game).getMaxLatency();
+	}
+	
+	/**
+	 * Returns the number of events of the specified game that were dropped because
+	 * a newer event about the same league, tournament, or match was queued before
+	 * they were delivered.
+	 */
+	long getNumCoalescedEvents(Game game) {
+		return getLane(game).getNumCoalesced();
+	}
+	
+	void fireLeagueInfoChanged(League league) {
+		ArenaEvent event = new ArenaEvent(new LeagueInfo(league));
+		queueEvent(league.getGame(), new Notification(league, null, event, "league " + league.getId()));
+	}
+	
+	void fireTournamentCreated(Tournament tournament) {
+		ArenaEvent event = new ArenaEvent(ArenaEvent.TOURNAMENT_CREATED, new TournamentInfo(tournament));
+		queueEvent(tournament.getLeague().getGame(), new Notification(null, tournament, event, null));
+	}
+	
+	void fireTournamentInfoChanged(Tournament tournament) {
+		ArenaEvent event = new ArenaEvent(ArenaEvent.TOURNAMENT_INFO_CHANGED, new TournamentInfo(tournament));
+		queueEvent(tournament.getLeague().getGame(), new Notification(null, tournament, event, "tournament " + tournament.getId()));
+	}
+	
+	void fireRoundCreated(Round round) {
 		Tournament tournament =  round.getTournament();
-		ArenaEvent event = new ArenaEvent(tournament) {
-			private RoundInfo roundInfo = new RoundInfo(round);
-			void notify(RemoteArenaListener listener) throws RemoteException {
-				listener.roundCreated(roundInfo);
-			}
-		};
-		queueEvent(tournament.getLeague().getGame(), event);
+		ArenaEvent event = new ArenaEvent(new RoundInfo(round));
+		queueEvent(tournament.getLeague().getGame(), new Notification(null, tournament, event, null));
 	}
 	
-	void fireMatchInfoChanged(Tournament tournament, final MatchInfo info) {
-		ArenaEvent event = new ArenaEvent(tournament) {
-			private MatchInfo matchInfo = info;
-			void notify(RemoteArenaListener listener) throws RemoteException {
-				listener.matchInfoChanged(matchInfo);
-			}
-		};
-		queueEvent(tournament.getLeague().getGame(), event);
+	void fireMatchInfoChanged(Tournament tournament, MatchInfo info) {
+		ArenaEvent event = new ArenaEvent(info);
+		queueEvent(tournament.getLeague().getGame(), new Notification(null, tournament, event, "match " + info.getMatchId()));
 	}
 }
-
@@ -22,16 +22,26 @@ package org.globalse.arena.server;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.UnmarshalException;
 import java.rmi.server.RemoteServer;
 import java.rmi.server.ServerNotActiveException;
+import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.logging.Logger;
+import org.globalse.arena.gamepeer.GamePeerLoad;
 import org.globalse.arena.gamepeer.RemoteGamePeer;
 import org.globalse.arena.remote.MatchInfo;
+import org.globalse.arena.remote.Move;
 import org.globalse.arena.remote.RemoteMatch;
 import org.globalse.arena.remote.exceptions.GamePeerAlreadyRegisteredException;
 import org.globalse.arena.remote.exceptions.InvalidTicketException;
@@ -39,9 +49,31 @@ import org.globalse.arena.remote.exceptions.MatchNotFoundException;
 import org.globalse.arena.server.Game;
 import org.globalse.arena.server.Round;
 import org.globalse.arena.user.User;
+import org.globalse.arena.util.WorkerPool;
 
 /**
+ * This class tracks the game peers registered with the arena and decides where
+ * new matches are created. Game peers are polled periodically for their load, and
+ * a pluggable placement strategy chooses among the game peers which are not full.
+ * When all game peers are full, match creation waits for a game peer to free up
+ * capacity, up to a timeout after which the match is created locally. When no game
+ * peer is registered, matches are created locally. The matches of a round are
+ * created in parallel on different game peers, and the lock of the game peer
+ * manager is never held during remote calls.
  *
+ * The load of the game peers is polled with a periodic heartbeat, which also
+ * measures their health (see {@link GamePeerStatus}). Game peers which fail
+ * repeatedly or answer too slowly are evicted and sent a heartbeat again after a
+ * backoff period, which doubles each time; they are forgotten once the backoff
+ * exceeds a maximum. Failed match creations are retried on other game peers a bounded
+ * number of times before the matches are created locally.
+ *
+ * Matches which are over are released after a grace period: the game peer manager
+ * then drops its reference to the remote match and only keeps an archived
+ * MatchInfo, so that the remote matches of a long running arena can be garbage
+ * collected. The number of archived matches is bounded.
+ *
+ * @see PlacementStrategy
  */
 public class GamePeerManager {
 	
@@ -57,17 +89,343 @@ public class GamePeerManager {
 	// Ordered by least recent use
 	private List peers = new ArrayList();
 	
+	// Peers evicted because they were unhealthy, waiting for their backoff to expire
+	private List evictedPeers = new ArrayList();
+	
 	// Indexed by peer
 	private Map peerTickets = new HashMap();
 	
 	// Indexed by peer
 	private Map peerHostNames = new HashMap();
 	
-	// Indexed by match id
+	// Matches which are not released yet and their creation time, indexed by match id
 	private Map matches = new HashMap();
+	private Map matchCreationTimes = new HashMap();
+	
+	// Matches which are over and wait for their grace period to expire, in the
+	// order they finished, indexed by match id
+	private Map finishedMatches = new LinkedHashMap();
+	
+	// Archived infos of the released matches, oldest first, indexed by match id
+	private Map archive = new LinkedHashMap() {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > archiveSize;
+		}
+	};
+	
+	// Number of matches released since the arena started
+	private long numReleasedMatches = 0;
+	
+	// Indexed by peer
+	private Map peerStatus = new HashMap();
+	
+	// Peers and journals of the matches which are still active, indexed by match id
+	private Map matchPeers = new HashMap();
+	private Map journals = new HashMap();
+	
+	// Names of the built-in placement strategies
+	public static final String LEAST_LOADED = "least-loaded";
+	public static final String WEIGHTED_CAPACITY = "weighted-capacity";
+	public static final String POWER_OF_TWO_CHOICES = "power-of-two-choices";
+	
+	// Default settings
+	public static final int DEFAULT_MAX_MATCHES = 0;
+	public static final long DEFAULT_QUEUE_TIMEOUT = 10000;
+	public static final long DEFAULT_LOAD_PERIOD = 5000;
+	public static final int DEFAULT_FAILURE_LIMIT = 3;
+	public static final long DEFAULT_LATENCY_LIMIT = 2000;
+	public static final long DEFAULT_BACKOFF = 10000;
+	public static final long DEFAULT_MAX_BACKOFF = 300000;
+	public static final int DEFAULT_PLACEMENT_ATTEMPTS = 3;
+	public static final long DEFAULT_RELEASE_DELAY = 60000;
+	public static final int DEFAULT_ARCHIVE_SIZE = 10000;
+	
+	// Period in milliseconds at which matches past their grace period are released
+	private static final long RELEASE_PERIOD = 1000;
+	
+	private PlacementStrategy placementStrategy = new LeastLoadedPlacement();
+	private int maxMatches = DEFAULT_MAX_MATCHES;
+	private long queueTimeout = DEFAULT_QUEUE_TIMEOUT;
+	private long loadPeriod = DEFAULT_LOAD_PERIOD;
+	private int failureLimit = DEFAULT_FAILURE_LIMIT;
+	private long latencyLimit = DEFAULT_LATENCY_LIMIT;
+	private long initialBackoff = DEFAULT_BACKOFF;
+	private long maxBackoff = DEFAULT_MAX_BACKOFF;
+	private int placementAttempts = DEFAULT_PLACEMENT_ATTEMPTS;
+	private long releaseDelay = DEFAULT_RELEASE_DELAY;
+	private int archiveSize = DEFAULT_ARCHIVE_SIZE;
+	
+	// Default number of threads making remote calls to peers in parallel
+	public static final int DEFAULT_NUM_CALL_THREADS = 8;
+	
+	// Pool of threads making remote calls to peers when creating matches
+	private static WorkerPool callPool = new WorkerPool("GamePeerManager", DEFAULT_NUM_CALL_THREADS);
+	
+	// Timer polling the load of the peers, created when the first peer registers
+	private Timer loadTimer = null;
+	
+	// Timer releasing finished matches, created when the first match is over
+	private Timer releaseTimer = null;
+	
+	synchronized public void setPlacementStrategy(PlacementStrategy strategy) {
+		if (strategy == null) {
+			throw new NullPointerException("Placement strategy cannot be null.");
+		}
+		this.placementStrategy = strategy;
+	}
+	
+	/**
+	 * Sets the placement strategy by name: least-loaded, weighted-capacity, or
+	 * power-of-two-choices.
+	 */
+	public void setPlacementStrategy(String name) {
+		if (LEAST_LOADED.equals(name)) {
+			setPlacementStrategy(new LeastLoadedPlacement());
+		} else if (WEIGHTED_CAPACITY.equals(name)) {
+			setPlacementStrategy(new WeightedCapacityPlacement());
+		} else if (POWER_OF_TWO_CHOICES.equals(name)) {
+			setPlacementStrategy(new PowerOfTwoChoicesPlacement());
+		} else {
+			throw new IllegalArgumentException("Unknown placement strategy \"" + name + "\".");
+		}
+	}
+	
+	synchronized public PlacementStrategy getPlacementStrategy() {
+		return placementStrategy;
+	}
+	
+	/**
+	 * Sets the number of threads creating matches on different game peers in parallel.
+	 */
+	public void setNumCallThreads(int numThreads) {
+		callPool.setSize(numThreads);
+	}
+	
+	public int getNumCallThreads() {
+		return callPool.getSize();
+	}
+	
+	/**
+	 * Sets the maximum number of active matches the arena creates on a single game
+	 * peer, in addition to the limit set by the game peer itself. 0 means no limit.
+	 */
+	synchronized public void setMaxMatches(int maxMatches) {
+		if (maxMatches < 0) {
+			throw new IllegalArgumentException("Maximum number of matches cannot be negative.");
+		}
+		this.maxMatches = maxMatches;
+		Iterator it = peerStatus.values().iterator();
+		while (it.hasNext()) {
+			((GamePeerStatus)it.next()).setArenaMaxMatches(maxMatches);
+		}
+		notifyAll();
+	}
+	
+	synchronized public int getMaxMatches() {
+		return maxMatches;
+	}
+	
+	/**
+	 * Sets the time in milliseconds match creation waits for a game peer with free
+	 * capacity when all game peers are full, before creating the match locally.
+	 */
+	synchronized public void setQueueTimeout(long timeout) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("Queue timeout cannot be negative.");
+		}
+		this.queueTimeout = timeout;
+	}
+	
+	synchronized public long getQueueTimeout() {
+		return queueTimeout;
+	}
+	
+	/**
+	 * Sets the period in milliseconds at which game peers are sent a heartbeat,
+	 * which also polls their load. Only takes effect if set before the first game
+	 * peer registers.
+	 */
+	synchronized public void setLoadPeriod(long period) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("Load period must be positive.");
+		}
+		this.loadPeriod = period;
+	}
+	
+	synchronized public long getLoadPeriod() {
+		return loadPeriod;
+	}
+	
+	/**
+	 * Sets the number of consecutive failed calls after which a game peer is
+	 * evicted, and the average heartbeat round trip in milliseconds above which a
+	 * game peer is evicted.
+	 */
+	synchronized public void setHealthLimits(int failureLimit, long latencyLimit) {
+		if (failureLimit < 1 || latencyLimit <= 0) {
+			throw new IllegalArgumentException("Health limits must be positive.");
+		}
+		this.failureLimit = failureLimit;
+		this.latencyLimit = latencyLimit;
+		Iterator it = peerStatus.values().iterator();
+		while (it.hasNext()) {
+			((GamePeerStatus)it.next()).setHealthLimits(failureLimit, latencyLimit);
+		}
+	}
+	
+	synchronized public int getFailureLimit() {
+		return failureLimit;
+	}
+	
+	synchronized public long getLatencyLimit() {
+		return latencyLimit;
+	}
+	
+	/**
+	 * Sets the time in milliseconds an evicted game peer waits before it is tried
+	 * again the first time, and the backoff above which it is forgotten.
+	 */
+	synchronized public void setBackoff(long initialBackoff, long maxBackoff) {
+		if (initialBackoff <= 0 || maxBackoff < initialBackoff) {
+			throw new IllegalArgumentException("Backoff must be positive and not exceed the maximum backoff.");
+		}
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+	}
+	
+	synchronized public long getInitialBackoff() {
+		return initialBackoff;
+	}
+	
+	synchronized public long getMaxBackoff() {
+		return maxBackoff;
+	}
+	
+	/**
+	 * Sets the number of times the creation of a match is attempted on game peers
+	 * before the match is created locally.
+	 */
+	synchronized public void setPlacementAttempts(int attempts) {
+		if (attempts < 1) {
+			throw new IllegalArgumentException("At least one placement attempt is needed.");
+		}
+		this.placementAttempts = attempts;
+	}
+	
+	synchronized public int getPlacementAttempts() {
+		return placementAttempts;
+	}
+	
+	/**
+	 * Sets the time in milliseconds a match which is over is kept before it is
+	 * released and archived. 0 releases matches as soon as they are over.
+	 */
+	synchronized public void setReleaseDelay(long delay) {
+		if (delay < 0) {
+			throw new IllegalArgumentException("Release delay cannot be negative.");
+		}
+		this.releaseDelay = delay;
+	}
+	
+	synchronized public long getReleaseDelay() {
+		return releaseDelay;
+	}
+	
+	/**
+	 * Sets the maximum number of archived matches. When the archive is full, the
+	 * oldest archived matches are forgotten.
+	 */
+	synchronized public void setArchiveSize(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("Archive size cannot be negative.");
+		}
+		this.archiveSize = size;
+		Iterator it = archive.keySet().iterator();
+		while (archive.size() > archiveSize && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+	
+	synchronized public int getArchiveSize() {
+		return archiveSize;
+	}
+	
+	/**
+	 * Returns the number of matches which are not released yet, including the
+	 * matches which are over and wait for their grace period to expire.
+	 */
+	synchronized public int getNumMatches() {
+		return matches.size();
+	}
+	
+	/**
+	 * Returns the number of matches which are over and not released yet.
+	 */
+	synchronized public int getNumFinishedMatches() {
+		return finishedMatches.size();
+	}
+	
+	synchronized public int getNumArchivedMatches() {
+		return archive.size();
+	}
+	
+	synchronized public long getNumReleasedMatches() {
+		return numReleasedMatches;
+	}
+	
+	/**
+	 * Returns the age in milliseconds of the oldest match which is not released
+	 * yet, 0 if there is none.
+	 */
+	synchronized public long getOldestMatchAge() {
+		long now = System.currentTimeMillis();
+		long result = 0;
+		Iterator it = matchCreationTimes.values().iterator();
+		while (it.hasNext()) {
+			result = Math.max(result, now - ((Long)it.next()).longValue());
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the average age in milliseconds of the matches which are not
+	 * released yet, 0 if there is none.
+	 */
+	synchronized public long getAverageMatchAge() {
+		if (matchCreationTimes.isEmpty()) {
+			return 0;
+		}
+		long now = System.currentTimeMillis();
+		long total = 0;
+		Iterator it = matchCreationTimes.values().iterator();
+		while (it.hasNext()) {
+			total += now - ((Long)it.next()).longValue();
+		}
+		return total / matchCreationTimes.size();
+	}
+	
+	/**
+	 * Returns the status of the registered game peers, least recently used first,
+	 * followed by the evicted game peers. The returned objects are updated by the game peer manager and should only be
+	 * read while holding the lock of the game peer manager.
+	 */
+	synchronized public GamePeerStatus[] getPeerStatus() {
+		List all = new ArrayList(peers);
+		all.addAll(evictedPeers);
+		GamePeerStatus[] result = new GamePeerStatus[all.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = (GamePeerStatus)peerStatus.get(all.get(i));
+		}
+		return result;
+	}
 	
 	synchronized public void registerGamePeer(RemoteGamePeer peer, String peerTicket) throws GamePeerAlreadyRegisteredException {
-		if (peers.contains(peer)) {
+		if (evictedPeers.contains(peer)) {
+			// The game peer registers again, e.g., after a network failure.
+			evictedPeers.remove(peer);
+			peerStatus.remove(peer);
+		} else if (peers.contains(peer)) {
 			logger.warning("GamePeerManager did not register a game peer on host " +
 							   peerHostNames.get(peer) + ", because it is already known to this Arena.");
 			throw new GamePeerAlreadyRegisteredException("Game peer on " + peerHostNames.get(peer) + " is already registered.");
@@ -87,72 +445,689 @@ public class GamePeerManager {
 			hostname = hostinet;
 		}
 		peerHostNames.put(peer, hostname);
+		peerStatus.put(peer, new GamePeerStatus(peer, hostname, maxMatches, failureLimit, latencyLimit));
+		if (loadTimer == null) {
+			loadTimer = new Timer(true);
+			loadTimer.schedule(new TimerTask() {
+						public void run() {
+							heartbeat();
+						}
+					}, 0, loadPeriod);
+		}
 		logger.info("GamePeerManager registered game peer on host " + hostname);
-		
+		notifyAll();
 	}
 	
 	synchronized public void unRegisterGamePeer(RemoteGamePeer peer) {
-		if (!peers.contains(peer)) {
+		if (!peers.contains(peer) && !evictedPeers.contains(peer)) {
 			logger.warning("Trying to unregister an unknown game peer.");
 		} else {
 			logger.info("GamePeerManager unregistering game peer on host " + peerHostNames.get(peer));
 			peers.remove(peer);
+			evictedPeers.remove(peer);
 			peerTickets.remove(peer);
 			peerHostNames.remove(peer);
+			peerStatus.remove(peer);
 		}
 	}
 	
-	synchronized public RemoteMatch createMatch(Round round, User[] players) {
-		RemoteMatch match = null;
-		Game game = round.getTournament().getLeague().getGame();
-		String peerTicket = null;
-		while (match == null) {
-			try {
-				if (peers.size() == 0) {
-					logger.info("GamePeerManager creating match locally.");
-					match = game.createMatch(round, players);
+	// Evicts an unhealthy peer until its backoff expires, or forgets it if the
+	// backoff exceeds the maximum. Evicting an evicted peer doubles its backoff.
+	private void evict(RemoteGamePeer peer, String reason) {
+		GamePeerStatus status = (GamePeerStatus)peerStatus.get(peer);
+		if (status == null) {
+			return;
+		}
+		long backoff = status.evicted(initialBackoff, System.currentTimeMillis());
+		if (backoff > maxBackoff) {
+			logger.warning("GamePeerManager giving up on game peer on host " + peerHostNames.get(peer) + ": " + reason);
+			checkMatches(peer);
+			unRegisterGamePeer(peer);
+			return;
+		}
+		if (peers.remove(peer)) {
+			evictedPeers.add(peer);
+			checkMatches(peer);
+		}
+		logger.warning("GamePeerManager evicted game peer on host " + peerHostNames.get(peer) + " for " + backoff + " ms: " + reason);
+	}
+	
+	// Sends a heartbeat to the peers which have none in flight and to the evicted
+	// peers whose backoff expired. Heartbeats are sent in the lanes of the call
+	// pool, so that the lock of the manager is not held during remote calls and a
+	// peer which does not answer does not delay the others. A heartbeat in flight
+	// for longer than the latency limit counts as a failure.
+	synchronized private void heartbeat() {
+		long now = System.currentTimeMillis();
+		List all = new ArrayList(peers);
+		all.addAll(evictedPeers);
+		Iterator it = all.iterator();
+		while (it.hasNext()) {
+			final RemoteGamePeer peer = (RemoteGamePeer)it.next();
+			final GamePeerStatus status = (GamePeerStatus)peerStatus.get(peer);
+			if (status.isHeartbeatPending()) {
+				if (status.heartbeatOverdue(now)) {
+					// The worker blocked in the call is replaced until it returns.
+					callPool.stalled();
+					heartbeatFailed(peer, status, "no answer within " + latencyLimit + " ms");
+				}
+			} else if (!evictedPeers.contains(peer) || now >= status.getRetryTime()) {
+				status.heartbeatSent(now);
+				final String peerTicket = (String)peerTickets.get(peer);
+				new CallLane().enqueue(new Runnable() {
+					public void run() {
+						sendHeartbeat(peer, peerTicket, status);
+					}
+				});
+			}
+		}
+	}
+	
+	private void sendHeartbeat(RemoteGamePeer peer, String peerTicket, GamePeerStatus status) {
+		GamePeerLoad load = null;
+		String failure = null;
+		long start = System.currentTimeMillis();
+		try {
+			load = peer.getLoad(peerTicket);
+		} catch (InvalidTicketException e) {
+			failure = "game peer did not recognize ticket " + peerTicket;
+		} catch (RemoteException e) {
+			failure = e.getMessage();
+		}
+		long roundTrip = System.currentTimeMillis() - start;
+		synchronized(this) {
+			boolean overdue = status.heartbeatReturned();
+			if (overdue) {
+				callPool.recovered();
+			}
+			if (peerStatus.get(peer) != status) {
+				// The peer was unregistered in the meantime.
+				return;
+			}
+			if (load == null) {
+				if (!overdue) {
+					heartbeatFailed(peer, status, failure);
+				}
+				return;
+			}
+			status.loadReported(load);
+			if (evictedPeers.contains(peer)) {
+				if (roundTrip <= latencyLimit) {
+					status.reinstated(roundTrip);
+					evictedPeers.remove(peer);
+					peers.add(peer);
+					logger.info("GamePeerManager reinstated game peer on host " + peerHostNames.get(peer));
+				} else {
+					heartbeatFailed(peer, status, "heartbeat took " + roundTrip + " ms");
+				}
+			} else {
+				status.callSucceeded(roundTrip);
+				if (status.isHealthy()) {
+					status.backoffExpired();
 				} else {
-					RemoteGamePeer peer = (RemoteGamePeer)peers.get(0);
-					peers.remove(peer);
-					peerTicket = (String) peerTickets.get(peer);
-					logger.info("GamePeerManager creating match on game peer " + peerHostNames.get(peer));
-					match = peer.createMatch(peerTicket, game, round, players);
-					
-					// If the match creation failed, the next statement is not reached.
-					// Consequently, the peer is not added back in the queue, removing
-					// stale references or misconfigured game peers.
+					evict(peer, "average heartbeat round trip is " + status.getLatency() + " ms");
+				}
+			}
+			notifyAll();
+		}
+	}
+	
+	// Counts a failure against the peer. An evicted peer has its backoff extended.
+	private void heartbeatFailed(RemoteGamePeer peer, GamePeerStatus status, String reason) {
+		logger.fine("Heartbeat to game peer on host " + peerHostNames.get(peer) + " failed: " + reason);
+		status.callFailed();
+		if (evictedPeers.contains(peer) || !status.isHealthy()) {
+			evict(peer, reason);
+		}
+	}
+	
+	// Returns the peer on which the next match should be created, or null if the
+	// match should be created locally. Waits while all peers are full, until the
+	// deadline.
+	private GamePeerStatus choosePeer(long deadline) {
+		while (!peers.isEmpty()) {
+			List candidates = new ArrayList();
+			Iterator it = peers.iterator();
+			while (it.hasNext()) {
+				GamePeerStatus status = (GamePeerStatus)peerStatus.get(it.next());
+				if (!status.isFull()) {
+					candidates.add(status);
+				}
+			}
+			if (!candidates.isEmpty()) {
+				return placementStrategy.choosePeer((GamePeerStatus[])candidates.toArray(new GamePeerStatus[candidates.size()]));
+			}
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				logger.warning("GamePeerManager: all game peers are full, creating match locally.");
+				return null;
+			}
+			logger.fine("GamePeerManager: all game peers are full, waiting for capacity.");
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Creates a single match. See createMatches.
+	 */
+	public RemoteMatch createMatch(Round round, User[] players) {
+		return createMatches(round, new User[][] {players})[0];
+	}
+	
+	/**
+	 * Creates the matches of a round, one per pairing of players. Pairings are
+	 * first assigned to game peers according to the placement strategy, then the
+	 * matches of each game peer are created in parallel with those of the other
+	 * game peers. The lock of the game peer manager is not held during remote
+	 * calls, so that other tournaments can plan their rounds meanwhile. Pairings
+	 * assigned to a game peer which fails are placed again on the remaining game
+	 * peers, or locally.
+	 *
+	 * @param    round               the round the matches belong to
+	 * @param    pairings            the players of each match
+	 *
+	 * @return   the matches, in the order of the pairings; an element is null if
+	 *           the match could not be created, even locally
+	 */
+	public RemoteMatch[] createMatches(Round round, User[][] pairings) {
+		Game game = round.getTournament().getLeague().getGame();
+		RemoteMatch[] result = new RemoteMatch[pairings.length];
+		List pending = new ArrayList();
+		for (int i = 0; i < pairings.length; i++) {
+			pending.add(new Integer(i));
+		}
+		int attempts = 0;
+		int maxAttempts = getPlacementAttempts();
+		while (!pending.isEmpty() && attempts <= maxAttempts) {
+			// The last attempt creates the remaining matches locally.
+			Placement[] placements = place(pending, attempts == maxAttempts);
+			runPlacements(placements, game, round, pairings, result);
+			pending = placementsDone(placements);
+			attempts++;
+		}
+		if (!pending.isEmpty()) {
+			logger.severe("GamePeerManager failed to create " + pending.size() + " match(es), even locally.");
+		}
+		return result;
+	}
+	
+	// Assigns the pending pairings to peers, reserving capacity on each peer, or
+	// to the arena itself. Waiting for capacity is bounded by a single queue
+	// timeout for all the pairings; once a pairing is placed locally, so are
+	// all the remaining ones.
+	synchronized private Placement[] place(List pending, boolean local) {
+		Map byPeer = new HashMap();
+		List placements = new ArrayList();
+		long deadline = System.currentTimeMillis() + queueTimeout;
+		Iterator it = pending.iterator();
+		while (it.hasNext()) {
+			GamePeerStatus status = local ? null : choosePeer(deadline);
+			if (status == null) {
+				local = true;
+			}
+			RemoteGamePeer peer = status == null ? null : status.getPeer();
+			Placement placement = (Placement)byPeer.get(peer);
+			if (placement == null) {
+				placement = new Placement(status, (String)peerTickets.get(peer), (String)peerHostNames.get(peer));
+				byPeer.put(peer, placement);
+				placements.add(placement);
+			}
+			placement.pairings.add(it.next());
+			if (status != null) {
+				status.matchPlaced();
+			}
+		}
+		return (Placement[])placements.toArray(new Placement[placements.size()]);
+	}
+	
+	// Runs the placements in parallel, the last one in the calling thread, and
+	// waits until all of them are done.
+	private void runPlacements(final Placement[] placements, final Game game, final Round round, final User[][] pairings, final RemoteMatch[] result) {
+		final int[] running = {placements.length - 1};
+		for (int i = 0; i < placements.length - 1; i++) {
+			final Placement placement = placements[i];
+			new CallLane().enqueue(new Runnable() {
+				public void run() {
+					try {
+						placement.run(game, round, pairings, result);
+					} finally {
+						synchronized(running) {
+							running[0]--;
+							running.notifyAll();
+						}
+					}
+				}
+			});
+		}
+		placements[placements.length - 1].run(game, round, pairings, result);
+		synchronized(running) {
+			while (running[0] > 0) {
+				try {
+					running.wait();
+				} catch (InterruptedException e) {
+					// Keep waiting, results are written into the result array.
+				}
+			}
+		}
+	}
+	
+	// Records the created matches, which the peer status counts until a load report
+	// includes them, and releases the capacity reserved for the pairings which
+	// failed. Returns the pairings to place again.
+	synchronized private List placementsDone(Placement[] placements) {
+		List failed = new ArrayList();
+		Long now = new Long(System.currentTimeMillis());
+		for (int i = 0; i < placements.length; i++) {
+			Placement placement = placements[i];
+			Iterator it = placement.created.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry entry = (Map.Entry)it.next();
+				String matchId = (String)entry.getKey();
+				matches.put(matchId, entry.getValue());
+				matchCreationTimes.put(matchId, now);
+				if (placement.status != null) {
+					matchPeers.put(matchId, placement.status.getPeer());
+				}
+			}
+			journals.putAll(placement.journals);
+			failed.addAll(placement.pairings);
+			if (placement.status != null) {
+				RemoteGamePeer peer = placement.status.getPeer();
+				if (!placement.batchCreation && placement.status.supportsBatchCreation()) {
+					// Remember legacy peers, so that batches are not attempted again.
+					placement.status.batchCreationUnsupported();
+				}
+				for (int j = 0; j < placement.created.size(); j++) {
+					placement.status.placementDone(true);
+				}
+				for (int j = 0; j < placement.pairings.size(); j++) {
+					placement.status.placementDone(false);
+				}
+				if (placement.ticketRejected) {
+					// Remove misconfigured game peers.
+					unRegisterGamePeer(peer);
+				} else if (placement.failed) {
+					// The peer is tried again after its backoff, if it answers heartbeats.
+					placement.status.callFailed();
+					evict(peer, "match creation failed");
+				} else if (peers.remove(peer)) {
+					// Move the peer to the end of the queue, so that placement strategies
+					// break ties in favor of the least recently used peer.
 					peers.add(peer);
 				}
-				logger.fine("... match successfully created.");
-			} catch (InvalidTicketException e) {
-				logger.severe("GamePeerManager failed to create match because game peer did not recognize ticket: " + peerTicket);
-				e.printStackTrace();
+			}
+		}
+		notifyAll();
+		return failed;
+	}
+	
+	// The pairings assigned to a single peer, or to the arena itself if status is null.
+	private static class Placement {
+		private GamePeerStatus status;
+		private String peerTicket;
+		private String hostName;
+		
+		// Indexes of the pairings still to be created
+		private List pairings = new ArrayList();
+		
+		// Matches created and their journals, indexed by match id
+		private Map created = new HashMap();
+		private Map journals = new HashMap();
+		
+		private boolean failed = false;
+		private boolean ticketRejected = false;
+		
+		// True if the peer is not known to lack createMatches, and set to false
+		// when the peer turns out to lack it
+		private boolean batchCreation;
+		
+		Placement(GamePeerStatus status, String peerTicket, String hostName) {
+			this.status = status;
+			this.peerTicket = peerTicket;
+			this.hostName = hostName;
+			this.batchCreation = status != null && status.supportsBatchCreation();
+		}
+		
+		// Creates the matches one after the other, stopping at the first failure.
+		void run(Game game, Round round, User[][] pairings, RemoteMatch[] result) {
+			if (status == null) {
+				logger.info("GamePeerManager creating " + this.pairings.size() + " match(es) locally.");
+			} else {
+				logger.info("GamePeerManager creating " + this.pairings.size() + " match(es) on game peer " + hostName);
+			}
+			if (batchCreation && this.pairings.size() > 1) {
+				try {
+					runBatch(game, round, pairings, result);
+				} catch (InvalidTicketException e) {
+					logger.severe("GamePeerManager failed to create matches because game peer did not recognize ticket: " + peerTicket);
+					e.printStackTrace();
+					failed = true;
+					ticketRejected = true;
+					return;
+				} catch (RemoteException e) {
+					if (!isUnsupportedMethod(e)) {
+						logger.warning("GamePeerManager failed to create matches because connection to game peer failed.");
+						e.printStackTrace();
+						failed = true;
+						return;
+					}
+					logger.info("Game peer on " + hostName + " does not support batch match creation, creating matches one by one.");
+					batchCreation = false;
+				}
+				if (failed) {
+					return;
+				}
+			}
+			while (!this.pairings.isEmpty()) {
+				int index = ((Integer)this.pairings.get(0)).intValue();
+				RemoteMatch match = null;
+				try {
+					if (status == null) {
+						match = game.createMatch(round, pairings[index]);
+					} else {
+						match = status.getPeer().createMatch(peerTicket, game, round, pairings[index]);
+					}
+				} catch (InvalidTicketException e) {
+					logger.severe("GamePeerManager failed to create match because game peer did not recognize ticket: " + peerTicket);
+					e.printStackTrace();
+					failed = true;
+					ticketRejected = true;
+					return;
+				} catch (RemoteException e) {
+					logger.warning("GamePeerManager failed to create match because connection to game peer failed.");
+					e.printStackTrace();
+					failed = true;
+					return;
+				}
+				if (!matchCreated(index, match, round, pairings, result)) {
+					failed = true;
+					return;
+				}
+				this.pairings.remove(0);
+			}
+			logger.fine("... matches successfully created.");
+		}
+		
+		// Creates all the matches with a single call to the peer.
+		private void runBatch(Game game, Round round, User[][] pairings, RemoteMatch[] result) throws RemoteException, InvalidTicketException {
+			User[][] batch = new User[this.pairings.size()][];
+			for (int i = 0; i < batch.length; i++) {
+				batch[i] = pairings[((Integer)this.pairings.get(i)).intValue()];
+			}
+			RemoteMatch[] batchMatches = status.getPeer().createMatches(peerTicket, game, round, batch);
+			// Pairings whose match could not be recorded stay pending.
+			int next = 0;
+			for (int i = 0; i < batchMatches.length; i++) {
+				int index = ((Integer)this.pairings.get(next)).intValue();
+				if (matchCreated(index, batchMatches[i], round, pairings, result)) {
+					this.pairings.remove(next);
+				} else {
+					failed = true;
+					next++;
+				}
+			}
+		}
+		
+		// Records a created match. Matches created on a peer are watched by a
+		// journal, so that they can be restored if the peer fails. Returns false
+		// if the match cannot be reached, in which case its pairing stays pending,
+		// so that its reservation is released and it is placed again.
+		private boolean matchCreated(int index, RemoteMatch match, Round round, User[][] pairings, RemoteMatch[] result) {
+			String matchId = null;
+			try {
+				matchId = match.getInfo().getMatchId();
 			} catch (RemoteException e) {
-				logger.warning("GamePeerManager failed to create match because connection to game peer failed.");
-				e.printStackTrace();
+				// Connection to remote match failed during getInfo()
+				logger.severe("GamePeerManager failed to get info from match, because connection failed.");
+				discard(match);
+				return false;
+			}
+			created.put(matchId, match);
+			result[index] = match;
+			if (status != null) {
+				try {
+					MatchJournal journal = new MatchJournal(round, pairings[index]);
+					match.watch(journal);
+					journals.put(matchId, journal);
+				} catch (RemoteException e) {
+					logger.warning("GamePeerManager failed to add a journal to match " + matchId + ", it cannot be restored if its game peer fails.");
+				}
+			}
+			return true;
+		}
+		
+		// Drops a match which was created but cannot be recorded. Local matches
+		// are unexported, matches on a peer are left to the distributed garbage
+		// collector of the peer once the arena releases its reference.
+		private void discard(RemoteMatch match) {
+			if (match instanceof Match) {
+				try {
+					UnicastRemoteObject.unexportObject(match, true);
+				} catch (NoSuchObjectException e) {}
+			} else {
+				logger.warning("GamePeerManager dropped an unreachable match on game peer " + hostName + ".");
+			}
+		}
+		
+		// Returns true if the exception signals that the peer does not implement
+		// the invoked method, i.e., that it was built against an earlier version.
+		private static boolean isUnsupportedMethod(RemoteException e) {
+			if (e instanceof ServerException) {
+				return e.detail instanceof UnmarshalException;
 			}
+			return e instanceof UnmarshalException;
+		}
+	}
+	
+	/**
+	 * Invoked by the round when it is notified of a change of the state of a
+	 * match, so that the journal of the match knows whether the match was opened.
+	 */
+	synchronized public void matchInfoChanged(MatchInfo matchInfo) {
+		MatchJournal journal = (MatchJournal)journals.get(matchInfo.getMatchId());
+		if (journal != null) {
+			journal.stateChanged(matchInfo.getState());
+		}
+	}
+	
+	// Checks the active matches of a peer which was evicted, and restores those
+	// which cannot be reached anymore. A peer which is only slow keeps its matches.
+	private void checkMatches(RemoteGamePeer peer) {
+		final List orphans = new ArrayList();
+		Iterator it = matchPeers.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry entry = (Map.Entry)it.next();
+			if (entry.getValue().equals(peer)) {
+				orphans.add(entry.getKey());
+			}
+		}
+		if (orphans.isEmpty()) {
+			return;
+		}
+		new CallLane().enqueue(new Runnable() {
+			public void run() {
+				for (Iterator i = orphans.iterator(); i.hasNext();) {
+					String matchId = (String)i.next();
+					RemoteMatch match = null;
+					synchronized(GamePeerManager.this) {
+						match = (RemoteMatch)matches.get(matchId);
+					}
+					try {
+						match.getInfo();
+					} catch (RemoteException e) {
+						restoreMatch(matchId, match);
+					}
+				}
+			}
+		});
+	}
+	
+	// Recreates a match lost with its peer on another peer, or locally, from its
+	// journal, and replaces it in its round.
+	private void restoreMatch(String matchId, RemoteMatch lostMatch) {
+		MatchJournal journal = null;
+		synchronized(this) {
+			journal = (MatchJournal)journals.remove(matchId);
+			if (journal == null) {
+				return;
+			}
+			matchFinished(matchId);
+		}
+		journal.close();
+		if (journal.isOver()) {
+			return;
+		}
+		logger.warning("GamePeerManager restoring match " + matchId + " lost with its game peer.");
+		Round round = journal.getRound();
+		Move[] moves = journal.getMoves();
+		RemoteMatch match = createMatches(round, new User[][] {journal.getPlayers()})[0];
+		if (match == null) {
+			logger.severe("GamePeerManager failed to restore match " + matchId + ".");
+			return;
 		}
 		try {
-			matches.put(match.getInfo().getMatchId(), match);
-		} catch (RemoteException e) {
-			// Connection to remote match failed during getInfo()
-			match = null;
-			logger.severe("GamePeerManager failed to get info from match, because connection failed.");
+			matchRestored(match.getInfo().getMatchId(), matchId, moves);
+			round.replaceMatch(lostMatch, match, matchId, moves, journal.isOpened());
+			logger.info("GamePeerManager restored match " + matchId + ".");
+		} catch (Exception e) {
+			logger.severe("GamePeerManager failed to restore match " + matchId + ": " + e.getMessage());
+			e.printStackTrace();
 		}
-		return match;
 	}
 	
-	synchronized public MatchInfo getMatchById(String matchId)
+	// The restored match takes over the id of the lost match.
+	synchronized private void matchRestored(String newId, String matchId, Move[] moves) {
+		matches.put(matchId, matches.remove(newId));
+		matchCreationTimes.put(matchId, matchCreationTimes.remove(newId));
+		Object peer = matchPeers.remove(newId);
+		if (peer != null) {
+			matchPeers.put(matchId, peer);
+		}
+		MatchJournal journal = (MatchJournal)journals.remove(newId);
+		if (journal != null) {
+			journal.addMoves(moves);
+			journals.put(matchId, journal);
+		}
+	}
+	
+	// A lane making the remote calls of a single placement.
+	private static class CallLane extends WorkerPool.Lane {
+		CallLane() {
+			super(callPool);
+		}
+		protected void process(Object task) {
+			((Runnable)task).run();
+		}
+	}
+	
+	public MatchInfo getMatchById(String matchId)
 		throws MatchNotFoundException, RemoteException {
-		RemoteMatch match = (RemoteMatch)matches.get(matchId);
+		RemoteMatch match = null;
+		synchronized(this) {
+			match = (RemoteMatch)matches.get(matchId);
+			if (match == null && archive.containsKey(matchId)) {
+				return (MatchInfo)archive.get(matchId);
+			}
+		}
 		if (match == null) {
 			throw new MatchNotFoundException("Game peer manager does not know about match " + matchId + ".");
 		}
 		return match.getInfo();
 	}
 	
+	/**
+	 * Releases a match immediately. The match is archived if it is over.
+	 */
 	synchronized public void releaseMatch(String matchId) {
-		matches.remove(matchId);
+		FinishedMatch finished = (FinishedMatch)finishedMatches.remove(matchId);
+		if (matches.remove(matchId) != null) {
+			matchCreationTimes.remove(matchId);
+			numReleasedMatches++;
+			if (finished != null) {
+				archive.put(matchId, finished.info);
+			}
+		}
+	}
+	
+	/**
+	 * Invoked by the round with the final info of a match which finished or was
+	 * terminated. The match is released and archived once its grace period expires.
+	 */
+	synchronized public void archiveMatch(MatchInfo matchInfo) {
+		String matchId = matchInfo.getMatchId();
+		if (!matches.containsKey(matchId)) {
+			return;
+		}
+		finishedMatches.remove(matchId);
+		finishedMatches.put(matchId, new FinishedMatch(matchInfo.withoutMatch(), System.currentTimeMillis()));
+		if (releaseDelay == 0) {
+			releaseFinishedMatches();
+		} else if (releaseTimer == null) {
+			releaseTimer = new Timer(true);
+			releaseTimer.schedule(new TimerTask() {
+						public void run() {
+							releaseFinishedMatches();
+						}
+					}, RELEASE_PERIOD, RELEASE_PERIOD);
+		}
+	}
+	
+	// Releases the matches whose grace period expired, oldest first.
+	synchronized private void releaseFinishedMatches() {
+		long deadline = System.currentTimeMillis() - releaseDelay;
+		int numReleased = 0;
+		Iterator it = finishedMatches.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry entry = (Map.Entry)it.next();
+			FinishedMatch finished = (FinishedMatch)entry.getValue();
+			if (finished.time > deadline) {
+				break;
+			}
+			it.remove();
+			String matchId = (String)entry.getKey();
+			matches.remove(matchId);
+			matchCreationTimes.remove(matchId);
+			archive.put(matchId, finished.info);
+			numReleased++;
+		}
+		if (numReleased > 0) {
+			numReleasedMatches += numReleased;
+			logger.fine("GamePeerManager released " + numReleased + " match(es), " + matches.size() + " left.");
+		}
+	}
+	
+	// The archived info of a match which is over, and the time it was over.
+	private static class FinishedMatch {
+		private MatchInfo info;
+		private long time;
+		FinishedMatch(MatchInfo info, long time) {
+			this.info = info;
+			this.time = time;
+		}
+	}
+	
+	/**
+	 * Invoked by the round when a match finished or was terminated, so that its
+	 * game peer can accept a new match.
+	 */
+	synchronized public void matchFinished(String matchId) {
+		MatchJournal journal = (MatchJournal)journals.remove(matchId);
+		if (journal != null) {
+			journal.close();
+		}
+		RemoteGamePeer peer = (RemoteGamePeer)matchPeers.remove(matchId);
+		if (peer != null) {
+			GamePeerStatus status = (GamePeerStatus)peerStatus.get(peer);
+			if (status != null) {
+				status.matchFinished();
+				notifyAll();
+			}
+		}
 	}
 	
 }
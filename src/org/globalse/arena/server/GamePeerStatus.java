@@ -0,0 +1,298 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.server;
+
+import org.globalse.arena.gamepeer.GamePeerLoad;
+import org.globalse.arena.gamepeer.RemoteGamePeer;
+
+/**
+ * This class is the view of the game peer manager on the load and the health of a
+ * registered game peer. It combines the load last reported by the game peer with the
+ * matches created on the game peer since then, so that a burst of match creations does
+ * not go to the same game peer. Placement strategies use it to compare game peers.
+ *
+ * The health of a game peer is derived from the round trip time of its heartbeats and
+ * from the number of consecutive calls that failed. Unhealthy game peers are evicted
+ * by the game peer manager and tried again after a backoff period, which doubles
+ * each time the game peer is evicted again.
+ *
+ * @see PlacementStrategy
+ * @see GamePeerManager
+ */
+public class GamePeerStatus {
+	
+	private RemoteGamePeer peer;
+	private String hostName;
+	
+	// Matches reported by the game peer, matches created since the last report,
+	// and matches placed on the game peer whose creation is still in progress
+	private int reportedMatches = 0;
+	private int placedMatches = 0;
+	private int reservedMatches = 0;
+	
+	// Matches created before the heartbeat in flight was sent, which its report
+	// accounts for
+	private int placedBeforeHeartbeat = 0;
+	
+	private int numListeners = 0;
+	private long moveLatency = 0;
+	
+	// Limit reported by the peer and limit set by the arena, 0 if unlimited
+	private int peerMaxMatches = 0;
+	private int arenaMaxMatches = 0;
+	
+	// False if the game peer only implements the single match creation call
+	private boolean batchCreation = true;
+	
+	// Average heartbeat round trip in ms, and number of consecutive failed calls
+	private long latency = 0;
+	private int numFailures = 0;
+	
+	// Limits above which the game peer is unhealthy
+	private int failureLimit;
+	private long latencyLimit;
+	
+	// Time the heartbeat in flight was sent, 0 if none, and whether it was
+	// already counted as failed because it took too long
+	private long heartbeatSent = 0;
+	private boolean heartbeatOverdue = false;
+	
+	// Current backoff period, 0 if the game peer was not evicted recently, and
+	// time at which an evicted game peer is tried again
+	private long backoff = 0;
+	private long retryTime = 0;
+	
+	GamePeerStatus(RemoteGamePeer peer, String hostName, int arenaMaxMatches, int failureLimit, long latencyLimit) {
+		this.peer = peer;
+		this.hostName = hostName;
+		this.arenaMaxMatches = arenaMaxMatches;
+		this.failureLimit = failureLimit;
+		this.latencyLimit = latencyLimit;
+	}
+	
+	public RemoteGamePeer getPeer() {
+		return peer;
+	}
+	
+	public String getHostName() {
+		return hostName;
+	}
+	
+	/**
+	 * Returns the estimated number of active matches on the game peer.
+	 */
+	public int getNumMatches() {
+		return reportedMatches + placedMatches + reservedMatches;
+	}
+	
+	/**
+	 * Returns the number of players and spectators of the active matches of the
+	 * game peer, as last reported by the game peer.
+	 */
+	public int getNumListeners() {
+		return numListeners;
+	}
+	
+	/**
+	 * Returns the average move latency in milliseconds last reported by the game peer.
+	 */
+	public long getMoveLatency() {
+		return moveLatency;
+	}
+	
+	/**
+	 * Returns the maximum number of active matches of the game peer, that is, the
+	 * lower of the limits set by the game peer and by the arena, or 0 if neither
+	 * sets a limit.
+	 */
+	public int getMaxMatches() {
+		if (peerMaxMatches == 0) {
+			return arenaMaxMatches;
+		}
+		if (arenaMaxMatches == 0) {
+			return peerMaxMatches;
+		}
+		return Math.min(peerMaxMatches, arenaMaxMatches);
+	}
+	
+	/**
+	 * Returns true if no more matches should be created on the game peer.
+	 */
+	public boolean isFull() {
+		int max = getMaxMatches();
+		return max > 0 && getNumMatches() >= max;
+	}
+	
+	/**
+	 * Returns false if the game peer is known to implement only the single match
+	 * creation call of earlier versions.
+	 */
+	public boolean supportsBatchCreation() {
+		return batchCreation;
+	}
+	
+	void batchCreationUnsupported() {
+		batchCreation = false;
+	}
+	
+	/**
+	 * Returns the average round trip time of the heartbeats of the game peer in
+	 * milliseconds.
+	 */
+	public long getLatency() {
+		return latency;
+	}
+	
+	/**
+	 * Returns the number of consecutive calls to the game peer which failed.
+	 */
+	public int getNumFailures() {
+		return numFailures;
+	}
+	
+	/**
+	 * Returns a score between 0 (unusable) and 1 (perfectly healthy). The score
+	 * decreases linearly with the number of consecutive failures, reaching 0 at the
+	 * failure limit, and is divided by the factor by which the latency exceeds the
+	 * latency limit, if it does.
+	 */
+	public double getHealthScore() {
+		double score = 1.0 - Math.min(1.0, (double)numFailures / failureLimit);
+		if (latency > latencyLimit) {
+			score = score * latencyLimit / latency;
+		}
+		return score;
+	}
+	
+	/**
+	 * Returns true if neither the failure limit nor the latency limit are reached.
+	 */
+	public boolean isHealthy() {
+		return numFailures < failureLimit && latency <= latencyLimit;
+	}
+	
+	/**
+	 * Returns the time at which the game peer is tried again if it is evicted.
+	 */
+	public long getRetryTime() {
+		return retryTime;
+	}
+	
+	void setHealthLimits(int failureLimit, long latencyLimit) {
+		this.failureLimit = failureLimit;
+		this.latencyLimit = latencyLimit;
+	}
+	
+	boolean isHeartbeatPending() {
+		return heartbeatSent != 0;
+	}
+	
+	void heartbeatSent(long now) {
+		heartbeatSent = now;
+		placedBeforeHeartbeat = placedMatches;
+		heartbeatOverdue = false;
+	}
+	
+	// Returns true the first time the heartbeat in flight is found to take longer
+	// than the latency limit.
+	boolean heartbeatOverdue(long now) {
+		if (heartbeatSent == 0 || heartbeatOverdue || now - heartbeatSent <= latencyLimit) {
+			return false;
+		}
+		heartbeatOverdue = true;
+		return true;
+	}
+	
+	// Returns true if the heartbeat was overdue.
+	boolean heartbeatReturned() {
+		heartbeatSent = 0;
+		return heartbeatOverdue;
+	}
+	
+	// Exponentially weighted moving average, so that recent heartbeats dominate.
+	void callSucceeded(long roundTrip) {
+		numFailures = 0;
+		latency = latency == 0 ? roundTrip : (3 * latency + roundTrip) / 4;
+	}
+	
+	void callFailed() {
+		numFailures++;
+	}
+	
+	// Returns the new backoff period.
+	long evicted(long initialBackoff, long now) {
+		backoff = backoff == 0 ? initialBackoff : 2 * backoff;
+		retryTime = now + backoff;
+		return backoff;
+	}
+	
+	// The latency of the heartbeat which succeeded replaces the average, so that
+	// a single slow call does not keep the game peer evicted.
+	void reinstated(long roundTrip) {
+		numFailures = 0;
+		latency = roundTrip;
+	}
+	
+	void backoffExpired() {
+		backoff = 0;
+	}
+	
+	void setArenaMaxMatches(int arenaMaxMatches) {
+		this.arenaMaxMatches = arenaMaxMatches;
+	}
+	
+	// Matches created after the heartbeat was sent, and matches still being
+	// created, are not included in the report and are kept.
+	void loadReported(GamePeerLoad load) {
+		reportedMatches = load.getNumMatches();
+		placedMatches -= Math.min(placedBeforeHeartbeat, placedMatches);
+		placedBeforeHeartbeat = 0;
+		numListeners = load.getNumListeners();
+		moveLatency = load.getMoveLatency();
+		peerMaxMatches = load.getMaxMatches();
+	}
+	
+	void matchPlaced() {
+		reservedMatches++;
+	}
+	
+	// Invoked once the creation of a match placed on the game peer is over,
+	// whether or not the match was created.
+	void placementDone(boolean created) {
+		if (reservedMatches > 0) {
+			reservedMatches--;
+		}
+		if (created) {
+			placedMatches++;
+		}
+	}
+	
+	void matchFinished() {
+		if (placedMatches > 0) {
+			placedMatches--;
+			if (placedBeforeHeartbeat > placedMatches) {
+				placedBeforeHeartbeat = placedMatches;
+			}
+		} else if (reportedMatches > 0) {
+			reportedMatches--;
+		}
+	}
+}
@@ -24,6 +24,7 @@ import java.rmi.RemoteException;
 import java.rmi.server.UID;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import org.globalse.arena.remote.LeagueInfo;
 import org.globalse.arena.remote.RemoteLeague;
@@ -44,6 +45,12 @@ public class League extends UnicastRemoteObject implements RemoteLeague {
     private String description;
 	private boolean restricted = true;
 	
+	// Incremented whenever a change affects who can access this league
+	private volatile long version = 0;
+	
+	// Access decisions cached by the access policy
+	private volatile Object accessTable = null;
+	
 	// Associations
 	private User owner;
     private Game game;
@@ -117,18 +124,42 @@ public class League extends UnicastRemoteObject implements RemoteLeague {
 	synchronized public void unrestrict(String ticket) throws RemoteException, InvalidTicketException, AccessDeniedException {
 		checkAccess(ticket, AccessPolicy.MANAGE);
 		restricted = false;
+		version++;
 		Arena.getInstance().getNotifier().fireLeagueInfoChanged(this);
 	}
 	
 	synchronized public void restrict(String ticket) throws RemoteException, InvalidTicketException, AccessDeniedException {
 		checkAccess(ticket, AccessPolicy.MANAGE);
 		restricted = true;
+		version++;
 		Arena.getInstance().getNotifier().fireLeagueInfoChanged(this);
 	}
 	
 	synchronized public boolean isRestricted() {
 		return restricted;
 	}
+	
+	/**
+	 * Returns a counter that is incremented whenever the players, the owner, or the
+	 * restriction of this league change. Callers caching access decisions compare
+	 * versions to detect that their cache is stale.
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Returns the access decisions an access policy attached to this league, or
+	 * null if none were attached. The access table is opaque to the league and
+	 * is accessed without locking.
+	 */
+	public Object getAccessTable() {
+		return accessTable;
+	}
+	
+	public void setAccessTable(Object accessTable) {
+		this.accessTable = accessTable;
+	}
 
     synchronized public Game getGame() {
 		return game;
@@ -145,6 +176,7 @@ public class League extends UnicastRemoteObject implements RemoteLeague {
 	synchronized public void setOwner(String ticket, User newOwner) throws RemoteException, InvalidTicketException, AccessDeniedException {
 		checkAccess(ticket, AccessPolicy.MANAGE);
 		this.owner = newOwner;
+		version++;
 		Arena.getInstance().getNotifier().fireLeagueInfoChanged(this);
 	}
 	
@@ -160,6 +192,7 @@ public class League extends UnicastRemoteObject implements RemoteLeague {
 		checkAccess(ticket, AccessPolicy.MANAGE);
 		if (!players.contains(player)) {
 			players.add(player);
+			version++;
 		}
 	}
 	
@@ -167,6 +200,7 @@ public class League extends UnicastRemoteObject implements RemoteLeague {
 		checkAccess(ticket, AccessPolicy.MANAGE);
 		if (players.contains(player)) {
 			players.remove(player);
+			version++;
 		}
 	}
 	
@@ -175,14 +209,16 @@ public class League extends UnicastRemoteObject implements RemoteLeague {
     }
 	
 	synchronized public TournamentInfo [] getTournamentInfos(String ticket) throws RemoteException, InvalidTicketException {
-		List result = new ArrayList();
+		Arena arena = Arena.getInstance();
+		User user = arena.getUser(ticket);
 		Tournament[] tournaments = this.getTournaments();
-		for (int i = 0; i < tournaments.length; i++) {
-			if (Arena.getInstance().hasTournamentAccess(ticket, tournaments[i], AccessPolicy.READ)) {
-				result.add(new TournamentInfo(tournaments[i]));
-			}
+		BitSet readable = arena.getTournamentAccess(user, tournaments, AccessPolicy.READ);
+		TournamentInfo[] result = new TournamentInfo[readable.cardinality()];
+		int j = 0;
+		for (int i = readable.nextSetBit(0); i >= 0; i = readable.nextSetBit(i + 1)) {
+			result[j++] = new TournamentInfo(tournaments[i]);
 		}
-		return (TournamentInfo[])result.toArray(new TournamentInfo[result.size()]);
+		return result;
 	}
 	
     synchronized public TournamentInfo createTournament(String ticket, String name, String description)
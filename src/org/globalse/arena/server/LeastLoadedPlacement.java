@@ -0,0 +1,56 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.server;
+
+/**
+ * This placement strategy chooses the game peer with the fewest active matches.
+ * Ties are broken by the number of listeners, then by the move latency, and then in
+ * favor of the least recently used game peer.
+ */
+public class LeastLoadedPlacement implements PlacementStrategy {
+	
+	public GamePeerStatus choosePeer(GamePeerStatus[] candidates) {
+		GamePeerStatus result = candidates[0];
+		for (int i = 1; i < candidates.length; i++) {
+			if (compare(candidates[i], result) < 0) {
+				result = candidates[i];
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns a negative number if the first game peer is less loaded than the
+	 * second one, a positive number if it is more loaded, and 0 otherwise.
+	 */
+	static int compare(GamePeerStatus a, GamePeerStatus b) {
+		if (a.getNumMatches() != b.getNumMatches()) {
+			return a.getNumMatches() - b.getNumMatches();
+		}
+		if (a.getNumListeners() != b.getNumListeners()) {
+			return a.getNumListeners() - b.getNumListeners();
+		}
+		if (a.getMoveLatency() != b.getMoveLatency()) {
+			return a.getMoveLatency() < b.getMoveLatency() ? -1 : 1;
+		}
+		return 0;
+	}
+}
@@ -22,20 +22,25 @@ package org.globalse.arena.server;
 
 import java.util.*;
 
+import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.rmi.server.UID;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.globalse.arena.remote.MatchInfo;
+import org.globalse.arena.remote.MatchSnapshot;
 import org.globalse.arena.remote.Move;
 import org.globalse.arena.remote.RemoteMatch;
 import org.globalse.arena.remote.RemoteMatchListener;
+import org.globalse.arena.remote.RemoteMatchRelay;
 import org.globalse.arena.remote.RemoteRound;
 import org.globalse.arena.remote.exceptions.AccessDeniedException;
 import org.globalse.arena.remote.exceptions.InvalidStateException;
 import org.globalse.arena.remote.exceptions.InvalidTicketException;
 import org.globalse.arena.user.AccessPolicy;
 import org.globalse.arena.user.User;
+import org.globalse.arena.util.WorkerPool;
 
 /**
  * A match is a contest between two or more players within the scope of a game.
@@ -50,7 +55,10 @@ import org.globalse.arena.user.User;
  *
  * In turn, the abstract class provides event notification for updating match front ends,
  * takes care of bookkeeping with the round and tournament classes, and authorizes
- * of players. This class is implemented as a remote object so that it can be created
+ * of players. Events of a match are delivered in order, one at a time, to the players,
+ * to the spectators, and to the round, by a small pool of notifier threads shared by
+ * all the matches of the virtual machine. Slow spectators thus do not delay players,
+ * and no thread is created for delivering events. This class is implemented as a remote object so that it can be created
  * in a virtual machine (e.g., a {@link org.globalse.arena.gamepeer.GamePeer GamePeer})
  * that is different than the round to which
  * it belongs (e.g., the arena server). This class implements the RemoteMatch public
@@ -92,20 +100,220 @@ public abstract class Match extends UnicastRemoteObject implements RemoteMatch {
 	// Map of listeners indexed by player
 	private Map playerListeners = new HashMap();
 	
-	// List of spectator listeners
+	// List of spectator listeners, including relays
 	private List spectatorListeners = new ArrayList();
 	
-	// List of threads for notifying remote match listeners.
-	private ArrayList threads = new ArrayList();
+	// Relays re-broadcasting the events of this match to their own spectators
+	private List relays = new ArrayList();
+	
+	// Map of relays indexed by the spectators redirected to them, and number of
+	// spectators redirected indexed by relay
+	private Map relayedSpectators = new HashMap();
+	private Map relayLoads = new HashMap();
+	
+	// Default number of spectators watching a match directly before new
+	// spectators are redirected to relays
+	public static final int DEFAULT_RELAY_THRESHOLD = 50;
+	private static int relayThreshold = DEFAULT_RELAY_THRESHOLD;
+	
+	// Default maximum number of relays a match creates by itself
+	public static final int DEFAULT_MAX_RELAYS = 8;
+	private static int maxRelays = DEFAULT_MAX_RELAYS;
+	
+	// Default number of threads delivering match events, per pool
+	public static final int DEFAULT_NUM_NOTIFIER_THREADS = 4;
+	
+	// Default time in milliseconds a match listener is given to return from a call
+	// before its thread is replaced and, for spectators, before it is removed
+	public static final long DEFAULT_CALL_DEADLINE = 10000;
+	private static long callDeadline = DEFAULT_CALL_DEADLINE;
+	
+	// Pools of notifier threads shared by all matches. Players (and the round) have
+	// their own pool, so that slow spectators cannot delay the delivery of moves.
+	private static WorkerPool playerPool = new WorkerPool("MatchPlayerNotifier", DEFAULT_NUM_NOTIFIER_THREADS);
+	private static WorkerPool spectatorPool = new WorkerPool("MatchSpectatorNotifier", DEFAULT_NUM_NOTIFIER_THREADS);
+	
+	// Lanes currently running a task, checked periodically by the watchdog
+	private static final long WATCHDOG_PERIOD = 1000;
+	private static Set busyLanes = new HashSet();
+	private static Timer watchdog = null;
+	
+	// Matches of this virtual machine which are neither finished nor terminated.
+	// Used for reporting the load of a game peer.
+	private static Map liveMatches = new WeakHashMap();
+	
+	// Recent time in milliseconds between playing a move and delivering it to
+	// all players, averaged over all the matches of this virtual machine.
+	private static long moveLatency = 0;
+	private static boolean moveLatencyKnown = false;
+	
+	// Lanes delivering events to the players, to the spectators, and to the round.
+	private TaskLane playerLane = new TaskLane(playerPool);
+	private TaskLane spectatorLane = new TaskLane(spectatorPool);
+	private TaskLane roundLane = new TaskLane(playerPool);
 	
     public Match(RemoteRound round, User[] players) throws RemoteException {
 		super();
+		assign(round, players);
+    }
+	
+	/**
+	 * Creates an unassigned match, or match shell. The shell is exported like any
+	 * other match, but it is not bound to a round and does not count as a live match
+	 * until bind is invoked. Match shells are created ahead of time by a
+	 * {@link MatchPool} so that the cost of exporting matches is not paid when a round
+	 * starts.
+	 *
+	 * @see PoolableGame
+	 */
+	protected Match() throws RemoteException {
+		super();
+	}
+	
+	/**
+	 * Binds a match shell to the specified round and players. Concrete matches
+	 * created as shells override this method to initialize their own state and must
+	 * invoke it. This method throws an InvalidStateException if the match is already
+	 * bound to a round.
+	 *
+	 * @param    round               The round in which the match will take place
+	 * @param    players             The players taking part in this match
+	 *
+	 * @exception   InvalidStateException
+	 *
+	 */
+	synchronized protected void bind(RemoteRound round, User[] players) throws InvalidStateException {
+		if (this.round != null) {
+			throw new InvalidStateException("Match is already bound to a round.");
+		}
+		assign(round, players);
+	}
+	
+	private void assign(RemoteRound round, User[] players) {
 		this.id = (new UID()).toString();
 		this.round = round;
 		for (int i = 0; i < players.length; i++) {
 			this.players.add(players[i]);
 		}
-    }
+		synchronized(liveMatches) {
+			liveMatches.put(this, null);
+		}
+	}
+	
+	/**
+	 * Sets the number of threads delivering the events of all the matches of this
+	 * virtual machine to players, and the number of threads delivering them to
+	 * spectators.
+	 */
+	public static void setNumNotifierThreads(int numThreads) {
+		playerPool.setSize(numThreads);
+		spectatorPool.setSize(numThreads);
+	}
+	
+	public static int getNumNotifierThreads() {
+		return playerPool.getSize();
+	}
+	
+	/**
+	 * Sets the time in milliseconds a match listener is given to return from a call.
+	 * The thread blocked in a call missing its deadline is replaced so that the
+	 * other matches are not delayed, and a spectator missing its deadline is removed
+	 * from the match. Players are kept, as leaving would forfeit the match.
+	 */
+	synchronized public static void setCallDeadline(long deadline) {
+		if (deadline <= 0) {
+			throw new IllegalArgumentException("Match listener call deadline must be positive.");
+		}
+		callDeadline = deadline;
+	}
+	
+	synchronized public static long getCallDeadline() {
+		return callDeadline;
+	}
+	
+	/**
+	 * Sets the number of spectators watching a match directly above which new
+	 * spectators are redirected to the relays of the match, if any.
+	 */
+	synchronized public static void setRelayThreshold(int threshold) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("Relay threshold cannot be negative.");
+		}
+		relayThreshold = threshold;
+	}
+	
+	synchronized public static int getRelayThreshold() {
+		return relayThreshold;
+	}
+	
+	/**
+	 * Sets the maximum number of relays a match creates in this virtual machine.
+	 * Once the relay threshold is reached, a match creates a new relay whenever
+	 * all its relays have as many spectators as the threshold. 0 disables the
+	 * creation of relays; relays registered with addRelay are still used.
+	 */
+	synchronized public static void setMaxRelays(int max) {
+		if (max < 0) {
+			throw new IllegalArgumentException("Maximum number of relays cannot be negative.");
+		}
+		maxRelays = max;
+	}
+	
+	synchronized public static int getMaxRelays() {
+		return maxRelays;
+	}
+	
+	/**
+	 * Returns the number of matches of this virtual machine which are neither
+	 * finished nor terminated.
+	 */
+	public static int getNumLiveMatches() {
+		synchronized(liveMatches) {
+			return liveMatches.size();
+		}
+	}
+	
+	/**
+	 * Returns the number of players and spectators listening to the matches of
+	 * this virtual machine which are neither finished nor terminated. Spectators
+	 * redirected to relays are not counted.
+	 */
+	public static int getNumLiveListeners() {
+		Match[] matches = null;
+		synchronized(liveMatches) {
+			matches = (Match[])liveMatches.keySet().toArray(new Match[liveMatches.size()]);
+		}
+		int result = 0;
+		for (int i = 0; i < matches.length; i++) {
+			result += matches[i].getNumListeners();
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the recent average time in milliseconds between a move being played
+	 * and its delivery to all the players of its match, for all the matches of
+	 * this virtual machine.
+	 */
+	synchronized public static long getMoveLatency() {
+		return moveLatency;
+	}
+	
+	// Exponentially weighted moving average, so that recent moves dominate.
+	synchronized private static void recordMoveLatency(long latency) {
+		if (!moveLatencyKnown) {
+			moveLatency = latency;
+			moveLatencyKnown = true;
+		} else {
+			moveLatency = (7 * moveLatency + latency) / 8;
+		}
+	}
+	
+	private void noLongerLive() {
+		synchronized(liveMatches) {
+			liveMatches.remove(this);
+		}
+	}
 	
 	synchronized public MatchInfo getInfo() {
 		return new MatchInfo(this);
@@ -159,6 +367,7 @@ public abstract class Match extends UnicastRemoteObject implements RemoteMatch {
 			throw new InvalidStateException("Can only end a match that is being played.");
 		}
 		state = FINISHED;
+		noLongerLive();
 		fireMatchEnded();
 		fireMatchInfoChanged(matchOwnerTicket);
 		logger.info("Match ended.");
@@ -170,10 +379,37 @@ public abstract class Match extends UnicastRemoteObject implements RemoteMatch {
 			throw new AccessDeniedException("Ticket " + ticket + " is not allowed to terminate this match.");
 		}
 		state = TERMINATED;
+		noLongerLive();
 		fireMatchTerminated();
 		fireMatchInfoChanged(matchOwnerTicket);
 	}
 	
+	// Invoked by round, when this match replaces a match that was lost.
+	synchronized public void restore(String ticket, String matchId, Move[] moves)
+		throws RemoteException, InvalidTicketException, AccessDeniedException, InvalidStateException {
+		if (!round.hasAccess(ticket, AccessPolicy.MANAGE)) {
+			throw new AccessDeniedException("Ticket " + ticket + " cannot restore this match.");
+		}
+		if (!state.equals(INITIALIZING)) {
+			throw new InvalidStateException("Can only restore a match when it is being initialized.");
+		}
+		for (int i = 0; i < moves.length; i++) {
+			replayMove(moves[i]);
+		}
+		this.id = matchId;
+		logger.info("Restored match " + matchId + " with " + moves.length + " move(s).");
+	}
+	
+	/**
+	 * Applies a move of a lost match to this match while it is being restored.
+	 * The move was already validated when it was first played and no listener is
+	 * notified. Concrete matches supporting restoration override this method; the
+	 * default implementation throws an InvalidStateException.
+	 */
+	protected void replayMove(Move move) throws InvalidStateException {
+		throw new InvalidStateException("This game does not support restoring matches.");
+	}
+	
 	private String getMatchTicket(User player) {
 		String playerTicket = Long.toHexString(random.nextLong());
 		while (matchTickets.get(playerTicket) != null) {
@@ -209,22 +445,202 @@ public abstract class Match extends UnicastRemoteObject implements RemoteMatch {
 		return getMatchTicket(player);
 	}
 	
-	synchronized public Move[] watch(RemoteMatchListener listener) {
-		if (state != FINISHED && !spectatorListeners.contains(listener)) {
-			spectatorListeners.add(listener);
+	public Move[] watch(RemoteMatchListener listener) {
+		return watch(listener, 0).getMoves();
+	}
+	
+	public MatchSnapshot watch(RemoteMatchListener listener, int fromMoveIndex) {
+		RemoteMatchRelay relay = null;
+		synchronized(this) {
+			if (state != FINISHED && !spectatorListeners.contains(listener) && !relayedSpectators.containsKey(listener)) {
+				int threshold = getRelayThreshold();
+				if (spectatorListeners.size() - relays.size() >= threshold) {
+					relay = getLeastLoadedRelay();
+					if ((relay == null || getRelayLoad(relay) >= threshold) && relays.size() < getMaxRelays()) {
+						relay = deployRelay(relay);
+					}
+				}
+				if (relay == null) {
+					spectatorListeners.add(listener);
+				} else {
+					relayedSpectators.put(listener, relay);
+					addRelayLoad(relay, 1);
+				}
+			}
+			if (relay == null) {
+				return getSnapshot(fromMoveIndex);
+			}
+		}
+		// Do not hold the lock on the match during the remote call to the relay.
+		try {
+			return relay.watch(listener, fromMoveIndex);
+		} catch (RemoteException e) {
+			logger.warning("Relay failed while adding a spectator, removing relay.");
+			removeRelay(relay);
+			return watch(listener, fromMoveIndex);
+		}
+	}
+	
+	// Returns the moves played after the specified index or, if the index is
+	// WITH_STATE and the game provides one, the state of the match.
+	synchronized private MatchSnapshot getSnapshot(int fromMoveIndex) {
+		int numMoves = getNumMoves();
+		if (fromMoveIndex == MatchSnapshot.WITH_STATE) {
+			Serializable state = getStateSnapshot();
+			if (state != null) {
+				return new MatchSnapshot(numMoves, state, new Move[0]);
+			}
+		}
+		int from = Math.min(Math.max(fromMoveIndex, 0), numMoves);
+		return new MatchSnapshot(from, null, getMoves(from));
+	}
+	
+	/**
+	 * Registers a relay, which is added to the spectators of this match. Once the
+	 * relay threshold is reached, new spectators are redirected to relays. Returns
+	 * the moves played so far.
+	 */
+	synchronized public Move[] addRelay(String ticket, RemoteMatchRelay relay)
+		throws RemoteException, InvalidTicketException, AccessDeniedException {
+		if (!round.hasAccess(ticket, AccessPolicy.MANAGE)) {
+			throw new AccessDeniedException("Ticket " + ticket + " cannot add relays to this match.");
 		}
+		registerRelay(relay);
 		return getMoves();
 	}
 	
+	private void registerRelay(RemoteMatchRelay relay) {
+		if (state != FINISHED && !relays.contains(relay)) {
+			relays.add(relay);
+			spectatorListeners.add(relay);
+			relayLoads.put(relay, new Integer(0));
+		}
+	}
+	
+	// Creates a relay in this virtual machine and registers it with this match.
+	// Returns the fallback relay if the new relay cannot be exported. The relay
+	// gets the moves played so far, and is only added to the spectators once the
+	// notifications queued so far are delivered, so that it gets each move once.
+	private RemoteMatchRelay deployRelay(RemoteMatchRelay fallback) {
+		try {
+			final MatchRelay relay = new MatchRelay(this, getMoves());
+			relays.add(relay);
+			relayLoads.put(relay, new Integer(0));
+			spectatorLane.enqueue(new Runnable() {
+				public void run() {
+					synchronized(Match.this) {
+						if (state != FINISHED && relays.contains(relay)) {
+							spectatorListeners.add(relay);
+						}
+					}
+				}
+			});
+			logger.fine("Created relay " + relays.size() + " of match " + id + ".");
+			return relay;
+		} catch (RemoteException e) {
+			logger.warning("Could not create a relay for match " + id + ".");
+			return fallback;
+		}
+	}
+	
+	private int getRelayLoad(RemoteMatchRelay relay) {
+		return ((Integer)relayLoads.get(relay)).intValue();
+	}
+	
+	private RemoteMatchRelay getLeastLoadedRelay() {
+		RemoteMatchRelay result = null;
+		int minLoad = Integer.MAX_VALUE;
+		for (Iterator i = relays.iterator(); i.hasNext();) {
+			RemoteMatchRelay relay = (RemoteMatchRelay)i.next();
+			int load = ((Integer)relayLoads.get(relay)).intValue();
+			if (load < minLoad) {
+				minLoad = load;
+				result = relay;
+			}
+		}
+		return result;
+	}
+	
+	private void addRelayLoad(RemoteMatchRelay relay, int delta) {
+		Integer load = (Integer)relayLoads.get(relay);
+		if (load != null) {
+			relayLoads.put(relay, new Integer(load.intValue() + delta));
+		}
+	}
+	
+	// Forgets a relay that failed. Its spectators do not receive events anymore
+	// and need to watch the match again.
+	synchronized private void removeRelay(RemoteMatchRelay relay) {
+		relays.remove(relay);
+		spectatorListeners.remove(relay);
+		relayLoads.remove(relay);
+		for (Iterator i = relayedSpectators.values().iterator(); i.hasNext();) {
+			if (i.next().equals(relay)) {
+				i.remove();
+			}
+		}
+	}
+	
 	protected abstract Move[] getMoves();
 	
+	/**
+	 * Returns the moves played starting at the specified index. The default
+	 * implementation copies all the moves returned by getMoves. Subclasses
+	 * storing long move lists should override this method, so that spectators
+	 * reconnecting to the match only cost the moves they missed.
+	 */
+	synchronized protected Move[] getMoves(int fromIndex) {
+		Move[] moves = getMoves();
+		Move[] result = new Move[moves.length - fromIndex];
+		System.arraycopy(moves, fromIndex, result, 0, result.length);
+		return result;
+	}
+	
+	/**
+	 * Returns the number of moves played so far. The default implementation
+	 * counts the moves returned by getMoves.
+	 */
+	synchronized protected int getNumMoves() {
+		return getMoves().length;
+	}
+	
+	/**
+	 * Returns a compact, game specific representation of the current state of the
+	 * match (e.g., the board), which a match panel can display without replaying
+	 * the moves, or null if the game does not provide one. The default implementation
+	 * returns null. This method is invoked with the lock on the match, so that the
+	 * state is consistent with getNumMoves.
+	 */
+	protected Serializable getStateSnapshot() {
+		return null;
+	}
+	
 	synchronized public void leave(RemoteMatchListener listener) {
 		logger.fine("Leaving match...");
 		if (state == FINISHED) {
 			logger.fine("...match already ended, nothing to do.");
 			return;
 		}
-		if (spectatorListeners.contains(listener)) {
+		final RemoteMatchRelay relay = (RemoteMatchRelay)relayedSpectators.remove(listener);
+		if (relay != null) {
+			logger.fine("...found relayed spectator.");
+			addRelayLoad(relay, -1);
+			// Subclasses may call this method with the lock on the match, so the
+			// relay is called from the spectator lane.
+			final RemoteMatchListener spectator = listener;
+			spectatorLane.enqueue(new Runnable() {
+				public void run() {
+					try {
+						relay.leave(spectator);
+					} catch (RemoteException e) {
+						logger.warning("Relay failed while removing a spectator.");
+					}
+				}
+			});
+		} else if (relays.contains(listener)) {
+			logger.fine("...found relay.");
+			removeRelay((RemoteMatchRelay)listener);
+		} else if (spectatorListeners.contains(listener)) {
 			logger.fine("...found spectator.");
 			spectatorListeners.remove(listener);
 		} else {
@@ -258,86 +674,206 @@ public abstract class Match extends UnicastRemoteObject implements RemoteMatch {
 		return (User[])players.toArray(new User[players.size()]);
 	}
 	
-	protected RemoteMatchListener [] getPlayerListeners() {
+	synchronized protected RemoteMatchListener [] getPlayerListeners() {
 		return (RemoteMatchListener[])playerListeners.values().toArray(new RemoteMatchListener[playerListeners.size()]);
 	}
 	
-	protected RemoteMatchListener [] getSpectatorListeners() {
-		return (RemoteMatchListener[])spectatorListeners.toArray(new RemoteMatchListener[playerListeners.size()]);
+	synchronized protected RemoteMatchListener [] getSpectatorListeners() {
+		return (RemoteMatchListener[])spectatorListeners.toArray(new RemoteMatchListener[spectatorListeners.size()]);
 	}
 	
-	protected abstract class MatchNotifierThread extends Thread {
-		protected MatchInfo info = null;
-		protected Move move = null;
-		
-		protected MatchNotifierThread(MatchInfo info) {
-			this(info, null);
-		}
+	synchronized int getNumListeners() {
+		return playerListeners.size() + spectatorListeners.size();
+	}
+	
+	// A lane running the tasks of a match one at a time and in order. While a task
+	// runs, the lane is watched, so that a remote call missing its deadline does not
+	// hold up the other lanes of the pool.
+	private class TaskLane extends WorkerPool.Lane {
+		// Time the current task started, 0 when no task is running
+		private long callStarted = 0;
+		// Listener currently called by the task, if any
+		private RemoteMatchListener callee = null;
+		private boolean stalled = false;
 		
-		protected MatchNotifierThread(MatchInfo info, Move move) {
-			this.info = info;
-			this.move = move;
-			queue();
+		TaskLane(WorkerPool pool) {
+			super(pool);
 		}
 		
-		private void queue() {
-			if (threads == null) {
-				throw new NullPointerException("Cannot queue a notifier threads on a null list.");
+		protected void process(Object task) {
+			synchronized(this) {
+				callStarted = System.currentTimeMillis();
 			}
-			synchronized(threads) {
-				threads.add(this);
-				if (threads.size() == 1) {
-					start();
+			watch(this);
+			try {
+				((Runnable)task).run();
+			} finally {
+				boolean wasStalled;
+				synchronized(this) {
+					callStarted = 0;
+					callee = null;
+					wasStalled = stalled;
+					stalled = false;
 				}
+				unwatch(this);
+				if (wasStalled) {
+					getPool().recovered();
+				}
+			}
+		}
+		
+		synchronized void setCallee(RemoteMatchListener listener) {
+			callee = listener;
+			if (callStarted != 0 && !stalled) {
+				callStarted = System.currentTimeMillis();
 			}
-			
 		}
 		
-		private void startNextThread() {
-			synchronized(threads) {
-				threads.remove(this);
-				if (threads.size() > 0) {
-					((Thread)threads.get(0)).start();
+		// Invoked by the watchdog. If the current task just missed its deadline,
+		// hands its worker over to the pool and removes the spectator it is calling.
+		// Players are kept, since leaving would forfeit the match; their lane
+		// simply resumes when the call returns.
+		void checkDeadline(long now) {
+			RemoteMatchListener listener;
+			synchronized(this) {
+				if (stalled || callStarted == 0 || now - callStarted < getCallDeadline()) {
+					return;
 				}
+				stalled = true;
+				listener = callee;
+			}
+			getPool().stalled();
+			if (listener == null) {
+				return;
+			}
+			if (isSpectator(listener)) {
+				logger.warning("Match spectator did not return within " + getCallDeadline() + " ms, removing spectator.");
+				leave(listener);
+			} else {
+				logger.warning("Match player did not return within " + getCallDeadline() + " ms, waiting for the player.");
+			}
+		}
+	}
+	
+	synchronized private boolean isSpectator(RemoteMatchListener listener) {
+		return spectatorListeners.contains(listener);
+	}
+	
+	private static void watch(TaskLane lane) {
+		synchronized(busyLanes) {
+			busyLanes.add(lane);
+			if (watchdog == null) {
+				watchdog = new Timer(true);
+				watchdog.schedule(new TimerTask() {
+							public void run() {
+								checkDeadlines();
+							}
+						}, WATCHDOG_PERIOD, WATCHDOG_PERIOD);
 			}
 		}
+	}
+	
+	private static void unwatch(TaskLane lane) {
+		synchronized(busyLanes) {
+			busyLanes.remove(lane);
+		}
+	}
+	
+	private static void checkDeadlines() {
+		TaskLane[] lanes;
+		synchronized(busyLanes) {
+			lanes = (TaskLane[])busyLanes.toArray(new TaskLane[busyLanes.size()]);
+		}
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i].checkDeadline(now);
+		}
+	}
+	
+	/**
+	 * An event to be delivered to the remote match listeners. Subclasses implement
+	 * the notify method, which invokes the listener method corresponding to the
+	 * event, and pass the notification to the fire method.
+	 */
+	protected abstract class MatchNotification {
+		protected MatchInfo info = null;
+		protected Move move = null;
+		
+		protected MatchNotification(MatchInfo info) {
+			this(info, null);
+		}
+		
+		protected MatchNotification(MatchInfo info, Move move) {
+			this.info = info;
+			this.move = move;
+		}
 		
 		abstract public void notify(RemoteMatchListener listener) throws RemoteException;
 		
-		public void run() {
-			RemoteMatchListener[] listeners = null;
-			listeners = getPlayerListeners();
+		private void deliver(TaskLane lane, RemoteMatchListener [] listeners, String kind) {
 			for (int i = 0; i < listeners.length; i++) {
 				if (listeners[i] != null) {
+					lane.setCallee(listeners[i]);
 					try {
 						notify(listeners[i]);
 					} catch (RemoteException e) {
-						logger.warning("Running player listeners: got exception.");
-						e.printStackTrace();
+						logger.log(Level.WARNING, "Running " + kind + " listeners: got exception.", e);
 						leave(listeners[i]);
 					}
 				}
 			}
-			startNextThread();
-			listeners = getSpectatorListeners();
-			for (int i = 0; i < listeners.length; i++) {
-				if (listeners[i] != null) {
-					try {
-						notify(listeners[i]);
-					} catch (RemoteException e) {
-						logger.warning("Running spectator listeners: got exception.");
-						e.printStackTrace();
-						leave(listeners[i]);
-					}
+		}
+	}
+	
+	/**
+	 * Queues a notification for the players and the spectators of this match.
+	 * Notifications are delivered in the order they are fired.
+	 */
+	protected void fire(final MatchNotification notification) {
+		final long fired = System.currentTimeMillis();
+		playerLane.enqueue(new Runnable() {
+			public void run() {
+				notification.deliver(playerLane, getPlayerListeners(), "player");
+				if (notification.move != null) {
+					recordMoveLatency(System.currentTimeMillis() - fired);
 				}
 			}
-		}
+		});
+		spectatorLane.enqueue(new Runnable() {
+			public void run() {
+				notification.deliver(spectatorLane, getSpectatorListeners(), "spectator");
+			}
+		});
+	}
+	
+	// Clears the listeners once all the queued notifications have been delivered,
+	// since there will be no more events. This releases resources used by the
+	// remote listeners.
+	private void dropListeners(final String reason) {
+		playerLane.enqueue(new Runnable() {
+			public void run() {
+				synchronized(Match.this) {
+					playerListeners.clear();
+				}
+			}
+		});
+		spectatorLane.enqueue(new Runnable() {
+			public void run() {
+				synchronized(Match.this) {
+					spectatorListeners.clear();
+					relays.clear();
+					relayedSpectators.clear();
+					relayLoads.clear();
+				}
+				logger.fine("Finished fire match " + reason + ", dropped listeners.");
+			}
+		});
 	}
 	
 	protected void fireMatchInfoChanged(final String ticket) {
-		// Fire the event in a thread to avoid deadlocks with the round remote object.
+		// Fire the event in the round lane to avoid deadlocks with the round remote object.
 		final MatchInfo info = new MatchInfo(this);
-		new Thread() {
+		roundLane.enqueue(new Runnable() {
 			public void run() {
 				try {
 					round.fireMatchInfoChanged(ticket, info);
@@ -345,49 +881,33 @@ public abstract class Match extends UnicastRemoteObject implements RemoteMatch {
 					logger.warning("Error during firing of match info for arena listeners.");
 				}
 			}
-		}.start();
+		});
 	}
 	
 	protected void fireMatchStarted() {
-		new MatchNotifierThread(new MatchInfo(this)) {
+		fire(new MatchNotification(new MatchInfo(this)) {
 			public void notify(RemoteMatchListener listener) throws RemoteException {
 				listener.matchStarted(info);
 			}
-		};
+		});
 	}
 	
 	protected void fireMatchEnded() {
-		new MatchNotifierThread(new MatchInfo(this)) {
+		fire(new MatchNotification(new MatchInfo(this)) {
 			public void notify(RemoteMatchListener listener) throws RemoteException {
 				listener.matchEnded(info);
 			}
-			public void run() {
-				// After notifying all listeners about the end of the match, clear
-				// the listeners since there will be no more events. This releases
-				// resources used by the remote listeners.
-				super.run();
-				playerListeners.clear();
-				spectatorListeners.clear();
-				logger.fine("Finished fire match ended, dropped listeners.");
-			}
-		};
+		});
+		dropListeners("ended");
 	}
 	
 	protected void fireMatchTerminated() {
-		new MatchNotifierThread(new MatchInfo(this)) {
+		fire(new MatchNotification(new MatchInfo(this)) {
 			public void notify(RemoteMatchListener listener) throws RemoteException {
 				listener.matchTerminated(info);
 			}
-			public void run() {
-				// After notifying all listeners about the end of the match, clear
-				// the listeners since there will be no more events. This releases
-				// resources used by the remote listeners.
-				super.run();
-				playerListeners.clear();
-				spectatorListeners.clear();
-				logger.fine("Finished fire match terminated, dropped listeners.");
-			}
-		};
+		});
+		dropListeners("terminated");
 	}
 //	public void updateStats(User p, String name, double value) {
 //	}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.server;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import org.globalse.arena.remote.MatchInfo;
+import org.globalse.arena.remote.Move;
+import org.globalse.arena.remote.RemoteMatch;
+import org.globalse.arena.remote.RemoteMatchListener;
+import org.globalse.arena.user.User;
+
+/**
+ * A match journal records the moves and the state of a match running on a game
+ * peer, so that the match can be restored elsewhere if the game peer fails. The
+ * journal lives on the arena server and watches the match as a spectator; its
+ * state is also updated by the round when it is notified of state changes.
+ *
+ * Moves are recorded when they are delivered to spectators, so that the last moves
+ * of a match may be missing from the journal when its game peer fails.
+ *
+ * @see GamePeerManager
+ */
+class MatchJournal extends UnicastRemoteObject implements RemoteMatchListener {
+	
+	private Round round;
+	private User[] players;
+	private List moves = new ArrayList();
+	private String state = RemoteMatch.INITIALIZING;
+	
+	MatchJournal(Round round, User[] players) throws RemoteException {
+		super();
+		this.round = round;
+		this.players = players;
+	}
+	
+	Round getRound() {
+		return round;
+	}
+	
+	User[] getPlayers() {
+		return players;
+	}
+	
+	synchronized Move[] getMoves() {
+		return (Move[])moves.toArray(new Move[moves.size()]);
+	}
+	
+	// Invoked when the journal takes over from the journal of a lost match.
+	synchronized void addMoves(Move[] previousMoves) {
+		for (int i = 0; i < previousMoves.length; i++) {
+			moves.add(i, previousMoves[i]);
+		}
+	}
+	
+	synchronized void stateChanged(String newState) {
+		if (!isOver()) {
+			state = newState;
+		}
+	}
+	
+	synchronized boolean isOpened() {
+		return !state.equals(RemoteMatch.INITIALIZING);
+	}
+	
+	synchronized boolean isOver() {
+		return state.equals(RemoteMatch.FINISHED) || state.equals(RemoteMatch.TERMINATED);
+	}
+	
+	// Stops receiving events, once the match is over or was replaced.
+	void close() {
+		try {
+			unexportObject(this, true);
+		} catch (NoSuchObjectException e) {
+			// Already closed.
+		}
+	}
+	
+	public void matchStarted(MatchInfo match) {
+		stateChanged(match.getState());
+	}
+	
+	public void matchEnded(MatchInfo match) {
+		stateChanged(RemoteMatch.FINISHED);
+	}
+	
+	public void matchTerminated(MatchInfo match) {
+		stateChanged(RemoteMatch.TERMINATED);
+	}
+	
+	synchronized public void movePlayed(MatchInfo match, Move move) {
+		moves.add(move);
+	}
+}
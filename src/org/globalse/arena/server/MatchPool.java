@@ -0,0 +1,240 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.server;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.globalse.arena.remote.RemoteRound;
+import org.globalse.arena.remote.exceptions.InvalidStateException;
+import org.globalse.arena.user.User;
+import org.globalse.arena.util.WorkerPool;
+
+/**
+ * This class keeps, for each poolable game, a bounded number of pre-exported,
+ * unassigned match shells. Creating a match from the pool only binds a shell to
+ * its round and players, so that the cost of exporting the match is not paid
+ * when a round starts. Each time a shell is taken, the pool of its game is
+ * refilled in the background by a single refill thread shared by all match pools
+ * of the virtual machine.
+ *
+ * The pool of a game is filled the first time a match of the game is created,
+ * or earlier if prewarm is invoked. Games which are not poolable are created
+ * with <code>Game.createMatch</code> as usual.
+ *
+ * @see PoolableGame
+ */
+public class MatchPool {
+	
+	private static Logger logger = Logger.getLogger("org.globalse.arena.server");
+	
+	// Default number of shells kept per game
+	public static final int DEFAULT_SIZE = 8;
+	
+	// Thread creating shells for all the match pools of this virtual machine
+	private static WorkerPool refillPool = new WorkerPool("MatchPool", 1);
+	
+	// Number of shells kept per game, 0 to disable pooling
+	private int size;
+	
+	// Lists of shells and refill lanes indexed by game class
+	private Map shells = new HashMap();
+	private Map lanes = new HashMap();
+	
+	// Number of matches created from a shell and without a shell
+	private long numHits = 0;
+	private long numMisses = 0;
+	
+	public MatchPool(int size) {
+		setSize(size);
+	}
+	
+	/**
+	 * Sets the number of shells kept per game. Surplus shells are unexported.
+	 * 0 disables pooling.
+	 */
+	public void setSize(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("Match pool size cannot be negative.");
+		}
+		List surplus = new ArrayList();
+		synchronized(this) {
+			this.size = size;
+			for (Iterator i = shells.values().iterator(); i.hasNext();) {
+				List list = (List)i.next();
+				while (list.size() > size) {
+					surplus.add(list.remove(list.size() - 1));
+				}
+			}
+		}
+		for (Iterator i = surplus.iterator(); i.hasNext();) {
+			unexport((Match)i.next());
+		}
+	}
+	
+	synchronized public int getSize() {
+		return size;
+	}
+	
+	/**
+	 * Returns the number of shells currently available for the specified game.
+	 */
+	synchronized public int getNumShells(Game game) {
+		List list = (List)shells.get(game.getClass());
+		return list == null ? 0 : list.size();
+	}
+	
+	/**
+	 * Returns the number of matches created by binding a pooled shell.
+	 */
+	synchronized public long getNumHits() {
+		return numHits;
+	}
+	
+	/**
+	 * Returns the number of matches of poolable games created while their pool was
+	 * empty.
+	 */
+	synchronized public long getNumMisses() {
+		return numMisses;
+	}
+	
+	/**
+	 * Fills the pool of the specified game in the background.
+	 */
+	public void prewarm(PoolableGame game) {
+		refill(game);
+	}
+	
+	/**
+	 * Creates a match of the specified game for the specified round and players,
+	 * by binding a pooled shell if one is available. The pool of the game is then
+	 * refilled in the background.
+	 *
+	 * @param    game                the game of the match
+	 * @param    round               The round in which the new match will take place
+	 * @param    players             An array of users specifying which players should take part in this match.
+	 *
+	 * @return   the new match
+	 *
+	 * @exception   RemoteException
+	 *
+	 */
+	public Match createMatch(Game game, RemoteRound round, User[] players) throws RemoteException {
+		if (!(game instanceof PoolableGame)) {
+			return game.createMatch(round, players);
+		}
+		Match shell = null;
+		synchronized(this) {
+			if (size == 0) {
+				return game.createMatch(round, players);
+			}
+			List list = (List)shells.get(game.getClass());
+			if (list != null && !list.isEmpty()) {
+				shell = (Match)list.remove(list.size() - 1);
+				numHits++;
+			} else {
+				numMisses++;
+			}
+		}
+		refill((PoolableGame)game);
+		if (shell != null) {
+			try {
+				shell.bind(round, players);
+				return shell;
+			} catch (InvalidStateException e) {
+				logger.warning("BUG: pooled match shell was already bound: " + e.getMessage());
+			}
+		}
+		return game.createMatch(round, players);
+	}
+	
+	private void refill(PoolableGame game) {
+		RefillLane lane = null;
+		synchronized(this) {
+			lane = (RefillLane)lanes.get(game.getClass());
+			if (lane == null) {
+				lane = new RefillLane();
+				lanes.put(game.getClass(), lane);
+				shells.put(game.getClass(), new ArrayList());
+			}
+		}
+		// A single pending refill is enough, as it fills the pool up to its size.
+		if (lane.getDepth() == 0) {
+			lane.enqueue(game);
+		}
+	}
+	
+	// Returns true if the pool of the specified game is not full.
+	synchronized private boolean needsShell(PoolableGame game) {
+		List list = (List)shells.get(game.getClass());
+		return list.size() < size;
+	}
+	
+	// Adds the specified shell to the pool of its game, returns false if the pool
+	// is already full.
+	synchronized private boolean addShell(PoolableGame game, Match shell) {
+		List list = (List)shells.get(game.getClass());
+		if (list.size() >= size) {
+			return false;
+		}
+		list.add(shell);
+		return true;
+	}
+	
+	private void unexport(Match shell) {
+		try {
+			UnicastRemoteObject.unexportObject(shell, true);
+		} catch (NoSuchObjectException e) {}
+	}
+	
+	private class RefillLane extends WorkerPool.Lane {
+		RefillLane() {
+			super(refillPool);
+		}
+		protected void process(Object item) {
+			PoolableGame game = (PoolableGame)item;
+			int numCreated = 0;
+			try {
+				while (needsShell(game)) {
+					Match shell = game.createMatchShell();
+					if (!addShell(game, shell)) {
+						unexport(shell);
+						break;
+					}
+					numCreated++;
+				}
+			} catch (RemoteException e) {
+				logger.log(Level.WARNING, "Failed to create match shell for game " + game.getClass().getName() + ".", e);
+			}
+			if (numCreated > 0) {
+				logger.fine("Added " + numCreated + " match shell(s) to the pool of game " + game.getClass().getName() + ".");
+			}
+		}
+	}
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.server;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Logger;
+import org.globalse.arena.remote.MatchInfo;
+import org.globalse.arena.remote.MatchSnapshot;
+import org.globalse.arena.remote.Move;
+import org.globalse.arena.remote.RemoteMatch;
+import org.globalse.arena.remote.RemoteMatchListener;
+import org.globalse.arena.remote.RemoteMatchRelay;
+import org.globalse.arena.remote.exceptions.AccessDeniedException;
+import org.globalse.arena.remote.exceptions.InvalidTicketException;
+import org.globalse.arena.util.WorkerPool;
+
+/**
+ * This class relays the events of a single match to spectators. A relay registers
+ * itself with the match upon creation, keeps a copy of the moves played so far,
+ * and forwards each event it receives to its spectators. Matches redirect new
+ * spectators to their relays once many spectators watch them directly, so that
+ * the virtual machine running a popular match only notifies its players and a few
+ * relays.
+ *
+ * Relays are either created by a match in its own virtual machine, once the relay
+ * threshold is reached, or created elsewhere and registered with the match. In the
+ * first case, the match only notifies a bounded number of spectators and relays
+ * itself, while the relays notify the other spectators in parallel.
+ *
+ * Each spectator of a relay has its own lane in a pool of sender threads, so that
+ * events are delivered to each spectator in order while a slow spectator does not
+ * delay the others. Spectators whose notification fails are dropped, as are
+ * spectators not returning within the call deadline of matches (see
+ * {@link Match#setCallDeadline}), whose blocked thread is then replaced so that the
+ * other spectators of the pool are not delayed.
+ *
+ * @see RemoteMatchRelay
+ * @see Match#addRelay
+ */
+public class MatchRelay extends UnicastRemoteObject implements RemoteMatchRelay {
+	
+	private static Logger logger = Logger.getLogger("org.globalse.arena.server");
+	
+	// Default number of threads sending events to the spectators of a relay
+	public static final int DEFAULT_NUM_THREADS = 4;
+	
+	private static final int MATCH_STARTED = 0;
+	private static final int MATCH_ENDED = 1;
+	private static final int MATCH_TERMINATED = 2;
+	private static final int MOVE_PLAYED = 3;
+	
+	private RemoteMatch match;
+	
+	// Moves received so far, in the order they were played
+	private List moves = new ArrayList();
+	
+	// True once the match ended or was terminated
+	private boolean over = false;
+	
+	private WorkerPool pool;
+	
+	// Pool of sender threads shared by the relays created by matches
+	private static WorkerPool localPool = new WorkerPool("LocalMatchRelay", DEFAULT_NUM_THREADS);
+	
+	// True if the relay was created by its match, in the same virtual machine
+	private boolean local = false;
+	
+	// Map of spectator lanes indexed by listener
+	private Map spectators = new HashMap();
+	
+	// Lanes currently calling a spectator, checked periodically by the watchdog
+	private static final long WATCHDOG_PERIOD = 1000;
+	private static Set busyLanes = new HashSet();
+	private static Timer watchdog = null;
+	
+	public MatchRelay(String ticket, RemoteMatch match)
+		throws RemoteException, InvalidTicketException, AccessDeniedException {
+		this(ticket, match, DEFAULT_NUM_THREADS);
+	}
+	
+	public MatchRelay(String ticket, RemoteMatch match, int numThreads)
+		throws RemoteException, InvalidTicketException, AccessDeniedException {
+		super();
+		this.match = match;
+		this.pool = new WorkerPool("MatchRelay", numThreads);
+		// Hold the lock while registering, so that events sent by the match before
+		// this call returns are only recorded after the moves played so far.
+		synchronized(this) {
+			Move[] played = match.addRelay(ticket, this);
+			for (int i = 0; i < played.length; i++) {
+				moves.add(played[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Creates a relay for a match of this virtual machine. The match registers the
+	 * relay itself and passes the moves played so far.
+	 */
+	MatchRelay(RemoteMatch match, Move[] played) throws RemoteException {
+		super();
+		this.match = match;
+		this.pool = localPool;
+		this.local = true;
+		for (int i = 0; i < played.length; i++) {
+			moves.add(played[i]);
+		}
+	}
+	
+	public RemoteMatch getMatch() {
+		return match;
+	}
+	
+	public Move[] watch(RemoteMatchListener listener) {
+		return watch(listener, 0).getMoves();
+	}
+	
+	synchronized public MatchSnapshot watch(RemoteMatchListener listener, int fromMoveIndex) {
+		if (!over && spectators.get(listener) == null) {
+			spectators.put(listener, new SpectatorLane(listener));
+		}
+		int from = Math.min(Math.max(fromMoveIndex, 0), moves.size());
+		Move[] missing = (Move[])moves.subList(from, moves.size()).toArray(new Move[moves.size() - from]);
+		return new MatchSnapshot(from, null, missing);
+	}
+	
+	synchronized public void leave(RemoteMatchListener listener) {
+		spectators.remove(listener);
+	}
+	
+	synchronized public int getNumSpectators() {
+		return spectators.size();
+	}
+	
+	public void matchStarted(MatchInfo info) {
+		relay(new RelayedEvent(MATCH_STARTED, info, null));
+	}
+	
+	public void matchEnded(MatchInfo info) {
+		relay(new RelayedEvent(MATCH_ENDED, info, null));
+	}
+	
+	public void matchTerminated(MatchInfo info) {
+		relay(new RelayedEvent(MATCH_TERMINATED, info, null));
+	}
+	
+	public void movePlayed(MatchInfo info, Move move) {
+		relay(new RelayedEvent(MOVE_PLAYED, info, move));
+	}
+	
+	synchronized private void relay(RelayedEvent event) {
+		if (over) {
+			return;
+		}
+		if (event.type == MOVE_PLAYED) {
+			moves.add(event.move);
+		}
+		for (Iterator i = spectators.values().iterator(); i.hasNext();) {
+			((SpectatorLane)i.next()).enqueue(event);
+		}
+		if (event.type == MATCH_ENDED || event.type == MATCH_TERMINATED) {
+			// There will be no more events. The lanes still deliver the events
+			// queued so far.
+			over = true;
+			spectators.clear();
+			if (local) {
+				try {
+					unexportObject(this, true);
+				} catch (RemoteException e) {
+					logger.fine("Relay was already unexported.");
+				}
+			}
+		}
+	}
+	
+	synchronized private void drop(RemoteMatchListener listener, SpectatorLane lane) {
+		if (spectators.get(listener) == lane) {
+			spectators.remove(listener);
+		}
+	}
+	
+	private static class RelayedEvent {
+		private int type;
+		private MatchInfo info;
+		private Move move;
+		RelayedEvent(int type, MatchInfo info, Move move) {
+			this.type = type;
+			this.info = info;
+			this.move = move;
+		}
+		void notify(RemoteMatchListener listener) throws RemoteException {
+			switch (type) {
+				case MATCH_STARTED:
+					listener.matchStarted(info);
+					break;
+				case MATCH_ENDED:
+					listener.matchEnded(info);
+					break;
+				case MATCH_TERMINATED:
+					listener.matchTerminated(info);
+					break;
+				case MOVE_PLAYED:
+					listener.movePlayed(info, move);
+					break;
+			}
+		}
+	}
+	
+	private class SpectatorLane extends WorkerPool.Lane {
+		private RemoteMatchListener listener;
+		private boolean failed = false;
+		// Time the current call started, 0 when no call is running
+		private long callStarted = 0;
+		private boolean stalled = false;
+		SpectatorLane(RemoteMatchListener listener) {
+			super(pool);
+			this.listener = listener;
+		}
+		protected void process(Object item) {
+			synchronized(this) {
+				if (failed) {
+					return;
+				}
+				callStarted = System.currentTimeMillis();
+			}
+			watch(this);
+			try {
+				((RelayedEvent)item).notify(listener);
+			} catch (RemoteException e) {
+				logger.warning("Relaying match event to spectator failed, dropping spectator.");
+				synchronized(this) {
+					failed = true;
+				}
+				clear();
+				drop(listener, this);
+			} finally {
+				boolean wasStalled;
+				synchronized(this) {
+					callStarted = 0;
+					wasStalled = stalled;
+					stalled = false;
+				}
+				unwatch(this);
+				if (wasStalled) {
+					getPool().recovered();
+				}
+			}
+		}
+		
+		// Invoked by the watchdog. If the current call just missed its deadline,
+		// hands its worker over to the pool and drops the spectator.
+		void checkDeadline(long now) {
+			synchronized(this) {
+				if (stalled || callStarted == 0 || now - callStarted < Match.getCallDeadline()) {
+					return;
+				}
+				stalled = true;
+				failed = true;
+			}
+			getPool().stalled();
+			logger.warning("Spectator did not return within " + Match.getCallDeadline() + " ms, dropping spectator.");
+			clear();
+			drop(listener, this);
+		}
+	}
+	
+	private static void watch(SpectatorLane lane) {
+		synchronized(busyLanes) {
+			busyLanes.add(lane);
+			if (watchdog == null) {
+				watchdog = new Timer(true);
+				watchdog.schedule(new TimerTask() {
+							public void run() {
+								checkDeadlines();
+							}
+						}, WATCHDOG_PERIOD, WATCHDOG_PERIOD);
+			}
+		}
+	}
+	
+	private static void unwatch(SpectatorLane lane) {
+		synchronized(busyLanes) {
+			busyLanes.remove(lane);
+		}
+	}
+	
+	private static void checkDeadlines() {
+		SpectatorLane[] lanes;
+		synchronized(busyLanes) {
+			lanes = (SpectatorLane[])busyLanes.toArray(new SpectatorLane[busyLanes.size()]);
+		}
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i].checkDeadline(now);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.server;
+
+/**
+ * This interface is implemented by the strategies the game peer manager uses for
+ * choosing the game peer on which a new match is created. A strategy is only
+ * consulted when at least one game peer has free capacity.
+ *
+ * @see GamePeerManager#setPlacementStrategy
+ */
+public interface PlacementStrategy {
+	
+	/**
+	 * Chooses the game peer on which the next match is created.
+	 *
+	 * @param    candidates          the game peers which are not full, least recently used first; never empty
+	 *
+	 * @return   one of the candidates
+	 *
+	 */
+	public GamePeerStatus choosePeer(GamePeerStatus[] candidates);
+	
+}
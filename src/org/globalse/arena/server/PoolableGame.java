@@ -0,0 +1,52 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.server;
+
+import java.rmi.RemoteException;
+
+/**
+ * A PoolableGame is a game whose matches can be created ahead of time, before
+ * the round and the players of the match are known. Creating and exporting a
+ * match is the expensive part of starting a round; game peers therefore keep a
+ * {@link MatchPool} of unassigned match shells for poolable games and only bind
+ * a shell to its round and players when the match is needed.
+ *
+ * A concrete match supporting pooling provides a constructor creating a shell
+ * (see {@link Match#Match()}) and overrides {@link Match#bind} to initialize
+ * its own state.
+ *
+ * @see MatchPool
+ * @see org.globalse.arena.ttt.TicTacToe
+ */
+public interface PoolableGame extends Game {
+
+	/**
+	 * Creates a new match shell of this game. The shell is exported but is not
+	 * bound to a round until it is taken from the match pool.
+	 *
+	 * @return   the new match shell
+	 *
+	 * @exception   RemoteException
+	 *
+	 */
+	public Match createMatchShell() throws RemoteException;
+	
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.server;
+
+import java.util.Random;
+
+/**
+ * This placement strategy picks two game peers at random and chooses the less loaded
+ * of the two. It spreads matches almost as well as the least loaded strategy, but
+ * does not send all the matches created in a burst to the same game peer when the
+ * load reported by the game peers lags behind.
+ *
+ * @see LeastLoadedPlacement
+ */
+public class PowerOfTwoChoicesPlacement implements PlacementStrategy {
+	
+	private Random random = new Random();
+	
+	public GamePeerStatus choosePeer(GamePeerStatus[] candidates) {
+		if (candidates.length == 1) {
+			return candidates[0];
+		}
+		int first = random.nextInt(candidates.length);
+		int second = random.nextInt(candidates.length - 1);
+		if (second >= first) {
+			second++;
+		}
+		if (LeastLoadedPlacement.compare(candidates[second], candidates[first]) < 0) {
+			return candidates[second];
+		}
+		return candidates[first];
+	}
+}
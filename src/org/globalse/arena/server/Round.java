@@ -27,6 +27,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Logger;
 import org.globalse.arena.remote.MatchInfo;
+import org.globalse.arena.remote.Move;
 import org.globalse.arena.remote.RemoteMatch;
 import org.globalse.arena.remote.RemoteRound;
 import org.globalse.arena.remote.RoundInfo;
@@ -132,6 +133,33 @@ public abstract class Round extends UnicastRemoteObject implements RemoteRound {
 		}
 	}
 	
+	/**
+	 * Replaces a match lost with its game peer by a new match, which is restored
+	 * from the moves of the lost match and opened if the lost match was, so that
+	 * players can join it again. Arena listeners are notified of the new match.
+	 */
+	void replaceMatch(RemoteMatch lostMatch, RemoteMatch newMatch, String matchId, Move[] moves, boolean opened)
+		throws RemoteException, InvalidTicketException, AccessDeniedException, InvalidStateException {
+		String ticket = tournament.getOwnerTicket();
+		synchronized(this) {
+			int index = matches.indexOf(lostMatch);
+			if (index < 0) {
+				matches.add(newMatch);
+			} else {
+				matches.set(index, newMatch);
+			}
+		}
+		// Remote calls are made without holding the lock on this round, since the
+		// new match calls back this round.
+		newMatch.restore(ticket, matchId, moves);
+		if (opened) {
+			// Opening the match notifies the arena listeners through this round.
+			newMatch.open(ticket);
+		} else {
+			Arena.getInstance().getNotifier().fireMatchInfoChanged(tournament, newMatch.getInfo());
+		}
+	}
+	
 	synchronized public User[] getByes() {
 		return (User[])byes.toArray(new User[byes.size()]);
 	}
@@ -159,13 +187,15 @@ public abstract class Round extends UnicastRemoteObject implements RemoteRound {
 		}
 	}
 	
+	// The game peer manager releases the remote match after a grace period.
+	// TODO: save the match history into the server.
 	private void archiveMatch(MatchInfo matchInfo) {
-		// TODO: save the match history into the server and release the
-		// remote match.
+		GamePeerManager.getInstance().archiveMatch(matchInfo);
 	}
 	
 	private void matchEnded(MatchInfo matchInfo) {
 		logger.fine("Round received matchEnded.");
+		GamePeerManager.getInstance().matchFinished(matchInfo.getMatchId());
 		RemoteMatch match = matchInfo.getMatch();
 		if (!completedMatches.contains(match)) {
 			completedMatches.add(match);
@@ -178,13 +208,15 @@ public abstract class Round extends UnicastRemoteObject implements RemoteRound {
 	}
 	
 	private void matchTerminated(MatchInfo matchInfo) {
-		// This is initiated by the tournament, nothing to do.
+		// This is initiated by the tournament, only release the game peer.
+		GamePeerManager.getInstance().matchFinished(matchInfo.getMatchId());
 		archiveMatch(matchInfo);
 	}
 	
 	synchronized public void fireMatchInfoChanged(String ticket, MatchInfo matchInfo) throws RemoteException, InvalidTicketException, AccessDeniedException {
 		logger.fine("Round received match info changed, forwarding to arena listeners.");
 		tournament.checkAccess(ticket, AccessPolicy.MANAGE);
+		GamePeerManager.getInstance().matchInfoChanged(matchInfo);
 		String matchState = matchInfo.getState();
 		if(matchState.equals(RemoteMatch.FINISHED)) {
 			matchEnded(matchInfo);
@@ -42,8 +42,13 @@ import org.globalse.arena.remote.TournamentInfo;
 import org.globalse.arena.remote.exceptions.ArenaException;
 import org.globalse.arena.remote.exceptions.GameAlreadyExistsException;
 import org.globalse.arena.remote.exceptions.GameNotFoundException;
-import org.globalse.arena.user.DefaultAccessPolicy;
+import org.globalse.arena.remote.exceptions.UserAlreadyExistsException;
+import org.globalse.arena.user.AccessPolicy;
+import org.globalse.arena.user.CompiledAccessPolicy;
+import org.globalse.arena.user.FileUserStore;
+import org.globalse.arena.user.PasswordHasher;
 import org.globalse.arena.user.User;
+import org.globalse.arena.user.UserStore;
 import org.globalse.arena.util.PropertyLoader;
 
 /**
@@ -56,6 +61,38 @@ import org.globalse.arena.util.PropertyLoader;
  *   <LI><code>TournamentStyles</code> (no default) A space-separated list of fully qualified class names of tournament styles to be loaded into this arena.</LI>
  *   <LI><code>Games</code> (no default)            A space-separated list of fully qualified class names of games to be loaded into this arena.</LI>
  *   <LI><code>SetupDemo</code> (default false)     A flag specifying whether test users, leagues, tournaments, and matches should be created.</LI>
+ *   <LI><code>AccessPolicy</code> (default org.globalse.arena.user.CompiledAccessPolicy) The fully qualified class name of the access policy authorizing users.</LI>
+ *   <LI><code>UserStoreDirectory</code> (no default) The directory in which users and passwords are stored, so that they are kept across restarts. Users are only kept in memory if not set.</LI>
+ *   <LI><code>PasswordHashIterations</code> (default 10000) The number of PBKDF2 iterations of password hashes. Passwords hashed with fewer iterations are hashed again on login.</LI>
+ *   <LI><code>PasswordHashThreads</code> (default 2) The number of threads checking passwords on login.</LI>
+ *   <LI><code>MaxPendingLogins</code> (default 64) The number of logins being checked above which new logins are rejected.</LI>
+ *   <LI><code>SessionTimeout</code> (default 0)    The time in milliseconds after which a session expires, counted from login, 0 for no timeout.</LI>
+ *   <LI><code>SessionIdleTimeout</code> (default 0) The time in milliseconds after which an unused session expires, 0 for no timeout.</LI>
+ *   <LI><code>NotifierThreads</code> (default 4)   The number of threads delivering events to arena listeners, shared by all games.</LI>
+ *   <LI><code>NotifierSenders</code> (default 8)   The number of threads sending events to the outbound queues of arena listeners.</LI>
+ *   <LI><code>ListenerQueueCapacity</code> (default 256) The maximum number of events waiting for a single arena listener.</LI>
+ *   <LI><code>ListenerOverflowPolicy</code> (default coalesce) What to do when the queue of an arena listener is full: drop-oldest, coalesce, or evict. Listeners accepting batches are always evicted, as they can resume from their last event.</LI>
+ *   <LI><code>ListenerCallDeadline</code> (default 10000) The time in milliseconds an arena listener is given to return from a call before it is evicted.</LI>
+ *   <LI><code>ListenerBatchSize</code> (default 32) The maximum number of events sent in one call to an arena listener accepting batches.</LI>
+ *   <LI><code>ListenerBatchWindow</code> (default 20) The time in milliseconds events are collected before a batch is sent.</LI>
+ *   <LI><code>NotifierHistorySize</code> (default 1024) The number of recent events kept per game for listeners resuming after a disconnection.</LI>
+ *   <LI><code>NotifierStatisticsPeriod</code> (default 0) The period in milliseconds at which the queue depth, dispatch latency, and coalesced and dropped events of the notifier are logged, 0 to disable the report.</LI>
+ *   <LI><code>MatchNotifierThreads</code> (default 4) The number of threads delivering the events of the matches created by the arena to players, and the number of threads delivering them to spectators.</LI>
+ *   <LI><code>MatchCallDeadline</code> (default 10000) The time in milliseconds a match listener is given to return from a call before its thread is replaced. Spectators missing the deadline are removed from the match, players are not.</LI>
+ *   <LI><code>MatchRelayThreshold</code> (default 50) The number of spectators watching a match directly before new spectators are redirected to the relays of the match.</LI>
+ *   <LI><code>MatchMaxRelays</code> (default 8) The maximum number of relays a match creates once the relay threshold is reached, each serving up to the threshold of spectators. 0 disables relays.</LI>
+ *   <LI><code>GamePeerPlacement</code> (default least-loaded) How game peers are chosen for new matches: least-loaded, weighted-capacity, or power-of-two-choices.</LI>
+ *   <LI><code>GamePeerMaxMatches</code> (default 0) The maximum number of active matches created on a single game peer, 0 for no limit. Game peers can set a lower limit.</LI>
+ *   <LI><code>GamePeerQueueTimeout</code> (default 10000) The time in milliseconds match creation waits for capacity when all game peers are full, before creating the match locally.</LI>
+ *   <LI><code>GamePeerLoadPeriod</code> (default 5000) The period in milliseconds at which game peers are sent a heartbeat polling their load.</LI>
+ *   <LI><code>GamePeerCallThreads</code> (default 8) The number of threads creating the matches of a round on different game peers in parallel.</LI>
+ *   <LI><code>GamePeerFailureLimit</code> (default 3) The number of consecutive failed calls after which a game peer is evicted.</LI>
+ *   <LI><code>GamePeerLatencyLimit</code> (default 2000) The average heartbeat round trip in milliseconds above which a game peer is evicted.</LI>
+ *   <LI><code>GamePeerBackoff</code> (default 10000) The time in milliseconds before an evicted game peer is tried again, doubled at each eviction.</LI>
+ *   <LI><code>GamePeerMaxBackoff</code> (default 300000) The backoff in milliseconds above which an evicted game peer is forgotten.</LI>
+ *   <LI><code>GamePeerPlacementAttempts</code> (default 3) The number of attempts at creating a match on game peers before creating it locally.</LI>
+ *   <LI><code>MatchReleaseDelay</code> (default 60000) The time in milliseconds a match which is over is kept before it is released and archived.</LI>
+ *   <LI><code>MatchArchiveSize</code> (default 10000) The maximum number of archived matches.</LI>
  * </UL>
  * <P>In addition, this class will use the properties file to initialize the loggers. See the
  * documentation on java.util.logging for information about logging properties.</P>
@@ -114,13 +151,26 @@ public class StartArena {
 		try {
 			Arena.init();
 			arena = Arena.getInstance();
-			// TODO: Use properties to determine the class name of the access policy.
-			arena.setAccessPolicy(new DefaultAccessPolicy());
+			initAccessPolicy(propertyLoader);
+			initUserStore(propertyLoader);
+			arena.setPasswordHashing(propertyLoader.getIntProperty("PasswordHashIterations", PasswordHasher.DEFAULT_ITERATIONS),
+									 propertyLoader.getIntProperty("PasswordHashThreads", PasswordHasher.DEFAULT_NUM_THREADS),
+									 propertyLoader.getIntProperty("MaxPendingLogins", PasswordHasher.DEFAULT_MAX_PENDING));
 			// set the admnistrator
 			String operatorName = propertyLoader.getStringProperty("Operator", "admin");
 			String operatorPassword = propertyLoader.getStringProperty("OperatorPassword", "adminpass");
-			User operator = arena.createUser(operatorName, operatorPassword);
+			User operator = createUser(operatorName, operatorPassword);
 			arena.setOperator(operator);
+			arena.setSessionTimeouts(propertyLoader.getIntProperty("SessionTimeout", 0),
+									 propertyLoader.getIntProperty("SessionIdleTimeout", 0));
+			int notifierThreads = propertyLoader.getIntProperty("NotifierThreads", ArenaNotifier.DEFAULT_NUM_THREADS);
+			arena.getNotifier().setNumThreads(notifierThreads);
+			initNotifierChannels(propertyLoader);
+			Match.setNumNotifierThreads(propertyLoader.getIntProperty("MatchNotifierThreads", Match.DEFAULT_NUM_NOTIFIER_THREADS));
+			Match.setCallDeadline(propertyLoader.getIntProperty("MatchCallDeadline", (int)Match.DEFAULT_CALL_DEADLINE));
+			Match.setRelayThreshold(propertyLoader.getIntProperty("MatchRelayThreshold", Match.DEFAULT_RELAY_THRESHOLD));
+			Match.setMaxRelays(propertyLoader.getIntProperty("MatchMaxRelays", Match.DEFAULT_MAX_RELAYS));
+			initGamePeerManager(propertyLoader);
 			int serverPort = propertyLoader.getIntProperty("ArenaPort", 1099);
 			LocateRegistry.createRegistry(serverPort);
 			tellUser("Registering arena on port " + serverPort + " ...");
@@ -132,6 +182,72 @@ public class StartArena {
 		}
 	}
 	
+	private static void initUserStore(PropertyLoader propertyLoader) throws IOException {
+		String directory = propertyLoader.getStringProperty("UserStoreDirectory", null);
+		if (directory == null) {
+			return;
+		}
+		final UserStore store = new FileUserStore(new File(directory));
+		arena.setUserStore(store);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+					public void run() {
+						try {
+							store.close();
+						} catch (IOException e) {
+							tellUser("Failed to close user store: " + e.getMessage());
+						}
+					}
+				});
+	}
+	
+	// Creates a user, or checks its password if the user was kept in the user
+	// store since a previous run.
+	private static User createUser(String username, String password) throws ArenaException, RemoteException {
+		try {
+			return arena.createUser(username, password);
+		} catch (UserAlreadyExistsException e) {
+			return arena.getUser(arena.login(username, password));
+		}
+	}
+	
+	private static void initGamePeerManager(PropertyLoader propertyLoader) {
+		GamePeerManager manager = GamePeerManager.getInstance();
+		manager.setPlacementStrategy(propertyLoader.getStringProperty("GamePeerPlacement", GamePeerManager.LEAST_LOADED));
+		manager.setMaxMatches(propertyLoader.getIntProperty("GamePeerMaxMatches", GamePeerManager.DEFAULT_MAX_MATCHES));
+		manager.setQueueTimeout(propertyLoader.getIntProperty("GamePeerQueueTimeout", (int)GamePeerManager.DEFAULT_QUEUE_TIMEOUT));
+		manager.setLoadPeriod(propertyLoader.getIntProperty("GamePeerLoadPeriod", (int)GamePeerManager.DEFAULT_LOAD_PERIOD));
+		manager.setNumCallThreads(propertyLoader.getIntProperty("GamePeerCallThreads", GamePeerManager.DEFAULT_NUM_CALL_THREADS));
+		manager.setHealthLimits(propertyLoader.getIntProperty("GamePeerFailureLimit", GamePeerManager.DEFAULT_FAILURE_LIMIT),
+								propertyLoader.getIntProperty("GamePeerLatencyLimit", (int)GamePeerManager.DEFAULT_LATENCY_LIMIT));
+		manager.setBackoff(propertyLoader.getIntProperty("GamePeerBackoff", (int)GamePeerManager.DEFAULT_BACKOFF),
+						   propertyLoader.getIntProperty("GamePeerMaxBackoff", (int)GamePeerManager.DEFAULT_MAX_BACKOFF));
+		manager.setPlacementAttempts(propertyLoader.getIntProperty("GamePeerPlacementAttempts", GamePeerManager.DEFAULT_PLACEMENT_ATTEMPTS));
+		manager.setReleaseDelay(propertyLoader.getIntProperty("MatchReleaseDelay", (int)GamePeerManager.DEFAULT_RELEASE_DELAY));
+		manager.setArchiveSize(propertyLoader.getIntProperty("MatchArchiveSize", GamePeerManager.DEFAULT_ARCHIVE_SIZE));
+	}
+	
+	private static void initNotifierChannels(PropertyLoader propertyLoader) {
+		ArenaNotifier notifier = arena.getNotifier();
+		notifier.setNumSenders(propertyLoader.getIntProperty("NotifierSenders", ArenaNotifier.DEFAULT_NUM_SENDERS));
+		notifier.setListenerQueueCapacity(propertyLoader.getIntProperty("ListenerQueueCapacity", ArenaNotifier.DEFAULT_QUEUE_CAPACITY));
+		notifier.setOverflowPolicy(propertyLoader.getStringProperty("ListenerOverflowPolicy", ArenaNotifier.COALESCE));
+		notifier.setCallDeadline(propertyLoader.getIntProperty("ListenerCallDeadline", (int)ArenaNotifier.DEFAULT_CALL_DEADLINE));
+		notifier.setListenerBatchSize(propertyLoader.getIntProperty("ListenerBatchSize", ArenaNotifier.DEFAULT_BATCH_SIZE));
+		notifier.setListenerBatchWindow(propertyLoader.getIntProperty("ListenerBatchWindow", (int)ArenaNotifier.DEFAULT_BATCH_WINDOW));
+		notifier.setHistorySize(propertyLoader.getIntProperty("NotifierHistorySize", ArenaNotifier.DEFAULT_HISTORY_SIZE));
+		notifier.setStatisticsPeriod(propertyLoader.getIntProperty("NotifierStatisticsPeriod", (int)ArenaNotifier.DEFAULT_STATISTICS_PERIOD));
+	}
+	
+	private static void initAccessPolicy(PropertyLoader propertyLoader) {
+		String className = propertyLoader.getStringProperty("AccessPolicy", CompiledAccessPolicy.class.getName());
+		try {
+			arena.setAccessPolicy((AccessPolicy)Class.forName(className).newInstance());
+		} catch (Exception e) {
+			tellUser("Could not create access policy \"" + className + "\" (" + e + "), using the default access policy.");
+			arena.setAccessPolicy(new CompiledAccessPolicy());
+		}
+	}
+	
 	private static Object getInstanceOfClass(String className) throws ClassNotFoundException, NoSuchMethodException, InvocationTargetException, SecurityException, IllegalAccessException, IllegalArgumentException, MalformedURLException {
 		Class result = null;
 		try {
@@ -232,12 +348,12 @@ public class StartArena {
 		User alice = null, joe = null, mike = null, mark = null, mary = null, bob = null;
 		try {
 			// Create demo users
-			alice = arena.createUser("alice", "alicepass");
-			joe = arena.createUser("joe", "joepass");
-			mike = arena.createUser("mike", "mikepass");
-			mark = arena.createUser("mark", "markpass");
-			mary = arena.createUser("mary", "marypass");
-			bob = arena.createUser("bob", "bobpass");
+			alice = createUser("alice", "alicepass");
+			joe = createUser("joe", "joepass");
+			mike = createUser("mike", "mikepass");
+			mark = createUser("mark", "markpass");
+			mary = createUser("mary", "marypass");
+			bob = createUser("bob", "bobpass");
 			
 		} catch (Exception e) {
 			tellUser("Failed to create demo users.");
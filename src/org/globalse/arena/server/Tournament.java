@@ -49,6 +49,16 @@ public class Tournament extends UnicastRemoteObject implements RemoteTournament
     private String state = INITIALIZING;
 	private String ownerTicket;
 	
+	// True while the session of the owner ticket is retained, i.e., from launch
+	// until the tournament is over
+	private boolean ownerTicketRetained = false;
+	
+	// Incremented whenever a change affects who can access this tournament
+	private volatile long version = 0;
+	
+	// Access decisions cached by the access policy
+	private volatile Object accessTable = null;
+	
     // Associations
     private League league = null;
 	private List interestedPlayers = new ArrayList();
@@ -81,6 +91,11 @@ public class Tournament extends UnicastRemoteObject implements RemoteTournament
 												+ " is not allowed to " + access + " this tournament.");
 		}
 	}
+	
+	// Ticket of the user who launched the tournament, used for opening rounds.
+	synchronized String getOwnerTicket() {
+		return ownerTicket;
+	}
     
 	synchronized public TournamentInfo getInfo() {
 		return new TournamentInfo(this);
@@ -120,11 +135,13 @@ public class Tournament extends UnicastRemoteObject implements RemoteTournament
 	synchronized public void facilitate(String ticket) throws RemoteException, InvalidTicketException, AccessDeniedException {
 		checkAccess(ticket, AccessPolicy.MANAGE);
 		facilitated = true;
+		version++;
 	}
 	
 	synchronized public void unfaciltiate(String ticket) throws RemoteException, InvalidTicketException, AccessDeniedException {
 		checkAccess(ticket, AccessPolicy.MANAGE);
 		facilitated = false;
+		version++;
 	}
 	
 	synchronized public boolean isFacilitated() {
@@ -140,7 +157,7 @@ public class Tournament extends UnicastRemoteObject implements RemoteTournament
 		if (!state.equals(INITIALIZING) && !state.equals(REGISTRATIONFINISHED)) {
 			throw new InvalidStateException("Can only open registration during initialization or before launch.");
 		}
-		state = REGISTRATION;
+		setState(REGISTRATION);
 		logger.info("Tournament registration opened.");
     }
 	
@@ -204,6 +221,7 @@ public class Tournament extends UnicastRemoteObject implements RemoteTournament
 				throw new TournamentOverbookedException("Tournament overbooked, " + acceptedPlayers.size() + " players have already been accepted.");
 			}
 			acceptedPlayers.add(player);
+			version++;
 			interestedPlayers.remove(player);
 			Arena.getInstance().getNotifier().fireTournamentInfoChanged(this);
 		}
@@ -217,6 +235,7 @@ public class Tournament extends UnicastRemoteObject implements RemoteTournament
 		}
 		if (acceptedPlayers.contains(player)) {
 			acceptedPlayers.remove(player);
+			version++;
 			interestedPlayers.add(player);
 			Arena.getInstance().getNotifier().fireTournamentInfoChanged(this);
 		}
@@ -228,7 +247,7 @@ public class Tournament extends UnicastRemoteObject implements RemoteTournament
 		if (!state.equals(REGISTRATION)) {
 			throw new InvalidStateException("Can only close registration during registration.");
 		}
-		state = REGISTRATIONFINISHED;
+		setState(REGISTRATIONFINISHED);
 		logger.info("Tournament registration closed.");
 		Arena.getInstance().getNotifier().fireTournamentInfoChanged(this);
 	}
@@ -248,10 +267,23 @@ public class Tournament extends UnicastRemoteObject implements RemoteTournament
 			throw new InvalidNumPlayersException(styleName +
 													 " cannot deal with the current number of acceplated players (" + acceptedPlayers.size() + ").");
 		}
-		Round round = style.planRounds(this);
-		state = PLAYING;
-		Arena.getInstance().getNotifier().fireTournamentInfoChanged(this);
-		round.open(ticket);
+		Arena.getInstance().retainTicket(ticket);
+		ownerTicketRetained = true;
+		boolean launched = false;
+		try {
+			Round round = style.planRounds(this);
+			setState(PLAYING);
+			Arena.getInstance().getNotifier().fireTournamentInfoChanged(this);
+			round.open(ticket);
+			launched = true;
+		} finally {
+			// A tournament which failed to launch never finishes, so its owner
+			// session must not be kept alive.
+			if (!launched && ownerTicketRetained) {
+				ownerTicketRetained = false;
+				Arena.getInstance().releaseTicket(ticket);
+			}
+		}
 		logger.info("Tournament launched.");
 	}
 	
@@ -261,12 +293,12 @@ public class Tournament extends UnicastRemoteObject implements RemoteTournament
 			throw new InvalidStateException("Can only plan next round when previous round is completed.");
 		}
 		if (style.isTournamentFinished(this)) {
-			state = FINISHED;
+			setState(FINISHED);
 			Arena.getInstance().getNotifier().fireTournamentInfoChanged(this);
 		} else {
 			Round nextRound = getCurrentRound().getNextRound();
 			nextRound.plan();
-			state = PLAYING;
+			setState(PLAYING);
 			Arena.getInstance().getNotifier().fireRoundCreated(nextRound);
 			if (!facilitated) {
 				try {
@@ -287,7 +319,7 @@ public class Tournament extends UnicastRemoteObject implements RemoteTournament
 		getCurrentRound().terminate(ticket);
 		roundCompleted(getCurrentRound());
 		// TODO: check if this is sufficient
-		state = TERMINATED;
+		setState(TERMINATED);
 		Arena.getInstance().getNotifier().fireTournamentInfoChanged(this);
 		logger.info("Tournament terminated.");
 	}
@@ -296,11 +328,42 @@ public class Tournament extends UnicastRemoteObject implements RemoteTournament
 		return state;
 	}
 	
+	private void setState(String state) {
+		this.state = state;
+		version++;
+		if (ownerTicketRetained && (state.equals(FINISHED) || state.equals(TERMINATED))) {
+			ownerTicketRetained = false;
+			Arena.getInstance().releaseTicket(ownerTicket);
+		}
+	}
+	
+	/**
+	 * Returns a counter that is incremented whenever the state, the accepted players,
+	 * or the facilitation of this tournament change. Callers caching access decisions
+	 * compare versions to detect that their cache is stale.
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Returns the access decisions an access policy attached to this tournament,
+	 * or null if none were attached. The access table is opaque to the tournament
+	 * and is accessed without locking.
+	 */
+	public Object getAccessTable() {
+		return accessTable;
+	}
+	
+	public void setAccessTable(Object accessTable) {
+		this.accessTable = accessTable;
+	}
+	
 	synchronized public void roundCompleted(Round round) {
 		TournamentStyle style = league.getTournamentStyle();
-		state = ROUNDFINISHED;
+		setState(ROUNDFINISHED);
 		if (style.isTournamentFinished(this)) {
-			state = FINISHED;
+			setState(FINISHED);
 			Arena.getInstance().getNotifier().fireTournamentInfoChanged(this);
 		} else {
 			if (!facilitated) {
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.server;
+
+/**
+ * This placement strategy distributes matches in proportion to the capacity of the
+ * game peers, that is, their maximum number of active matches. It chooses the game
+ * peer which is the least full once the new match is created. Game peers without a
+ * limit are considered as large as the largest game peer with a limit.
+ */
+public class WeightedCapacityPlacement implements PlacementStrategy {
+	
+	public GamePeerStatus choosePeer(GamePeerStatus[] candidates) {
+		int largest = 1;
+		for (int i = 0; i < candidates.length; i++) {
+			largest = Math.max(largest, candidates[i].getMaxMatches());
+		}
+		GamePeerStatus result = null;
+		double lowest = 0;
+		for (int i = 0; i < candidates.length; i++) {
+			int capacity = candidates[i].getMaxMatches();
+			if (capacity == 0) {
+				capacity = largest;
+			}
+			double usage = (double)(candidates[i].getNumMatches() + 1) / capacity;
+			if (result == null || usage < lowest) {
+				result = candidates[i];
+				lowest = usage;
+			}
+		}
+		return result;
+	}
+}
@@ -167,21 +167,36 @@ public class KnockOutStyle implements TournamentStyle {
 				players = getTournament().getAcceptedPlayers();
 			}
 			// Assign the winners to matches
+			List pairings = new ArrayList();
 			List matchPlayers = new ArrayList();
 			for (int i = 0; i < players.length; i++) {
 				matchPlayers.add(players[i]);
 				if (matchPlayers.size() == game.getMaxPlayersPerMatch()) {
-					addMatch(GamePeerManager.getInstance().createMatch(this, (User[])matchPlayers.toArray(new User[matchPlayers.size()])));
+					pairings.add(matchPlayers.toArray(new User[matchPlayers.size()]));
 					matchPlayers.clear();
 				}
 			}
 			if (matchPlayers.size() >= game.getMinPlayersPerMatch()) {
-				addMatch(GamePeerManager.getInstance().createMatch(this, (User[])matchPlayers.toArray(new User[matchPlayers.size()])));
+				pairings.add(matchPlayers.toArray(new User[matchPlayers.size()]));
 			} else if (matchPlayers.size() > 0) {
 				for (Iterator i = matchPlayers.iterator(); i.hasNext();) {
 					addBye((User)i.next());
 				}
 			}
+			// Create all the matches at once, so that they are created in parallel
+			RemoteMatch [] matches = GamePeerManager.getInstance().createMatches(this, (User[][])pairings.toArray(new User[pairings.size()][]));
+			for (int i = 0; i < matches.length; i++) {
+				if (matches[i] == null) {
+					// The match could not be created, even locally: its players
+					// advance to the next round.
+					User[] unplaced = (User[])pairings.get(i);
+					for (int j = 0; j < unplaced.length; j++) {
+						addBye(unplaced[j]);
+					}
+				} else {
+					addMatch(matches[i]);
+				}
+			}
 			setPlanned();
 		}
 	}
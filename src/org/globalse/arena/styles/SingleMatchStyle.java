@@ -57,6 +57,9 @@ public class SingleMatchStyle implements TournamentStyle {
     public Round planRounds(Tournament tournament) throws RemoteException {
 		Round round = new SingleRound(tournament);
 		RemoteMatch match = GamePeerManager.getInstance().createMatch(round, tournament.getAcceptedPlayers());
+		if (match == null) {
+			throw new RemoteException("Failed to create the match of the tournament.");
+		}
 		round.addMatch(match);
 		round.plan();
 		return round;
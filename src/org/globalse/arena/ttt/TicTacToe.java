@@ -26,13 +26,15 @@ import java.util.logging.Logger;
 import org.globalse.arena.remote.RemoteRound;
 import org.globalse.arena.server.Game;
 import org.globalse.arena.server.Match;
+import org.globalse.arena.server.PoolableGame;
 import org.globalse.arena.server.Statistics;
 import org.globalse.arena.user.User;
 
 /**
  * This class is a concrete game class for the classic two-player tic tac toe game.
  * It provides factory methods for creating tic tac toe matches and tic tac toe
- * statistics. Tic tac toe matches involve exactly two players.
+ * statistics. Tic tac toe matches involve exactly two players. Tic tac toe
+ * matches can be pooled by game peers.
  *
  * @see TicTacToeMatch
  * @see TicTacToeStatistics
@@ -40,7 +42,7 @@ import org.globalse.arena.user.User;
  * @author Allen Dutoit
  * @author Michael Nagel
  */
-public class TicTacToe implements Game {
+public class TicTacToe implements PoolableGame {
 
 	private static Logger logger = Logger.getLogger("org.globalse.arena.ttt");
 	
@@ -54,6 +56,10 @@ public class TicTacToe implements Game {
 		logger.info("Creating tic tac toe match.");
 		return new TicTacToeMatch(round, players);
 	}
+	
+	public Match createMatchShell() throws RemoteException {
+		return new TicTacToeMatch();
+	}
 
     public int getMinPlayersPerMatch() {
         return 2;
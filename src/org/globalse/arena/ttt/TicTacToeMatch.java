@@ -64,19 +64,44 @@ public class TicTacToeMatch extends Match {
     TicTacToeMatch(RemoteRound round, User[] players) throws RemoteException {
 		super(round, players);
 		this.players = players;
+		clearBoard();
+		logger.info("Successfully created tic tac toe match.");
+    }
+	
+	// Creates a match shell, bound to its round and players by bind.
+    TicTacToeMatch() throws RemoteException {
+		super();
+		clearBoard();
+    }
+	
+	synchronized protected void bind(RemoteRound round, User[] players) throws InvalidStateException {
+		super.bind(round, players);
+		this.players = players;
+		logger.info("Successfully bound tic tac toe match.");
+	}
+	
+	private void clearBoard() {
 		this.turn = 0;
 		for (int i = 0; i < 3; i++) {
 			for (int j = 0; j < 3; j++) {
 				board[i][j] = EMPTY;
 			}
 		}
-		logger.info("Successfully created tic tac toe match.");
-    }
+	}
 	
 	synchronized protected Move[] getMoves() {
 		return (Move[])moves.toArray(new Move[moves.size()]);
 	}
 	
+	synchronized protected Move[] getMoves(int fromIndex) {
+		List missing = moves.subList(fromIndex, moves.size());
+		return (Move[])missing.toArray(new Move[missing.size()]);
+	}
+	
+	synchronized protected int getNumMoves() {
+		return moves.size();
+	}
+	
     private void setWinner(int winner) {
 		if (this.winner == NONE) {
 			this.winner = winner;
@@ -124,11 +149,11 @@ public class TicTacToeMatch extends Match {
 	}
 	
 	private void fireMovePlayed(TicTacToeMove move) {
-		new MatchNotifierThread(new MatchInfo(this), move) {
+		fire(new MatchNotification(new MatchInfo(this), move) {
 			public void notify(RemoteMatchListener listener) throws RemoteException {
 				listener.movePlayed(info, move);
 			}
-		};
+		});
 	}
 	
 	synchronized public void playMove(String matchTicket, Move m)
@@ -159,6 +184,13 @@ public class TicTacToeMatch extends Match {
 		nextTurn();
 	}
 	
+	synchronized protected void replayMove(Move m) {
+		TicTacToeMove move = (TicTacToeMove)m;
+		board[move.getX()][move.getY()] = turn;
+		moves.add(move);
+		nextTurn();
+	}
+	
 	synchronized public void leave(RemoteMatchListener listener) {
 		super.leave(listener);
 		if (getState().equals(PLAYING)) {
@@ -35,7 +35,9 @@ import javax.swing.event.AncestorListener;
 import org.globalse.arena.matchfrontend.LocalMatchListener;
 import org.globalse.arena.matchfrontend.MatchFrontEnd;
 import org.globalse.arena.matchfrontend.MatchListenerAdapter;
+import org.globalse.arena.matchfrontend.MatchRelocationListener;
 import org.globalse.arena.remote.MatchInfo;
+import org.globalse.arena.remote.MatchSnapshot;
 import org.globalse.arena.remote.Move;
 import org.globalse.arena.remote.RemoteArena;
 import org.globalse.arena.remote.RemoteLogger;
@@ -46,7 +48,7 @@ import org.globalse.arena.remote.exceptions.InvalidTicketException;
 import org.globalse.arena.ttt.TicTacToeMove;
 import org.globalse.arena.user.User;
 
-public class TicTacToeMatchPanel extends JPanel implements LocalMatchListener, AncestorListener {
+public class TicTacToeMatchPanel extends JPanel implements LocalMatchListener, MatchRelocationListener, AncestorListener {
 	
 	public static final int STATE_DISCONNECT = -2;
     public static final int STATE_INITIALIZING = -1;
@@ -64,6 +66,7 @@ public class TicTacToeMatchPanel extends JPanel implements LocalMatchListener, A
 	private int state = STATE_INITIALIZING;
 	private boolean playing = false;
 	private long[][] board;
+	private int numMoves;
 	private MatchInfo matchInfo;
 	private String matchTicket;
 	private MatchListenerAdapter adapter;
@@ -89,6 +92,7 @@ public class TicTacToeMatchPanel extends JPanel implements LocalMatchListener, A
 		for (int i = 0; i < 3; i++)
 			for (int j = 0; j < 3; j++)
 				this.board[i][j] = EMPTY;
+		this.numMoves = 0;
 		
 		try {
 			logger.log(Level.INFO, "TicTacToeMatchPanel", "Establishing TTT specific connection to match...");
@@ -251,10 +255,21 @@ public class TicTacToeMatchPanel extends JPanel implements LocalMatchListener, A
 	synchronized public void matchOpened(MatchInfo match) {
 	}
 	
+	// Returns true if the first player is to play, i.e., if both players played
+	// the same number of moves. This is not the case when a restored match starts.
+	private boolean isFirstPlayersTurn() {
+		int numMoves = 0;
+		for (int i = 0; i < 3; i++)
+			for (int j = 0; j < 3; j++)
+				if (board[i][j] != EMPTY)
+					numMoves++;
+		return numMoves % 2 == 0;
+	}
+	
 	synchronized public void matchStarted(MatchInfo match) {
 		if (!playing) {
 			setState(STATE_WAIT);
-		} else if (hasFirstTurn(user.getId())) {
+		} else if (hasFirstTurn(user.getId()) == isFirstPlayersTurn()) {
 			setState(STATE_MOVE);
 		} else {
 			setState(STATE_WAIT);
@@ -287,6 +302,7 @@ public class TicTacToeMatchPanel extends JPanel implements LocalMatchListener, A
 		logger.log(Level.INFO, "TicTacToeMatchPanel", "Received TTT_MOVE.");
 		TicTacToeMove move = (TicTacToeMove)m;
 		board[move.getX()][move.getY()] = move.getPlayer().getId();
+		numMoves++;
 		if (playing) {
 			if (user.equals(move.getPlayer())) {
 				setState(STATE_WAIT);
@@ -298,6 +314,30 @@ public class TicTacToeMatchPanel extends JPanel implements LocalMatchListener, A
 		}
 	}
 	
+	synchronized public void matchRelocated(MatchInfo matchInfo) {
+		this.matchInfo = matchInfo;
+		RemoteMatch match = matchInfo.getMatch();
+		try {
+			logger.log(Level.INFO, "TicTacToeMatchPanel", "Reconnecting to restored match...");
+			if (playing) {
+				this.matchTicket = match.join(MatchFrontEnd.getTicket(), adapter);
+				setState(STATE_INITIALIZING);
+			} else {
+				// The board already holds the moves received before the relocation,
+				// only apply the moves played since.
+				MatchSnapshot snapshot = match.watch(adapter, numMoves);
+				Move [] moves = snapshot.getMoves();
+				for (int i = numMoves - snapshot.getFirstMoveIndex(); i < moves.length; i++) {
+					movePlayed(matchInfo, moves[i]);
+				}
+			}
+			logger.log(Level.INFO, "TicTacToeMatchPanel", "... reconnected to restored match.");
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "TicTacToeMatchPanel", "Encountered exception while reconnecting to restored match: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+	
 	public void ancestorAdded(AncestorEvent e) {
 	}
 	
@@ -20,6 +20,7 @@
  */
 package org.globalse.arena.user;
 
+import java.util.BitSet;
 import org.globalse.arena.server.League;
 import org.globalse.arena.server.Tournament;
 import org.globalse.arena.remote.MatchInfo;
@@ -33,6 +34,11 @@ import org.globalse.arena.remote.MatchInfo;
  * The access policy for matches is specified by the Match class and
  * cannot be changed.
  *
+ * Lists and event fan-outs authorize many pairs of users and instances at
+ * once. The bulk methods return a bit set in which bit i is set if access is
+ * granted for the i-th element of the array passed in, so that implementations
+ * can answer with set operations instead of one decision per pair.
+ *
  * @author Allen Dutoit
  */
 public interface AccessPolicy {
@@ -47,5 +53,13 @@ public interface AccessPolicy {
 	
 	public boolean hasTournamentAccess(User user, Tournament entity, String access);
 	
+	public BitSet getLeagueAccess(User user, League[] entities, String access);
+	
+	public BitSet getLeagueAccess(User[] users, League entity, String access);
+	
+	public BitSet getTournamentAccess(User user, Tournament[] entities, String access);
+	
+	public BitSet getTournamentAccess(User[] users, Tournament entity, String access);
+	
 }
 
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.user;
+
+/**
+ * This class holds the access decisions compiled by a CompiledAccessPolicy for a
+ * single league or tournament. Decisions are stored as a few permission bits per
+ * user id, in an open addressing table of the users the league or tournament knows
+ * of (e.g., its owner and its players). All other users share the same default
+ * bits. Tables are never modified once built, so that they can be read without
+ * locking; a new table is built when the versions it was built from are stale.
+ *
+ * @see CompiledAccessPolicy
+ */
+class AccessTable {
+	
+	private final long[] ids;
+	private final int[] bits;
+	private final int mask;
+	private final int defaultBits;
+	
+	// Bits granted to all users, and to at least one user
+	private final int grantedToAll;
+	private final int grantedToAny;
+	
+	// Versions of the arena, league, and tournament this table was built from
+	private final long accessVersion;
+	private final long leagueVersion;
+	private final long tournamentVersion;
+	
+	/**
+	 * Creates a table from the ids of the users with specific bits. Ids which appear
+	 * more than once keep the bits of their last occurence.
+	 */
+	AccessTable(long[] userIds, int[] userBits, int numUsers, int defaultBits,
+				long accessVersion, long leagueVersion, long tournamentVersion) {
+		int capacity = 4;
+		while (capacity < numUsers * 2) {
+			capacity *= 2;
+		}
+		this.ids = new long[capacity];
+		this.bits = new int[capacity];
+		this.mask = capacity - 1;
+		this.defaultBits = defaultBits;
+		this.accessVersion = accessVersion;
+		this.leagueVersion = leagueVersion;
+		this.tournamentVersion = tournamentVersion;
+		// Free slots are marked with -1 bits, as user ids are never negative.
+		for (int i = 0; i < capacity; i++) {
+			bits[i] = -1;
+		}
+		for (int i = 0; i < numUsers; i++) {
+			int slot = indexOf(userIds[i]);
+			ids[slot] = userIds[i];
+			bits[slot] = userBits[i];
+		}
+		int all = defaultBits;
+		int any = defaultBits;
+		for (int i = 0; i < capacity; i++) {
+			if (bits[i] != -1) {
+				all &= bits[i];
+				any |= bits[i];
+			}
+		}
+		this.grantedToAll = all;
+		this.grantedToAny = any;
+	}
+	
+	private int indexOf(long id) {
+		int slot = hash(id) & mask;
+		while (bits[slot] != -1 && ids[slot] != id) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+	
+	private static int hash(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+	
+	/**
+	 * Returns the permission bits of a user.
+	 */
+	int get(long id) {
+		int slot = indexOf(id);
+		return bits[slot] == -1 ? defaultBits : bits[slot];
+	}
+	
+	/**
+	 * Returns the permission bits of users who have no specific bits in this table.
+	 */
+	int getDefault() {
+		return defaultBits;
+	}
+	
+	/**
+	 * Returns the permission bits every user has, regardless of its id.
+	 */
+	int getGrantedToAll() {
+		return grantedToAll;
+	}
+	
+	/**
+	 * Returns the permission bits at least one user has. Bits not returned are
+	 * denied to everybody.
+	 */
+	int getGrantedToAny() {
+		return grantedToAny;
+	}
+	
+	boolean isValid(long accessVersion, long leagueVersion, long tournamentVersion) {
+		return this.accessVersion == accessVersion
+			&& this.leagueVersion == leagueVersion
+			&& this.tournamentVersion == tournamentVersion;
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.user;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import org.globalse.arena.server.Arena;
+import org.globalse.arena.server.League;
+import org.globalse.arena.server.Tournament;
+
+/**
+ * This class implements the same access rules as DefaultAccessPolicy, but compiles
+ * them into a table of permission bits per league and per tournament, keyed by
+ * user id, so that an access decision is a single bit test instead of a series of
+ * lookups in the arena, the league, and the tournament.
+ *
+ * A table is attached to its league or tournament and records the versions of the
+ * arena, league, and tournament it was built from. When a change in membership,
+ * ownership, restriction, facilitation, or state increments one of these versions,
+ * only the tables of the affected league or tournament are built again, on the next
+ * access decision.
+ *
+ * Bulk decisions for many users take advantage of the fact that most tables grant
+ * or deny a permission to everybody (e.g., reading an unrestricted league): the
+ * result is then set or cleared as a whole, without looking up the users.
+ *
+ * @see AccessTable
+ */
+public class CompiledAccessPolicy implements AccessPolicy {
+	
+	private static final int READ_BIT = 1;
+	private static final int PLAY_BIT = 2;
+	private static final int MANAGE_BIT = 4;
+	private static final int ALL_BITS = READ_BIT | PLAY_BIT | MANAGE_BIT;
+	
+	public boolean hasArenaAccess(User user, String access) {
+		if (toBit(access) == MANAGE_BIT) {
+			return user.equals(Arena.getInstance().getOperator());
+		}
+		// Anybody can see or play in an arena.
+		return true;
+	}
+	
+	public boolean hasLeagueAccess(User user, League league, String access) {
+		return (getTable(league).get(user.getId()) & toBit(access)) != 0;
+	}
+	
+	public boolean hasTournamentAccess(User user, Tournament tournament, String access) {
+		return (getTable(tournament).get(user.getId()) & toBit(access)) != 0;
+	}
+	
+	public BitSet getLeagueAccess(User user, League[] leagues, String access) {
+		int bit = toBit(access);
+		long id = user.getId();
+		BitSet result = new BitSet(leagues.length);
+		for (int i = 0; i < leagues.length; i++) {
+			if ((getTable(leagues[i]).get(id) & bit) != 0) {
+				result.set(i);
+			}
+		}
+		return result;
+	}
+	
+	public BitSet getLeagueAccess(User[] users, League league, String access) {
+		return getAccess(users, getTable(league), toBit(access));
+	}
+	
+	public BitSet getTournamentAccess(User user, Tournament[] tournaments, String access) {
+		int bit = toBit(access);
+		long id = user.getId();
+		BitSet result = new BitSet(tournaments.length);
+		for (int i = 0; i < tournaments.length; i++) {
+			if ((getTable(tournaments[i]).get(id) & bit) != 0) {
+				result.set(i);
+			}
+		}
+		return result;
+	}
+	
+	public BitSet getTournamentAccess(User[] users, Tournament tournament, String access) {
+		return getAccess(users, getTable(tournament), toBit(access));
+	}
+	
+	private static BitSet getAccess(User[] users, AccessTable table, int bit) {
+		BitSet result = new BitSet(users.length);
+		if ((table.getGrantedToAll() & bit) != 0) {
+			result.set(0, users.length);
+		} else if ((table.getGrantedToAny() & bit) != 0) {
+			for (int i = 0; i < users.length; i++) {
+				if ((table.get(users[i].getId()) & bit) != 0) {
+					result.set(i);
+				}
+			}
+		}
+		return result;
+	}
+	
+	private static int toBit(String access) {
+		// Callers normally pass the constants, which are compared by identity first.
+		if (access == READ || access.equals(READ)) {
+			return READ_BIT;
+		}
+		if (access == PLAY || access.equals(PLAY)) {
+			return PLAY_BIT;
+		}
+		if (access == MANAGE || access.equals(MANAGE)) {
+			return MANAGE_BIT;
+		}
+		return 0;
+	}
+	
+	private AccessTable getTable(League league) {
+		Arena arena = Arena.getInstance();
+		long accessVersion = arena.getAccessVersion();
+		long leagueVersion = league.getVersion();
+		AccessTable table = (AccessTable)league.getAccessTable();
+		if (table == null || !table.isValid(accessVersion, leagueVersion, 0)) {
+			table = compile(arena, league, accessVersion, leagueVersion);
+			league.setAccessTable(table);
+		}
+		return table;
+	}
+	
+	private AccessTable getTable(Tournament tournament) {
+		Arena arena = Arena.getInstance();
+		League league = tournament.getLeague();
+		long accessVersion = arena.getAccessVersion();
+		long leagueVersion = league.getVersion();
+		long tournamentVersion = tournament.getVersion();
+		AccessTable table = (AccessTable)tournament.getAccessTable();
+		if (table == null || !table.isValid(accessVersion, leagueVersion, tournamentVersion)) {
+			table = compile(arena, tournament, accessVersion, leagueVersion, tournamentVersion);
+			tournament.setAccessTable(table);
+		}
+		return table;
+	}
+	
+	// The versions are read before the state they protect, so that a table built
+	// while a change is in progress is stale and built again on the next decision.
+	private AccessTable compile(Arena arena, League league, long accessVersion, long leagueVersion) {
+		User owner = league.getOwner();
+		User operator = arena.getOperator();
+		User[] players = league.getPlayers();
+		boolean restricted = league.isRestricted();
+		
+		long[] ids = new long[players.length + 2];
+		int[] bits = new int[players.length + 2];
+		int n = 0;
+		// In restricted leagues, only the registered players, the league owner,
+		// and the operator can see or play.
+		if (restricted) {
+			for (int i = 0; i < players.length; i++) {
+				ids[n] = players[i].getId();
+				bits[n++] = READ_BIT | PLAY_BIT;
+			}
+		}
+		if (operator != null) {
+			ids[n] = operator.getId();
+			bits[n++] = READ_BIT | PLAY_BIT;
+		}
+		// A user can manage a league only if he owns it.
+		if (owner != null) {
+			ids[n] = owner.getId();
+			bits[n++] = ALL_BITS;
+		}
+		return new AccessTable(ids, bits, n, restricted ? 0 : READ_BIT | PLAY_BIT,
+							   accessVersion, leagueVersion, 0);
+	}
+	
+	private AccessTable compile(Arena arena, Tournament tournament, long accessVersion, long leagueVersion, long tournamentVersion) {
+		League league = tournament.getLeague();
+		User owner = league.getOwner();
+		User operator = arena.getOperator();
+		User guest = arena.getGuest();
+		User[] leaguePlayers = league.getPlayers();
+		User[] acceptedPlayers = tournament.getAcceptedPlayers();
+		boolean restricted = league.isRestricted();
+		boolean facilitated = tournament.isFacilitated();
+		boolean initializing = tournament.getState().equals(Tournament.INITIALIZING);
+		
+		Set players = new HashSet();
+		for (int i = 0; i < leaguePlayers.length; i++) {
+			players.add(leaguePlayers[i]);
+		}
+		Set accepted = new HashSet();
+		for (int i = 0; i < acceptedPlayers.length; i++) {
+			accepted.add(acceptedPlayers[i]);
+		}
+		// Every user the rules single out gets its own entry, all others share the
+		// bits of a user who is neither a player, the owner, the operator, nor the guest.
+		Set users = new HashSet(players);
+		users.addAll(accepted);
+		if (owner != null) {
+			users.add(owner);
+		}
+		if (operator != null) {
+			users.add(operator);
+		}
+		if (guest != null) {
+			users.add(guest);
+		}
+		long[] ids = new long[users.size()];
+		int[] bits = new int[users.size()];
+		int n = 0;
+		for (Iterator i = users.iterator(); i.hasNext(); n++) {
+			User user = (User)i.next();
+			ids[n] = user.getId();
+			bits[n] = getTournamentBits(restricted, facilitated, initializing,
+										user.equals(owner), user.equals(operator), user.equals(guest),
+										players.contains(user), accepted.contains(user));
+		}
+		int defaultBits = getTournamentBits(restricted, facilitated, initializing,
+											false, false, false, false, false);
+		return new AccessTable(ids, bits, n, defaultBits, accessVersion, leagueVersion, tournamentVersion);
+	}
+	
+	private static int getTournamentBits(boolean restricted, boolean facilitated, boolean initializing,
+										 boolean isOwner, boolean isOperator, boolean isGuest,
+										 boolean isPlayer, boolean isAccepted) {
+		int result = 0;
+		// A user can play in the tournament if the league is unrestricted or
+		// if the player is accepted in the tournament. Guests cannot play.
+		if (!isGuest && (!restricted || isAccepted)) {
+			result |= PLAY_BIT;
+		}
+		// A user can manage a facilitated tournament only if he owns the league. Players
+		// and league owners can manage unfacilitated tournaments.
+		if (isOwner || (!facilitated && (result & PLAY_BIT) != 0)) {
+			result |= MANAGE_BIT;
+		}
+		// Only the league owner and the operator can see a tournament before it is
+		// initialized. Afterwards, anybody can see tournaments of unrestricted leagues,
+		// and only players, the league owner, and the operator those of restricted leagues.
+		if (initializing) {
+			if (isOwner || isOperator) {
+				result |= READ_BIT;
+			}
+		} else if (!restricted || isPlayer || isOwner || isOperator) {
+			result |= READ_BIT;
+		}
+		return result;
+	}
+}
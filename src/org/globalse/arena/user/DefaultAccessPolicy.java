@@ -28,6 +28,7 @@ import org.globalse.arena.user.User;
 import org.globalse.arena.remote.RemoteMatch;
 import org.globalse.arena.remote.MatchInfo;
 import java.rmi.RemoteException;
+import java.util.BitSet;
 
 /**
  * This class provides a default access policy for arenas.
@@ -112,5 +113,45 @@ public class DefaultAccessPolicy implements AccessPolicy {
 		}
 		return false;
 	}
+	
+	public BitSet getLeagueAccess(User user, League[] leagues, String access) {
+		BitSet result = new BitSet(leagues.length);
+		for (int i = 0; i < leagues.length; i++) {
+			if (hasLeagueAccess(user, leagues[i], access)) {
+				result.set(i);
+			}
+		}
+		return result;
+	}
+	
+	public BitSet getLeagueAccess(User[] users, League league, String access) {
+		BitSet result = new BitSet(users.length);
+		for (int i = 0; i < users.length; i++) {
+			if (hasLeagueAccess(users[i], league, access)) {
+				result.set(i);
+			}
+		}
+		return result;
+	}
+	
+	public BitSet getTournamentAccess(User user, Tournament[] tournaments, String access) {
+		BitSet result = new BitSet(tournaments.length);
+		for (int i = 0; i < tournaments.length; i++) {
+			if (hasTournamentAccess(user, tournaments[i], access)) {
+				result.set(i);
+			}
+		}
+		return result;
+	}
+	
+	public BitSet getTournamentAccess(User[] users, Tournament tournament, String access) {
+		BitSet result = new BitSet(users.length);
+		for (int i = 0; i < users.length; i++) {
+			if (hasTournamentAccess(users[i], tournament, access)) {
+				result.set(i);
+			}
+		}
+		return result;
+	}
 }
 
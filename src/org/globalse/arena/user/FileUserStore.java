@@ -0,0 +1,599 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.user;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+import org.globalse.arena.remote.exceptions.UserAlreadyExistsException;
+
+/**
+ * This user store keeps accounts in two files of a local directory: an
+ * append-only log of account records (<code>users.log</code>), i.e., additions,
+ * password changes, and removals, and a hash index of the log by user id and by
+ * user name (<code>users.idx</code>), which is memory-mapped. Opening the store only maps the index, so that the arena starts
+ * quickly regardless of the number of accounts; accounts are read from the log
+ * the first time they are looked up and then kept in memory.
+ *
+ * Each index is an open addressing hash table with linear probing, whose slots
+ * hold a key (the user id, or a 64-bit hash of the user name) and the position
+ * of the account record in the log. The index records the length of the log it
+ * covers. When the arena stopped before the index was updated, the records
+ * missing from the index are replayed when the store is opened; if the index is
+ * missing or damaged, it is rebuilt from the whole log.
+ *
+ * Changes are written to the log and the index immediately, but are only forced
+ * to stable storage by sync and close.
+ *
+ * @see UserStore
+ */
+public class FileUserStore implements UserStore {
+	
+	private static Logger logger = Logger.getLogger("org.globalse.arena.user");
+	
+	private static final String LOG_FILE = "users.log";
+	private static final String INDEX_FILE = "users.idx";
+	
+	// Log record types
+	private static final byte ADD = 1;
+	private static final byte REMOVE = 2;
+	private static final byte PASSWORD = 3;
+	
+	// Index header: magic number, version, capacity, number of users, number of
+	// users inserted since the index was last grown (an upper bound on the number
+	// of slots used in each table, including removed slots), and length of the
+	// log covered.
+	private static final int MAGIC = 0x41524e55;
+	private static final int VERSION = 1;
+	private static final int CAPACITY_POS = 8;
+	private static final int SIZE_POS = 12;
+	private static final int USED_POS = 16;
+	private static final int LOG_LENGTH_POS = 24;
+	private static final int HEADER_LENGTH = 32;
+	
+	// Slots hold a key and a reference, the position of a record in the log plus
+	// one. A reference of 0 marks an empty slot, -1 a removed slot.
+	private static final int SLOT_LENGTH = 16;
+	private static final long EMPTY = 0;
+	private static final long REMOVED = -1;
+	
+	private static final int MIN_CAPACITY = 1024;
+	
+	private File directory;
+	private RandomAccessFile logFile;
+	private FileChannel log;
+	private long logLength;
+	private RandomAccessFile indexFile;
+	private MappedByteBuffer index;
+	private int capacity;
+	
+	// Accounts already read from the log
+	private UserDirectory cache = new UserDirectory();
+	
+	/**
+	 * Opens the user store kept in the specified directory, creating the directory
+	 * and the store if needed.
+	 */
+	public FileUserStore(File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create user store directory " + directory + ".");
+		}
+		this.directory = directory;
+		logFile = new RandomAccessFile(new File(directory, LOG_FILE), "rw");
+		log = logFile.getChannel();
+		logLength = log.size();
+		File indexPath = new File(directory, INDEX_FILE);
+		if (indexPath.exists() && openIndex(indexPath)) {
+			long indexed = index.getLong(LOG_LENGTH_POS);
+			if (indexed < logLength) {
+				logger.info("Replaying " + (logLength - indexed) + " bytes of user store log missing from the index.");
+				replay(indexed);
+			}
+		} else {
+			logger.info("Rebuilding user store index from log.");
+			createIndex(indexPath, MIN_CAPACITY);
+			replay(0);
+		}
+		logger.info("Opened user store in " + directory + " with " + size() + " user(s).");
+	}
+	
+	// Maps an existing index, returns false if it is not valid for the log.
+	private boolean openIndex(File indexPath) throws IOException {
+		indexFile = new RandomAccessFile(indexPath, "rw");
+		long length = indexFile.length();
+		if (length >= HEADER_LENGTH) {
+			index = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			capacity = index.getInt(CAPACITY_POS);
+			if (index.getInt(0) == MAGIC && index.getInt(4) == VERSION
+				&& capacity >= MIN_CAPACITY && (capacity & (capacity - 1)) == 0
+				&& length == HEADER_LENGTH + 2L * capacity * SLOT_LENGTH
+				&& index.getLong(LOG_LENGTH_POS) <= logLength) {
+				return true;
+			}
+		}
+		index = null;
+		indexFile.close();
+		return false;
+	}
+	
+	private void createIndex(File indexPath, int capacity) throws IOException {
+		indexFile = new RandomAccessFile(indexPath, "rw");
+		indexFile.setLength(0);
+		long length = HEADER_LENGTH + 2L * capacity * SLOT_LENGTH;
+		indexFile.setLength(length);
+		index = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+		index.putInt(0, MAGIC);
+		index.putInt(4, VERSION);
+		index.putInt(CAPACITY_POS, capacity);
+		index.putInt(SIZE_POS, 0);
+		index.putInt(USED_POS, 0);
+		index.putLong(LOG_LENGTH_POS, 0);
+		this.capacity = capacity;
+	}
+	
+	// Applies the records of the log starting at the specified position to the
+	// index. A record which was only partially written is discarded. The records
+	// may already be partly applied if the arena stopped before recording the log
+	// length in the index, so entries already indexed are kept and the counters of
+	// the index are recomputed.
+	private void replay(long position) throws IOException {
+		while (position < logLength) {
+			Record record = readRecord(position);
+			if (record == null) {
+				logger.warning("Discarding incomplete record at the end of user store log.");
+				log.truncate(position);
+				logLength = position;
+				break;
+			}
+			if (record.type == ADD) {
+				insert(record.id, record.name, position);
+			} else if (record.type == REMOVE) {
+				delete(record.id, record.name);
+			} else if (record.type == PASSWORD) {
+				update(record.id, record.name, position);
+			}
+			position += record.length;
+		}
+		countSlots();
+		index.putLong(LOG_LENGTH_POS, logLength);
+	}
+	
+	public User getUser(long id) {
+		User result = cache.getUser(id);
+		if (result != null) {
+			return result;
+		}
+		synchronized(this) {
+			long ref = findId(id);
+			return ref > 0 ? load(ref - 1).user : null;
+		}
+	}
+	
+	public User getUser(String name) {
+		User result = cache.getUser(name);
+		if (result != null) {
+			return result;
+		}
+		synchronized(this) {
+			long ref = findName(name);
+			return ref > 0 ? load(ref - 1).user : null;
+		}
+	}
+	
+	public String getPassword(String name) {
+		String result = cache.getPassword(name);
+		if (result != null) {
+			return result;
+		}
+		synchronized(this) {
+			long ref = findName(name);
+			return ref > 0 ? load(ref - 1).password : null;
+		}
+	}
+	
+	synchronized public void add(User user, String password) throws UserAlreadyExistsException {
+		if (findName(user.getLogin()) > 0) {
+			throw new UserAlreadyExistsException("A user with name \"" + user.getLogin() + "\" already exists.");
+		}
+		if (findId(user.getId()) > 0) {
+			throw new UserAlreadyExistsException("A user with id \"" + user.getId() + "\" already exists.");
+		}
+		long position = append(ADD, user.getId(), user.getLogin(), password);
+		insert(user.getId(), user.getLogin(), position);
+		index.putLong(LOG_LENGTH_POS, logLength);
+		cache.add(user, password);
+	}
+	
+	synchronized public boolean setPassword(String name, String password) {
+		long ref = findName(name);
+		if (ref <= 0) {
+			return false;
+		}
+		User user = load(ref - 1).user;
+		long position = append(PASSWORD, user.getId(), name, password);
+		update(user.getId(), name, position);
+		index.putLong(LOG_LENGTH_POS, logLength);
+		cache.setPassword(name, password);
+		return true;
+	}
+	
+	synchronized public User remove(String name) {
+		long ref = findName(name);
+		if (ref <= 0) {
+			return null;
+		}
+		User user = load(ref - 1).user;
+		append(REMOVE, user.getId(), name, "");
+		delete(user.getId(), name);
+		index.putLong(LOG_LENGTH_POS, logLength);
+		cache.remove(name);
+		return user;
+	}
+	
+	synchronized public int size() {
+		return index.getInt(SIZE_POS);
+	}
+	
+	/**
+	 * Forces the changes made to the log and to the index to stable storage.
+	 */
+	synchronized public void sync() throws IOException {
+		log.force(false);
+		index.force();
+	}
+	
+	synchronized public void close() throws IOException {
+		sync();
+		log.close();
+		logFile.close();
+		indexFile.close();
+	}
+	
+	// Returns the account of the record at the specified position and caches it.
+	private Record load(long position) {
+		Record record = null;
+		try {
+			record = readRecord(position);
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to read user store log: " + e.getMessage());
+		}
+		if (record == null) {
+			throw new IllegalStateException("User store index refers to a missing log record.");
+		}
+		record.user = cache.getUser(record.id);
+		if (record.user == null) {
+			record.user = new User(record.id, record.name);
+			try {
+				cache.add(record.user, record.password);
+			} catch (UserAlreadyExistsException e) {
+				// Only happens if the name was reused by a user not loaded yet.
+			}
+		}
+		return record;
+	}
+	
+	private long append(byte type, long id, String name, String password) {
+		byte[] nameBytes = encode(name);
+		byte[] passwordBytes = encode(password);
+		ByteBuffer buffer = ByteBuffer.allocate(17 + nameBytes.length + passwordBytes.length);
+		buffer.put(type).putLong(id).putInt(nameBytes.length).put(nameBytes).putInt(passwordBytes.length).put(passwordBytes);
+		buffer.flip();
+		long position = logLength;
+		try {
+			while (buffer.hasRemaining()) {
+				log.write(buffer, position + buffer.position());
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to write user store log: " + e.getMessage());
+		}
+		logLength += buffer.limit();
+		return position;
+	}
+	
+	// Reads the record at the specified position, or returns null if the log
+	// ends before the end of the record.
+	private Record readRecord(long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		readFully(buffer, position);
+		if (buffer.limit() < 13) {
+			return null;
+		}
+		Record record = new Record();
+		record.type = buffer.get();
+		record.id = buffer.getLong();
+		int nameLength = buffer.getInt();
+		if (nameLength < 0 || 17L + nameLength > logLength - position) {
+			return null;
+		}
+		if (buffer.limit() < 17 + nameLength) {
+			buffer = ByteBuffer.allocate(17 + nameLength);
+			readFully(buffer, position);
+			buffer.position(13);
+		}
+		byte[] nameBytes = new byte[nameLength];
+		buffer.get(nameBytes);
+		int passwordLength = buffer.getInt();
+		record.length = 17 + nameLength + passwordLength;
+		if (passwordLength < 0 || record.length > logLength - position) {
+			return null;
+		}
+		if (buffer.limit() < record.length) {
+			ByteBuffer larger = ByteBuffer.allocate(record.length);
+			readFully(larger, position);
+			larger.position(buffer.position());
+			buffer = larger;
+		}
+		byte[] passwordBytes = new byte[passwordLength];
+		buffer.get(passwordBytes);
+		record.name = decode(nameBytes);
+		record.password = decode(passwordBytes);
+		return record;
+	}
+	
+	// Reads as much of the buffer as the log allows and flips it.
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		int limit = (int)Math.min(buffer.capacity(), logLength - position);
+		buffer.limit(limit);
+		while (buffer.hasRemaining()) {
+			if (log.read(buffer, position + buffer.position()) < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+	}
+	
+	////////////////////////////////////////////////////////////////////////////
+	// Index
+	
+	private int idSlot(int i) {
+		return HEADER_LENGTH + i * SLOT_LENGTH;
+	}
+	
+	private int nameSlot(int i) {
+		return HEADER_LENGTH + (capacity + i) * SLOT_LENGTH;
+	}
+	
+	private int hash(long key) {
+		return (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & (capacity - 1);
+	}
+	
+	// FNV-1a hash of the characters of a name
+	private static long hashName(String name) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < name.length(); i++) {
+			hash ^= name.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+	
+	// Returns the reference of the user with the specified id, or 0.
+	private long findId(long id) {
+		for (int i = hash(id); ; i = (i + 1) & (capacity - 1)) {
+			long ref = index.getLong(idSlot(i) + 8);
+			if (ref == EMPTY) {
+				return 0;
+			}
+			if (ref != REMOVED && index.getLong(idSlot(i)) == id) {
+				return ref;
+			}
+		}
+	}
+	
+	// Returns the reference of the user with the specified name, or 0. The name
+	// of the record is compared when hashes match.
+	private long findName(String name) {
+		return index.getLong(nameSlot(findNameSlot(name)) + 8);
+	}
+	
+	private int findNameSlot(String name) {
+		long key = hashName(name);
+		for (int i = hash(key); ; i = (i + 1) & (capacity - 1)) {
+			long ref = index.getLong(nameSlot(i) + 8);
+			if (ref == EMPTY) {
+				return i;
+			}
+			if (ref != REMOVED && index.getLong(nameSlot(i)) == key) {
+				if (name.equals(readName(ref - 1))) {
+					return i;
+				}
+			}
+		}
+	}
+	
+	private String readName(long position) {
+		try {
+			Record record = readRecord(position);
+			return record == null ? null : record.name;
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to read user store log: " + e.getMessage());
+		}
+	}
+	
+	// Adds the entries of a user, unless the log record is already indexed.
+	private void insert(long id, String name, long position) {
+		if (2 * (index.getInt(USED_POS) + 1) > capacity) {
+			grow();
+		}
+		boolean added = false;
+		if (findId(id) != position + 1) {
+			int i = hash(id);
+			while (index.getLong(idSlot(i) + 8) > 0) {
+				i = (i + 1) & (capacity - 1);
+			}
+			index.putLong(idSlot(i), id);
+			index.putLong(idSlot(i) + 8, position + 1);
+			added = true;
+		}
+		if (findName(name) != position + 1) {
+			long key = hashName(name);
+			int i = hash(key);
+			while (index.getLong(nameSlot(i) + 8) > 0) {
+				i = (i + 1) & (capacity - 1);
+			}
+			index.putLong(nameSlot(i), key);
+			index.putLong(nameSlot(i) + 8, position + 1);
+		}
+		if (added) {
+			index.putInt(USED_POS, index.getInt(USED_POS) + 1);
+			index.putInt(SIZE_POS, index.getInt(SIZE_POS) + 1);
+		}
+	}
+	
+	// Recomputes the number of users and of used slots from the id slots.
+	private void countSlots() {
+		int size = 0;
+		int used = 0;
+		for (int i = 0; i < capacity; i++) {
+			long ref = index.getLong(idSlot(i) + 8);
+			if (ref != EMPTY) {
+				used++;
+			}
+			if (ref > 0) {
+				size++;
+			}
+		}
+		index.putInt(SIZE_POS, size);
+		index.putInt(USED_POS, used);
+	}
+	
+	private void delete(long id, String name) {
+		int slot = findNameSlot(name);
+		if (index.getLong(nameSlot(slot) + 8) <= 0) {
+			return;
+		}
+		index.putLong(nameSlot(slot) + 8, REMOVED);
+		for (int i = hash(id); ; i = (i + 1) & (capacity - 1)) {
+			long ref = index.getLong(idSlot(i) + 8);
+			if (ref == EMPTY) {
+				break;
+			}
+			if (ref != REMOVED && index.getLong(idSlot(i)) == id) {
+				index.putLong(idSlot(i) + 8, REMOVED);
+				break;
+			}
+		}
+		index.putInt(SIZE_POS, index.getInt(SIZE_POS) - 1);
+	}
+	
+	// Points the entries of a user to a newer record of the user.
+	private void update(long id, String name, long position) {
+		int slot = findNameSlot(name);
+		if (index.getLong(nameSlot(slot) + 8) <= 0) {
+			return;
+		}
+		index.putLong(nameSlot(slot) + 8, position + 1);
+		for (int i = hash(id); ; i = (i + 1) & (capacity - 1)) {
+			long ref = index.getLong(idSlot(i) + 8);
+			if (ref == EMPTY) {
+				break;
+			}
+			if (ref != REMOVED && index.getLong(idSlot(i)) == id) {
+				index.putLong(idSlot(i) + 8, position + 1);
+				break;
+			}
+		}
+	}
+	
+	// Moves the live entries of the index to a new index twice as large as needed
+	// for them, dropping removed slots.
+	private void grow() {
+		MappedByteBuffer oldIndex = index;
+		RandomAccessFile oldIndexFile = indexFile;
+		int oldCapacity = capacity;
+		int size = oldIndex.getInt(SIZE_POS);
+		int newCapacity = MIN_CAPACITY;
+		while (newCapacity < 4 * (size + 1)) {
+			newCapacity *= 2;
+		}
+		File indexPath = new File(directory, INDEX_FILE);
+		File newIndexPath = new File(directory, INDEX_FILE + ".new");
+		try {
+			createIndex(newIndexPath, newCapacity);
+			for (int i = 0; i < oldCapacity; i++) {
+				int idPos = HEADER_LENGTH + i * SLOT_LENGTH;
+				long ref = oldIndex.getLong(idPos + 8);
+				if (ref > 0) {
+					putSlot(true, oldIndex.getLong(idPos), ref);
+				}
+				int namePos = HEADER_LENGTH + (oldCapacity + i) * SLOT_LENGTH;
+				ref = oldIndex.getLong(namePos + 8);
+				if (ref > 0) {
+					putSlot(false, oldIndex.getLong(namePos), ref);
+				}
+			}
+			index.putInt(SIZE_POS, size);
+			index.putInt(USED_POS, size);
+			index.putLong(LOG_LENGTH_POS, oldIndex.getLong(LOG_LENGTH_POS));
+			index.force();
+			oldIndexFile.close();
+			if (!newIndexPath.renameTo(indexPath)) {
+				indexPath.delete();
+				if (!newIndexPath.renameTo(indexPath)) {
+					throw new IOException("Cannot replace " + indexPath + ".");
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to grow user store index: " + e.getMessage());
+		}
+		logger.info("Grew user store index to " + newCapacity + " slots.");
+	}
+	
+	private void putSlot(boolean idTable, long key, long ref) {
+		int i = hash(key);
+		while (index.getLong((idTable ? idSlot(i) : nameSlot(i)) + 8) != EMPTY) {
+			i = (i + 1) & (capacity - 1);
+		}
+		int pos = idTable ? idSlot(i) : nameSlot(i);
+		index.putLong(pos, key);
+		index.putLong(pos + 8, ref);
+	}
+	
+	private static byte[] encode(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 is not supported.");
+		}
+	}
+	
+	private static String decode(byte[] bytes) {
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 is not supported.");
+		}
+	}
+	
+	private static class Record {
+		private byte type;
+		private long id;
+		private String name;
+		private String password;
+		private int length;
+		private User user;
+	}
+}
@@ -21,14 +21,21 @@
 package org.globalse.arena.user;
 
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.logging.Logger;
 import org.globalse.arena.remote.exceptions.InvalidLoginException;
 import org.globalse.arena.remote.exceptions.InvalidTicketException;
 import org.globalse.arena.remote.exceptions.UnknownUserException;
 import org.globalse.arena.remote.exceptions.UserAlreadyExistsException;
 import org.globalse.arena.user.User;
+import org.globalse.arena.util.TimerWheel;
+import org.globalse.arena.util.WorkerPool;
 
 /**
  * This class is responsible for keeping track of user/password pairs within a
@@ -36,6 +43,31 @@ import org.globalse.arena.user.User;
  * a timestampted and signed session. The session (or in its string form, a ticket)
  * is used to identify a user across several virtual machines and calls.
  *
+ * Verified tickets are kept in a {@link TicketCache}, so that checking a ticket
+ * which was already seen does not take the lock of the gatekeeper. Only the first
+ * check of a ticket computes its signature, outside the lock, and then briefly
+ * takes the lock to look up the user.
+ *
+ * Sessions can expire after an absolute timeout, counted from their creation,
+ * and after an idle timeout, counted from their last use. Both are disabled by
+ * default. Tickets of expired sessions are rejected with an InvalidTicketException
+ * as soon as they are checked, and expired sessions are evicted in the
+ * background with a {@link TimerWheel}, so that neither checks nor evictions scan
+ * all the sessions. Sessions the arena uses on behalf of a user for a long time
+ * (e.g., to open the rounds of a tournament) are retained and do not expire until
+ * they are released.
+ *
+ * Users and passwords are kept in a {@link UserStore}, by default an in-memory
+ * {@link UserDirectory}. User stores have their own locks: creating users, including the bulk import of many users with
+ * importUsers, does not take the lock of the gatekeeper and thus does not delay
+ * logins and ticket checks.
+ *
+ * Passwords are stored as salted hashes computed by a {@link PasswordHasher}.
+ * Passwords are checked on login by the bounded pool of threads of the hasher,
+ * outside the lock of the gatekeeper; logins are rejected when too many are
+ * being checked. Legacy plaintext passwords found in the user store are replaced
+ * by a hash the first time their user logs in.
+ *
  * @author Michael Nagel
  */
 
@@ -44,72 +76,253 @@ public final class GateKeeper {
 	
 	private static Logger logger = Logger.getLogger("org.globalse.arena.user");
 	private static Random random = new Random();
-    private TokenSigner signer = new TokenSigner();
+    private TokenSigner signer = new HmacTokenSigner();
 	private User guest = null;
-	private Map usersById = new HashMap();
-    private Map usersByName = new HashMap();
+	private UserStore users;
+	private PasswordHasher hasher = new PasswordHasher();
+	
+	// Hash checked when a user is unknown, so that failed logins take the same
+	// time whether or not the user exists, and the number of iterations it was
+	// computed with
+	private String unknownUserHash = null;
+	private int unknownUserIterations = 0;
 	private Map sessions = new HashMap();
-	private Map passwords = new HashMap();
+	private TicketCache ticketCache = new TicketCache();
+	
+	// Session timeouts in milliseconds, 0 if disabled
+	private volatile long absoluteTimeout = 0;
+	private volatile long idleTimeout = 0;
+	
+	// Resolution of session expiry in milliseconds, and number of slots of the wheel
+	private static final long EXPIRY_TICK = 1000;
+	private static final int EXPIRY_SLOTS = 512;
+	
+	// Sessions indexed by the time they expire, and timer evicting them. Both are
+	// created when timeouts are first enabled.
+	private TimerWheel expiryWheel = null;
+	private Timer expiryTimer = null;
+	
+	// Default number of threads importing users in parallel
+	public static final int DEFAULT_NUM_IMPORT_THREADS = 4;
+	
+	// Number of accounts an import thread takes at once from the imported accounts
+	private static final int IMPORT_BATCH_SIZE = 256;
+	
+	// Threads importing users, shared by all gatekeepers
+	private static WorkerPool importPool = new WorkerPool("UserImport", DEFAULT_NUM_IMPORT_THREADS);
 		
 	public GateKeeper() {
+		this(new UserDirectory());
+	}
+	
+	/**
+	 * Creates a gatekeeper for the users of the specified store. The guest user is
+	 * added to the store if it does not contain it yet.
+	 */
+	public GateKeeper(UserStore users) {
+		this.users = users;
 		try {
 			this.guest = createUser("guest", "guest");
 		} catch (UserAlreadyExistsException e) {
-			// this never happens since this is the first user created.
+			// The guest was created when the store was first used.
+			this.guest = users.getUser("guest");
 		}
 	}
 	
-	synchronized public final User createUser(String username, String password)
+	public final User createUser(String username, String password)
 		throws UserAlreadyExistsException
 	{
-		long id;
-		do {
-			// Use positive values only, because Long.toHexString() encodes the id
-			// as an unsigned value. Using negative values would cause Long.parseLong()
-			// to raise an exception when decoding the ticket, because of overflow.
-			id = Math.abs(random.nextLong());
-		} while (usersById.get(Long.toString(id)) != null);
-		return createUser(username, password, id);
+		String hash = hasher.hash(password);
+		while (true) {
+			long id;
+			do {
+				// Use positive values only, because Long.toHexString() encodes the id
+				// as an unsigned value. Using negative values would cause Long.parseLong()
+				// to raise an exception when decoding the ticket, because of overflow.
+				id = random.nextLong() & Long.MAX_VALUE;
+			} while (users.getUser(id) != null);
+			try {
+				return addUser(username, hash, id);
+			} catch (UserAlreadyExistsException e) {
+				// Another thread may have taken the same id in the meantime.
+				if (users.getUser(username) != null) {
+					throw e;
+				}
+			}
+		}
 	}
 	
-	synchronized public final User createUser(String username, String password, long id)
+	public final User createUser(String username, String password, long id)
 		throws UserAlreadyExistsException {
-		User user = (User)usersByName.get(username);
-		if (user != null) {
-			throw new UserAlreadyExistsException("A user with name \"" + username + "\" already exists.");
+		return addUser(username, hasher.hash(password), id);
+	}
+	
+	private User addUser(String username, String hash, long id)
+		throws UserAlreadyExistsException {
+		User user = new User(id, username);
+		users.add(user, hash);
+		return user;
+	}
+	
+	/**
+	 * Returns the hasher of the passwords of this gatekeeper, e.g., for tuning
+	 * the cost of hashes or for monitoring the number of pending logins.
+	 */
+	public final PasswordHasher getPasswordHasher() {
+		return hasher;
+	}
+	
+	/**
+	 * Creates users in parallel from the specified accounts, each being an array
+	 * holding a user name and a password. Accounts are read from the iterator as
+	 * they are needed, so that it can stream them, e.g., from a file. Accounts whose
+	 * name is already taken are skipped. Returns the number of users created.
+	 *
+	 * @param    accounts            an iterator over arrays of two strings, a user name and a password
+	 * @param    numThreads          the number of threads creating users in parallel
+	 *
+	 */
+	public final int importUsers(Iterator accounts, int numThreads) {
+		final Import job = new Import(accounts, numThreads);
+		if (importPool.getSize() < numThreads) {
+			importPool.setSize(numThreads);
 		}
-		String idStr = Long.toString(id);
-		user = (User)usersById.get(idStr);
-		if (user != null) {
-			throw new UserAlreadyExistsException("A user with id \"" + id + "\" already exists.");
+		for (int i = 0; i < numThreads; i++) {
+			new WorkerPool.Lane(importPool) {
+				protected void process(Object item) {
+					job.run();
+				}
+			}.enqueue(job);
 		}
-		user = new User(id, username);
-		usersById.put(Long.toString(id), user);
-		usersByName.put(username, user);
-		passwords.put(username, password);
-		return user;
+		int numCreated = job.waitUntilDone();
+		logger.info("GateKeeper imported " + numCreated + " user(s), skipped " + job.numSkipped + " existing user(s).");
+		return numCreated;
+	}
+	
+	// An import shared by several threads, each taking batches of accounts from
+	// the same iterator.
+	private class Import {
+		private Iterator accounts;
+		private int numRunning;
+		private int numCreated = 0;
+		private int numSkipped = 0;
+		
+		Import(Iterator accounts, int numThreads) {
+			this.accounts = accounts;
+			this.numRunning = numThreads;
+		}
+		
+		synchronized private String[][] nextBatch() {
+			String[][] batch = new String[IMPORT_BATCH_SIZE][];
+			int n = 0;
+			try {
+				while (n < batch.length && accounts.hasNext()) {
+					batch[n++] = (String[])accounts.next();
+				}
+			} catch (NoSuchElementException e) {}
+			if (n == batch.length) {
+				return batch;
+			}
+			String[][] result = new String[n][];
+			System.arraycopy(batch, 0, result, 0, n);
+			return result;
+		}
+		
+		void run() {
+			int created = 0;
+			int skipped = 0;
+			try {
+				String[][] batch;
+				while ((batch = nextBatch()).length > 0) {
+					for (int i = 0; i < batch.length; i++) {
+						try {
+							createUser(batch[i][0], batch[i][1]);
+							created++;
+						} catch (UserAlreadyExistsException e) {
+							skipped++;
+						}
+					}
+				}
+			} finally {
+				done(created, skipped);
+			}
+		}
+		
+		synchronized private void done(int created, int skipped) {
+			numCreated += created;
+			numSkipped += skipped;
+			numRunning--;
+			notifyAll();
+		}
+		
+		synchronized int waitUntilDone() {
+			while (numRunning > 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+			return numCreated;
+		}
+	}
+	
+	/**
+	 * Returns the number of users known to this gatekeeper.
+	 */
+	public final int getNumUsers() {
+		return users.size();
 	}
 	
 	synchronized public final void deleteUser(String username) throws UnknownUserException {
-		User user = (User)usersByName.get(username);
+		User user = users.remove(username);
 		if (user == null) {
 			throw new UnknownUserException("User with name \"" + username + "\" is not known.");
 		}
-		usersById.remove(Long.toString(user.getId()));
-		usersByName.remove(username);
+		LiveSession session = (LiveSession)sessions.remove(username);
+		if (session != null) {
+			session.expire();
+		}
+		ticketCache.removeUser(user);
+	}
+	
+	// Returns the hash checked for unknown users, computed again when the number of
+	// iterations of the hasher changes, so that it always costs as much as the
+	// hashes of new passwords.
+	synchronized private String getUnknownUserHash() {
+		int iterations = hasher.getIterations();
+		if (unknownUserHash == null || unknownUserIterations != iterations) {
+			unknownUserHash = hasher.hash(Long.toHexString(random.nextLong()));
+			unknownUserIterations = iterations;
+		}
+		return unknownUserHash;
 	}
 	
-    synchronized public final String login(String username, String password)
+    public final String login(String username, String password)
 		throws InvalidLoginException {
-		User user = (User)usersByName.get(username);
-		if (user == null) {
-			throw new InvalidLoginException("Login failed.");
+		User user = users.getUser(username);
+		String storedPassword = null;
+		if (user != null) {
+			storedPassword = users.getPassword(username);
+		}
+		PasswordHasher.Check check = hasher.check(password, storedPassword == null ? getUnknownUserHash() : storedPassword);
+		if (check == null) {
+			logger.fine("Login of " + username + " rejected, too many logins in progress.");
+			throw new InvalidLoginException("Too many logins in progress, try again later.");
 		}
-		String storedPassword = (String)passwords.get(username);
-		if (storedPassword == null || !storedPassword.equals(password)) {
+		if (storedPassword == null || !check.matched()) {
 			throw new InvalidLoginException("Login failed.");
 		}
-		return getSession(user).getTicket();
+		if (check.getNewHash() != null) {
+			users.setPassword(username, check.getNewHash());
+		}
+		synchronized(this) {
+			// The user may have been deleted since its password was checked.
+			if (!user.equals(users.getUser(user.getId()))) {
+				throw new InvalidLoginException("Login failed.");
+			}
+			return getSession(user).getTicket();
+		}
     }
 
 	synchronized public final String getGuestTicket() {
@@ -120,27 +333,222 @@ public final class GateKeeper {
 		return user.equals(guest);
 	}
 	
-	private Session getSession(User user) {
+	synchronized public final User getGuest() {
+		return guest;
+	}
+	
+	// Returns the current session of the user, creating a new one if the user
+	// has none or if it expired.
+	private LiveSession getSession(User user) {
 		String username = user.getLogin();
-		Session session = (Session)sessions.get(username);
+		LiveSession session = (LiveSession)sessions.get(username);
+		long now = System.currentTimeMillis();
+		if (session != null && hasExpired(session, now)) {
+			expire(session);
+			session = null;
+		}
 		if (session == null) {
-			session = new Session(user.getId());
-			signer.signToken(session);
+			Session token = new Session(user.getId());
+			signer.signToken(token);
+			session = new LiveSession(token, user);
 			sessions.put(username, session);
+			schedule(session);
+		} else {
+			session.touch(now);
 		}
 		return session;
 	}
 	
-    synchronized public final User getUser(String ticket) throws InvalidTicketException {
-		Session session = new Session(ticket);
-		// TODO: this should also time out sessions, at least the ones given to the players.
-		if (!verifySession(session)) {
-			logger.warning("Ticket could not be verified.");
-			return null;
+	/**
+	 * Returns the user of the specified ticket, or null if the ticket could not
+	 * be verified or its user was deleted. Tickets of sessions which expired are
+	 * rejected with an InvalidTicketException.
+	 */
+    public final User getUser(String ticket) throws InvalidTicketException {
+		LiveSession session = null;
+		if (ticket != null) {
+			session = ticketCache.get(ticket);
+		}
+		if (session == null) {
+			Session token = new Session(ticket);
+			if (!verifySession(token)) {
+				logger.warning("Ticket could not be verified.");
+				return null;
+			}
+			synchronized(this) {
+				// The ticket is cached while holding the lock, so that it cannot be
+				// cached after its user was deleted or its session expired.
+				User user = users.getUser(token.getUserId());
+				if (user == null) {
+					return null;
+				}
+				session = (LiveSession)sessions.get(user.getLogin());
+				if (session == null || !session.getTicket().equals(ticket)) {
+					throw new InvalidTicketException("Ticket has expired.");
+				}
+				ticketCache.put(ticket, session);
+			}
 		}
-		return (User)usersById.get(Long.toString(session.getUserId()));
+		long now = System.currentTimeMillis();
+		if (hasExpired(session, now)) {
+			expire(session);
+			throw new InvalidTicketException("Ticket has expired.");
+		}
+		session.touch(now);
+		return session.getUser();
     }
 	
+	/**
+	 * Sets the absolute timeout of sessions, counted from their creation, and
+	 * their idle timeout, counted from their last use, in milliseconds. 0 disables
+	 * a timeout. Shorter timeouts also apply to existing sessions.
+	 */
+	synchronized public final void setSessionTimeouts(long absoluteTimeout, long idleTimeout) {
+		if (absoluteTimeout < 0 || idleTimeout < 0) {
+			throw new IllegalArgumentException("Session timeouts cannot be negative.");
+		}
+		this.absoluteTimeout = absoluteTimeout;
+		this.idleTimeout = idleTimeout;
+		if (!timeoutsEnabled()) {
+			return;
+		}
+		if (expiryWheel == null) {
+			long now = System.currentTimeMillis();
+			expiryWheel = new TimerWheel(EXPIRY_SLOTS, EXPIRY_TICK, now);
+			expiryTimer = new Timer(true);
+			expiryTimer.schedule(new TimerTask() {
+						public void run() {
+							evictSessions();
+						}
+					}, EXPIRY_TICK, EXPIRY_TICK);
+		}
+		Iterator it = sessions.values().iterator();
+		while (it.hasNext()) {
+			schedule((LiveSession)it.next());
+		}
+	}
+	
+	public final long getAbsoluteTimeout() {
+		return absoluteTimeout;
+	}
+	
+	public final long getIdleTimeout() {
+		return idleTimeout;
+	}
+	
+	synchronized public final int getNumSessions() {
+		return sessions.size();
+	}
+	
+	/**
+	 * Prevents the session of the specified ticket from expiring until it is
+	 * released. Sessions can be retained several times and only expire again once
+	 * they were released as many times.
+	 */
+	public final void retainSession(String ticket) throws InvalidTicketException {
+		if (getUser(ticket) == null) {
+			throw new InvalidTicketException("Ticket \"" + ticket + "\" is invalid.");
+		}
+		synchronized(this) {
+			LiveSession session = findSession(ticket);
+			if (session == null) {
+				throw new InvalidTicketException("Ticket has expired.");
+			}
+			session.retain();
+		}
+	}
+	
+	/**
+	 * Releases a session retained with retainSession. Its idle timeout starts over.
+	 */
+	synchronized public final void releaseSession(String ticket) {
+		LiveSession session = null;
+		try {
+			session = findSession(ticket);
+		} catch (InvalidTicketException e) {}
+		if (session == null) {
+			logger.warning("Releasing an unknown session.");
+			return;
+		}
+		if (session.release()) {
+			session.touch(System.currentTimeMillis());
+			schedule(session);
+		}
+	}
+	
+	// Returns the current session of the user of the ticket, if the ticket is
+	// the ticket of that session.
+	private LiveSession findSession(String ticket) throws InvalidTicketException {
+		User user = users.getUser(new Session(ticket).getUserId());
+		if (user == null) {
+			return null;
+		}
+		LiveSession session = (LiveSession)sessions.get(user.getLogin());
+		if (session == null || !session.getTicket().equals(ticket)) {
+			return null;
+		}
+		return session;
+	}
+	
+	private boolean timeoutsEnabled() {
+		return absoluteTimeout > 0 || idleTimeout > 0;
+	}
+	
+	private boolean hasExpired(LiveSession session, long now) {
+		return session.isExpired()
+			|| (!session.isRetained() && session.getDeadline(absoluteTimeout, idleTimeout) <= now);
+	}
+	
+	// Adds a session to the expiry wheel, unless it is already in it. Must be
+	// invoked while holding the lock of the gatekeeper.
+	private void schedule(LiveSession session) {
+		if (expiryWheel != null && timeoutsEnabled() && !session.scheduled && !session.isRetained()) {
+			session.scheduled = true;
+			expiryWheel.schedule(session, session.getDeadline(absoluteTimeout, idleTimeout));
+		}
+	}
+	
+	synchronized private void expire(LiveSession session) {
+		session.expire();
+		String username = session.getUser().getLogin();
+		if (sessions.get(username) == session) {
+			sessions.remove(username);
+		}
+		ticketCache.remove(session.getTicket());
+	}
+	
+	// Evicts the sessions whose deadline has passed. Sessions used since they were
+	// scheduled are scheduled again at their new deadline; retained sessions are
+	// scheduled again when they are released.
+	synchronized private void evictSessions() {
+		long now = System.currentTimeMillis();
+		List due = expiryWheel.advance(now);
+		int numExpired = 0;
+		for (int i = 0; i < due.size(); i++) {
+			LiveSession session = (LiveSession)due.get(i);
+			session.scheduled = false;
+			if (session.isExpired() || session.isRetained()) {
+				continue;
+			}
+			if (hasExpired(session, now)) {
+				expire(session);
+				numExpired++;
+			} else {
+				schedule(session);
+			}
+		}
+		if (numExpired > 0) {
+			logger.fine("GateKeeper evicted " + numExpired + " expired session(s).");
+		}
+	}
+	
+	/**
+	 * Returns the cache of verified tickets, e.g., for monitoring its hit rate.
+	 */
+	public final TicketCache getTicketCache() {
+		return ticketCache;
+	}
+	
     private final boolean verifySession(Session session) {
 		return signer.verifyToken(session);
     }
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.user;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This token signer computes signatures with HMAC-SHA256 and a random key
+ * generated when the signer is created. Each thread reuses its own Mac instance
+ * and buffers, so that signing and verifying tokens does not allocate temporary
+ * objects, except for the signature string set on signed tokens. Signatures are
+ * compared in constant time, so that the time taken by a failed verification
+ * does not reveal how much of a forged signature was correct.
+ *
+ * Like the sessions it signs, the key only lives as long as the virtual machine:
+ * tickets issued before a restart cannot be verified anymore.
+ *
+ * @see TokenSigner
+ */
+public class HmacTokenSigner extends TokenSigner {
+	
+	private static final String ALGORITHM = "HmacSHA256";
+	private static final int KEY_LENGTH = 32;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	
+	private static SecureRandom random = new SecureRandom();
+	
+	private SecretKeySpec key;
+	
+	// Mac and buffers of each thread
+	private ThreadLocal engines = new ThreadLocal() {
+		protected Object initialValue() {
+			return new Engine();
+		}
+	};
+	
+	public HmacTokenSigner() {
+		byte[] bytes = new byte[KEY_LENGTH];
+		random.nextBytes(bytes);
+		key = new SecretKeySpec(bytes, ALGORITHM);
+	}
+	
+	public boolean signToken(Token t) {
+		String code = t.getCode();
+		if (code == null) {
+			return false;
+		}
+		Engine engine = (Engine)engines.get();
+		engine.digest(code);
+		t.setSignature(new String(engine.hex));
+		return true;
+	}
+	
+	public boolean verifyToken(Token token) {
+		String code = token.getCode();
+		String signature = token.getSignature();
+		if (code == null || signature == null) {
+			return false;
+		}
+		Engine engine = (Engine)engines.get();
+		engine.digest(code);
+		char[] hex = engine.hex;
+		if (signature.length() != hex.length) {
+			return false;
+		}
+		int diff = 0;
+		for (int i = 0; i < hex.length; i++) {
+			diff |= signature.charAt(i) ^ hex[i];
+		}
+		return diff == 0;
+	}
+	
+	// A Mac initialized with the key of the signer, and the buffers used with it.
+	private class Engine {
+		private Mac mac;
+		private byte[] input = new byte[64];
+		private byte[] output;
+		private char[] hex;
+		
+		Engine() {
+			try {
+				mac = Mac.getInstance(ALGORITHM);
+				mac.init(key);
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException("Cannot create " + ALGORITHM + " signer: " + e.getMessage());
+			}
+			output = new byte[mac.getMacLength()];
+			hex = new char[2 * output.length];
+		}
+		
+		// Computes the signature of the specified message into hex. Token codes
+		// only contain ASCII characters, so that each character is a single byte.
+		void digest(String message) {
+			int length = message.length();
+			if (input.length < length) {
+				input = new byte[Math.max(length, 2 * input.length)];
+			}
+			for (int i = 0; i < length; i++) {
+				input[i] = (byte)message.charAt(i);
+			}
+			mac.update(input, 0, length);
+			try {
+				mac.doFinal(output, 0);
+			} catch (ShortBufferException e) {
+				throw new IllegalStateException("BUG: signature buffer is too short.");
+			}
+			for (int i = 0; i < output.length; i++) {
+				hex[2 * i] = HEX_DIGITS[(output[i] >> 4) & 0xf];
+				hex[2 * i + 1] = HEX_DIGITS[output[i] & 0xf];
+			}
+		}
+	}
+}
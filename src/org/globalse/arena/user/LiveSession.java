@@ -0,0 +1,98 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.user;
+
+/**
+ * The state the gatekeeper keeps about a session it issued: its user, the time
+ * it was last used, and whether it expired or is retained. Retained sessions do
+ * not expire; they are used by the arena to act on behalf of a user for a long
+ * time, e.g., the ticket of the user who launched a tournament.
+ */
+class LiveSession {
+	
+	private Session session;
+	private User user;
+	private String ticket;
+	private volatile long lastAccess;
+	private volatile boolean expired = false;
+	
+	// Modified while holding the lock of the gatekeeper
+	private volatile int retainCount = 0;
+	boolean scheduled = false;
+	
+	LiveSession(Session session, User user) {
+		this.session = session;
+		this.user = user;
+		this.ticket = session.getTicket();
+		this.lastAccess = session.getDate().getTime();
+	}
+	
+	User getUser() {
+		return user;
+	}
+	
+	String getTicket() {
+		return ticket;
+	}
+	
+	void touch(long now) {
+		lastAccess = now;
+	}
+	
+	boolean isExpired() {
+		return expired;
+	}
+	
+	void expire() {
+		expired = true;
+	}
+	
+	boolean isRetained() {
+		return retainCount > 0;
+	}
+	
+	void retain() {
+		retainCount++;
+	}
+	
+	// Returns true if the session is not retained anymore.
+	boolean release() {
+		if (retainCount > 0) {
+			retainCount--;
+		}
+		return retainCount == 0;
+	}
+	
+	/**
+	 * Returns the time at which this session expires for the specified absolute
+	 * and idle timeouts (0 meaning no timeout), regardless of whether it is retained.
+	 */
+	long getDeadline(long absoluteTimeout, long idleTimeout) {
+		long result = Long.MAX_VALUE;
+		if (absoluteTimeout > 0) {
+			result = session.getDate().getTime() + absoluteTimeout;
+		}
+		if (idleTimeout > 0) {
+			result = Math.min(result, lastAccess + idleTimeout);
+		}
+		return result;
+	}
+}
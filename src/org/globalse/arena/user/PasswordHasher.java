@@ -0,0 +1,331 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.user;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import org.globalse.arena.util.WorkerPool;
+
+/**
+ * This class hashes and checks passwords with PBKDF2, a random salt per password,
+ * and a tunable number of iterations. Hashed passwords are stored as
+ * <code>pbkdf2$iterations$salt$hash</code>, with salt and hash in hexadecimal, so
+ * that changing the number of iterations does not invalidate existing hashes.
+ * Stored passwords in any other form are legacy plaintext passwords; they are
+ * still accepted and reported as needing a new hash.
+ *
+ * Checking passwords on login is deliberately slow, so checks run on a small pool
+ * of dedicated threads instead of the threads of the callers. The number of checks
+ * waiting or running is bounded: when the bound is reached, further checks are
+ * rejected immediately, so that a burst of logins cannot take all the processors
+ * away from the players already logged in.
+ *
+ * @see GateKeeper
+ */
+public class PasswordHasher {
+	
+	public static final int DEFAULT_ITERATIONS = 10000;
+	public static final int DEFAULT_NUM_THREADS = 2;
+	public static final int DEFAULT_MAX_PENDING = 64;
+	
+	private static final String PREFIX = "pbkdf2$";
+	private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+	private static final int SALT_LENGTH = 16;
+	private static final int HASH_LENGTH = 20;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	
+	private SecureRandom random = new SecureRandom();
+	private volatile int iterations = DEFAULT_ITERATIONS;
+	
+	// Threads checking passwords
+	private WorkerPool pool = new WorkerPool("PasswordHasher", DEFAULT_NUM_THREADS);
+	
+	// Admission control and statistics
+	private int maxPending = DEFAULT_MAX_PENDING;
+	private int numPending = 0;
+	private int maxQueueDepth = 0;
+	private long numChecks = 0;
+	private long numRejected = 0;
+	private long totalCheckTime = 0;
+	
+	/**
+	 * Sets the number of PBKDF2 iterations of new hashes. Passwords hashed with
+	 * fewer iterations are reported as needing a new hash.
+	 */
+	public void setIterations(int iterations) {
+		if (iterations < 1) {
+			throw new IllegalArgumentException("At least one iteration is needed.");
+		}
+		this.iterations = iterations;
+	}
+	
+	public int getIterations() {
+		return iterations;
+	}
+	
+	/**
+	 * Sets the number of threads checking passwords.
+	 */
+	public void setNumThreads(int numThreads) {
+		pool.setSize(numThreads);
+	}
+	
+	public int getNumThreads() {
+		return pool.getSize();
+	}
+	
+	/**
+	 * Sets the maximum number of password checks waiting or running, above which
+	 * new checks are rejected.
+	 */
+	synchronized public void setMaxPending(int maxPending) {
+		if (maxPending < 1) {
+			throw new IllegalArgumentException("At least one pending check must be allowed.");
+		}
+		this.maxPending = maxPending;
+	}
+	
+	synchronized public int getMaxPending() {
+		return maxPending;
+	}
+	
+	/**
+	 * Returns the number of password checks currently waiting or running.
+	 */
+	synchronized public int getNumPending() {
+		return numPending;
+	}
+	
+	/**
+	 * Returns the largest number of password checks waiting or running at once.
+	 */
+	synchronized public int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+	
+	synchronized public long getNumChecks() {
+		return numChecks;
+	}
+	
+	/**
+	 * Returns the number of password checks rejected because too many were pending.
+	 */
+	synchronized public long getNumRejected() {
+		return numRejected;
+	}
+	
+	/**
+	 * Returns the average time in milliseconds between submitting a password check
+	 * and its completion.
+	 */
+	synchronized public long getAverageCheckTime() {
+		return numChecks == 0 ? 0 : totalCheckTime / numChecks;
+	}
+	
+	/**
+	 * Returns a salted hash of the specified password, computed in the calling thread.
+	 */
+	public String hash(String password) {
+		byte[] salt = new byte[SALT_LENGTH];
+		random.nextBytes(salt);
+		int n = iterations;
+		return PREFIX + n + "$" + toHex(salt) + "$" + toHex(pbkdf2(password, salt, n));
+	}
+	
+	/**
+	 * Returns true if the password matches the stored password, computed in the
+	 * calling thread.
+	 */
+	public boolean matches(String password, String stored) {
+		if (password == null || stored == null) {
+			return false;
+		}
+		if (!stored.startsWith(PREFIX)) {
+			return constantTimeEquals(password, stored);
+		}
+		int saltStart = stored.indexOf('$', PREFIX.length()) + 1;
+		int hashStart = stored.indexOf('$', saltStart) + 1;
+		if (saltStart == 0 || hashStart == 0) {
+			return false;
+		}
+		try {
+			int n = Integer.parseInt(stored.substring(PREFIX.length(), saltStart - 1));
+			byte[] salt = fromHex(stored.substring(saltStart, hashStart - 1));
+			return constantTimeEquals(toHex(pbkdf2(password, salt, n)), stored.substring(hashStart));
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns true if the stored password is in plaintext or was hashed with fewer
+	 * iterations than the current setting.
+	 */
+	public boolean needsRehash(String stored) {
+		if (!stored.startsWith(PREFIX)) {
+			return true;
+		}
+		int end = stored.indexOf('$', PREFIX.length());
+		try {
+			return end < 0 || Integer.parseInt(stored.substring(PREFIX.length(), end)) < iterations;
+		} catch (NumberFormatException e) {
+			return true;
+		}
+	}
+	
+	/**
+	 * Checks a password on the threads of this hasher and waits for the result. If
+	 * the password matches and the stored password needs a new hash, the new hash
+	 * is computed by the same thread.
+	 *
+	 * @param    password            the password to check
+	 * @param    stored              the stored password
+	 *
+	 * @return   the result of the check, or null if it was rejected because too many checks are pending
+	 *
+	 */
+	public Check check(String password, String stored) {
+		Check check = new Check(password, stored);
+		synchronized(this) {
+			if (numPending >= maxPending) {
+				numRejected++;
+				return null;
+			}
+			numPending++;
+			maxQueueDepth = Math.max(maxQueueDepth, numPending);
+		}
+		// Each check gets its own lane, so that checks run in parallel.
+		new WorkerPool.Lane(pool) {
+			protected void process(Object item) {
+				((Check)item).run();
+			}
+		}.enqueue(check);
+		check.waitUntilDone();
+		return check;
+	}
+	
+	synchronized private void checkDone(long time) {
+		numPending--;
+		numChecks++;
+		totalCheckTime += time;
+	}
+	
+	/**
+	 * The result of a password check.
+	 */
+	public class Check {
+		private String password;
+		private String stored;
+		private long submitted = System.currentTimeMillis();
+		private boolean done = false;
+		private boolean matched = false;
+		private String newHash = null;
+		
+		private Check(String password, String stored) {
+			this.password = password;
+			this.stored = stored;
+		}
+		
+		/**
+		 * Returns true if the password matched.
+		 */
+		public boolean matched() {
+			return matched;
+		}
+		
+		/**
+		 * Returns the new hash of a matching password whose stored password needed
+		 * a new hash, null otherwise.
+		 */
+		public String getNewHash() {
+			return newHash;
+		}
+		
+		private void run() {
+			try {
+				matched = matches(password, stored);
+				if (matched && needsRehash(stored)) {
+					newHash = hash(password);
+				}
+			} finally {
+				password = null;
+				checkDone(System.currentTimeMillis() - submitted);
+				synchronized(this) {
+					done = true;
+					notifyAll();
+				}
+			}
+		}
+		
+		synchronized private void waitUntilDone() {
+			boolean interrupted = false;
+			while (!done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+		try {
+			PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, 8 * HASH_LENGTH);
+			return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Cannot hash password with " + ALGORITHM + ": " + e.getMessage());
+		}
+	}
+	
+	private static boolean constantTimeEquals(String a, String b) {
+		if (a.length() != b.length()) {
+			return false;
+		}
+		int diff = 0;
+		for (int i = 0; i < a.length(); i++) {
+			diff |= a.charAt(i) ^ b.charAt(i);
+		}
+		return diff == 0;
+	}
+	
+	private static String toHex(byte[] bytes) {
+		char[] result = new char[2 * bytes.length];
+		for (int i = 0; i < bytes.length; i++) {
+			result[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+			result[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+		}
+		return new String(result);
+	}
+	
+	private static byte[] fromHex(String hex) {
+		byte[] result = new byte[hex.length() / 2];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = (byte)Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.user;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class caches the sessions of tickets which were already verified, so that
+ * checking a ticket does not require parsing the ticket and computing its
+ * signature again. The cache is divided into stripes, each protected by its own
+ * lock, so that concurrent ticket checks rarely wait for each other. Each stripe
+ * holds a bounded number of tickets and forgets the least recently used ticket
+ * when it is full. Cached tickets also expire after a fixed time, after which
+ * they are verified again.
+ *
+ * Only valid tickets are cached. The gatekeeper removes the tickets of a user
+ * when the user is deleted, and the tickets of sessions which expire.
+ *
+ * @see GateKeeper
+ */
+public class TicketCache {
+	
+	public static final int DEFAULT_NUM_STRIPES = 16;
+	public static final int DEFAULT_CAPACITY = 10000;
+	public static final long DEFAULT_EXPIRY = 300000;
+	
+	private Stripe[] stripes;
+	private long expiry;
+	
+	// Statistics, updated without locking and thus approximate
+	private volatile long numHits = 0;
+	private volatile long numMisses = 0;
+	
+	public TicketCache() {
+		this(DEFAULT_NUM_STRIPES, DEFAULT_CAPACITY, DEFAULT_EXPIRY);
+	}
+	
+	/**
+	 * Creates a ticket cache.
+	 *
+	 * @param    numStripes          the number of independently locked stripes
+	 * @param    capacity            the maximum number of tickets, divided evenly among stripes
+	 * @param    expiry              the time in milliseconds after which a cached ticket is verified again
+	 *
+	 */
+	public TicketCache(int numStripes, int capacity, long expiry) {
+		if (numStripes < 1 || capacity < numStripes || expiry <= 0) {
+			throw new IllegalArgumentException("Ticket cache needs at least one ticket per stripe and a positive expiry.");
+		}
+		this.expiry = expiry;
+		stripes = new Stripe[numStripes];
+		for (int i = 0; i < numStripes; i++) {
+			stripes[i] = new Stripe(capacity / numStripes);
+		}
+	}
+	
+	private Stripe getStripe(String ticket) {
+		return stripes[(ticket.hashCode() & 0x7fffffff) % stripes.length];
+	}
+	
+	/**
+	 * Returns the session of the specified ticket, or null if the ticket is not
+	 * cached or its cache entry has expired.
+	 */
+	LiveSession get(String ticket) {
+		LiveSession result = getStripe(ticket).get(ticket, System.currentTimeMillis());
+		if (result == null) {
+			numMisses++;
+		} else {
+			numHits++;
+		}
+		return result;
+	}
+	
+	/**
+	 * Caches the session of a verified ticket.
+	 */
+	void put(String ticket, LiveSession session) {
+		getStripe(ticket).put(ticket, new Entry(session, System.currentTimeMillis() + expiry));
+	}
+	
+	void remove(String ticket) {
+		getStripe(ticket).remove(ticket);
+	}
+	
+	/**
+	 * Removes all the tickets of the specified user.
+	 */
+	void removeUser(User user) {
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i].removeUser(user);
+		}
+	}
+	
+	/**
+	 * Returns the number of cached tickets, including expired tickets which were
+	 * not removed yet.
+	 */
+	public int size() {
+		int result = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			result += stripes[i].size();
+		}
+		return result;
+	}
+	
+	public long getNumHits() {
+		return numHits;
+	}
+	
+	public long getNumMisses() {
+		return numMisses;
+	}
+	
+	private static class Entry {
+		private LiveSession session;
+		private long expires;
+		Entry(LiveSession session, long expires) {
+			this.session = session;
+			this.expires = expires;
+		}
+	}
+	
+	// A stripe is a map of entries ordered by least recent access.
+	private static class Stripe {
+		private int capacity;
+		private LinkedHashMap entries;
+		Stripe(int capacity) {
+			this.capacity = capacity;
+			entries = new LinkedHashMap(16, 0.75f, true) {
+				protected boolean removeEldestEntry(Map.Entry eldest) {
+					return size() > Stripe.this.capacity;
+				}
+			};
+		}
+		synchronized LiveSession get(String ticket, long now) {
+			Entry entry = (Entry)entries.get(ticket);
+			if (entry == null) {
+				return null;
+			}
+			if (entry.expires <= now) {
+				entries.remove(ticket);
+				return null;
+			}
+			return entry.session;
+		}
+		synchronized void put(String ticket, Entry entry) {
+			entries.put(ticket, entry);
+		}
+		synchronized void remove(String ticket) {
+			entries.remove(ticket);
+		}
+		synchronized void removeUser(User user) {
+			Iterator it = entries.values().iterator();
+			while (it.hasNext()) {
+				if (((Entry)it.next()).session.getUser().equals(user)) {
+					it.remove();
+				}
+			}
+		}
+		synchronized int size() {
+			return entries.size();
+		}
+	}
+}
@@ -25,6 +25,9 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Random;
 
 /**
+ * This class signs tokens with a SHA digest of their code and a random secret.
+ * It is superseded by {@link HmacTokenSigner}, which the gatekeeper uses, and is
+ * kept as the base class of token signers.
  *
  * @author Michael Nagel
  */
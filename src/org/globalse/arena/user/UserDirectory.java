@@ -0,0 +1,264 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.user;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.globalse.arena.remote.exceptions.UserAlreadyExistsException;
+
+/**
+ * This class is the default user store, which holds accounts in memory only. It
+ * is also used by other stores as a cache of the accounts they loaded. Accounts
+ * are indexed by user id and by user name. Both indexes are
+ * divided into stripes, each protected by its own lock, so that looking up users
+ * does not wait for users being created or deleted, and so that many users can be
+ * created in parallel. The id index stores primitive long keys in open addressing
+ * hash tables, so that lookups do not allocate keys.
+ *
+ * Adding an account locks the name stripe of the account first and then its id
+ * stripe, so that both indexes are updated atomically with respect to other
+ * additions and removals.
+ *
+ * @see GateKeeper
+ */
+public class UserDirectory implements UserStore {
+	
+	private static final int NUM_STRIPES = 32;
+	
+	private IdStripe[] idStripes = new IdStripe[NUM_STRIPES];
+	private NameStripe[] nameStripes = new NameStripe[NUM_STRIPES];
+	
+	public UserDirectory() {
+		for (int i = 0; i < NUM_STRIPES; i++) {
+			idStripes[i] = new IdStripe();
+			nameStripes[i] = new NameStripe();
+		}
+	}
+	
+	private IdStripe getIdStripe(long id) {
+		int hash = (int)(id ^ (id >>> 32));
+		return idStripes[(hash ^ (hash >>> 16)) & (NUM_STRIPES - 1)];
+	}
+	
+	private NameStripe getNameStripe(String name) {
+		int hash = name.hashCode();
+		return nameStripes[(hash ^ (hash >>> 16)) & (NUM_STRIPES - 1)];
+	}
+	
+	/**
+	 * Returns the user with the specified id, or null if there is none.
+	 */
+	public User getUser(long id) {
+		IdStripe stripe = getIdStripe(id);
+		synchronized(stripe) {
+			return (User)stripe.get(id);
+		}
+	}
+	
+	/**
+	 * Returns the user with the specified name, or null if there is none.
+	 */
+	public User getUser(String name) {
+		Account account = getAccount(name);
+		return account == null ? null : account.user;
+	}
+	
+	/**
+	 * Returns the password of the user with the specified name, or null if there
+	 * is no such user.
+	 */
+	public String getPassword(String name) {
+		Account account = getAccount(name);
+		return account == null ? null : account.password;
+	}
+	
+	private Account getAccount(String name) {
+		NameStripe stripe = getNameStripe(name);
+		synchronized(stripe) {
+			return (Account)stripe.accounts.get(name);
+		}
+	}
+	
+	/**
+	 * Adds a user and its password. Throws a UserAlreadyExistsException if a user
+	 * with the same name or the same id already exists.
+	 */
+	public void add(User user, String password) throws UserAlreadyExistsException {
+		String name = user.getLogin();
+		NameStripe nameStripe = getNameStripe(name);
+		IdStripe idStripe = getIdStripe(user.getId());
+		synchronized(nameStripe) {
+			if (nameStripe.accounts.containsKey(name)) {
+				throw new UserAlreadyExistsException("A user with name \"" + name + "\" already exists.");
+			}
+			synchronized(idStripe) {
+				if (idStripe.get(user.getId()) != null) {
+					throw new UserAlreadyExistsException("A user with id \"" + user.getId() + "\" already exists.");
+				}
+				idStripe.put(user.getId(), user);
+			}
+			nameStripe.accounts.put(name, new Account(user, password));
+		}
+	}
+	
+	public boolean setPassword(String name, String password) {
+		NameStripe stripe = getNameStripe(name);
+		synchronized(stripe) {
+			Account account = (Account)stripe.accounts.get(name);
+			if (account == null) {
+				return false;
+			}
+			stripe.accounts.put(name, new Account(account.user, password));
+			return true;
+		}
+	}
+	
+	/**
+	 * Removes the user with the specified name and returns it, or returns null if
+	 * there is no such user.
+	 */
+	public User remove(String name) {
+		NameStripe nameStripe = getNameStripe(name);
+		synchronized(nameStripe) {
+			Account account = (Account)nameStripe.accounts.remove(name);
+			if (account == null) {
+				return null;
+			}
+			IdStripe idStripe = getIdStripe(account.user.getId());
+			synchronized(idStripe) {
+				idStripe.remove(account.user.getId());
+			}
+			return account.user;
+		}
+	}
+	
+	/**
+	 * Returns the number of users.
+	 */
+	public int size() {
+		int result = 0;
+		for (int i = 0; i < NUM_STRIPES; i++) {
+			synchronized(nameStripes[i]) {
+				result += nameStripes[i].accounts.size();
+			}
+		}
+		return result;
+	}
+	
+	public void close() throws IOException {
+	}
+	
+	private static class Account {
+		private User user;
+		private String password;
+		Account(User user, String password) {
+			this.user = user;
+			this.password = password;
+		}
+	}
+	
+	private static class NameStripe {
+		private Map accounts = new HashMap();
+	}
+	
+	// An open addressing hash table with linear probing, indexed by long keys.
+	private static class IdStripe {
+		private long[] keys = new long[16];
+		private Object[] values = new Object[16];
+		private int size = 0;
+		
+		private int indexOf(long key, int length) {
+			long hash = key * 0x9E3779B97F4A7C15L;
+			return (int)(hash >>> 32) & (length - 1);
+		}
+		
+		Object get(long key) {
+			int mask = keys.length - 1;
+			for (int i = indexOf(key, keys.length); values[i] != null; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					return values[i];
+				}
+			}
+			return null;
+		}
+		
+		void put(long key, Object value) {
+			if (2 * (size + 1) > keys.length) {
+				resize(2 * keys.length);
+			}
+			int mask = keys.length - 1;
+			int i = indexOf(key, keys.length);
+			while (values[i] != null) {
+				if (keys[i] == key) {
+					values[i] = value;
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			values[i] = value;
+			size++;
+		}
+		
+		void remove(long key) {
+			int mask = keys.length - 1;
+			int i = indexOf(key, keys.length);
+			while (values[i] != null && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			if (values[i] == null) {
+				return;
+			}
+			values[i] = null;
+			size--;
+			// Move back the entries following the removed entry which would not be
+			// found anymore, so that lookups can stop at the first empty slot.
+			int j = i;
+			while (true) {
+				j = (j + 1) & mask;
+				if (values[j] == null) {
+					return;
+				}
+				int k = indexOf(keys[j], keys.length);
+				if ((j > i && (k <= i || k > j)) || (j < i && (k <= i && k > j))) {
+					keys[i] = keys[j];
+					values[i] = values[j];
+					values[j] = null;
+					i = j;
+				}
+			}
+		}
+		
+		private void resize(int length) {
+			long[] oldKeys = keys;
+			Object[] oldValues = values;
+			keys = new long[length];
+			values = new Object[length];
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldValues[i] != null) {
+					put(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+	}
+}
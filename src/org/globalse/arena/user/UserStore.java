@@ -0,0 +1,84 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.user;
+
+import java.io.IOException;
+import org.globalse.arena.remote.exceptions.UserAlreadyExistsException;
+
+/**
+ * A UserStore holds the accounts known to a gatekeeper, i.e., users and their
+ * passwords, indexed by user id and by user name. Implementations are safe for
+ * use by concurrent threads and do not rely on the lock of the gatekeeper.
+ *
+ * The default store, {@link UserDirectory}, keeps accounts in memory only.
+ * {@link FileUserStore} keeps them in local files, so that they survive a
+ * restart of the arena.
+ *
+ * @see GateKeeper
+ */
+public interface UserStore {
+	
+	/**
+	 * Returns the user with the specified id, or null if there is none.
+	 */
+	public User getUser(long id);
+	
+	/**
+	 * Returns the user with the specified name, or null if there is none.
+	 */
+	public User getUser(String name);
+	
+	/**
+	 * Returns the password of the user with the specified name, as stored by the
+	 * gatekeeper (usually a hash), or null if there is no such user.
+	 */
+	public String getPassword(String name);
+	
+	/**
+	 * Adds a user and its password. Throws a UserAlreadyExistsException if a user
+	 * with the same name or the same id already exists.
+	 */
+	public void add(User user, String password) throws UserAlreadyExistsException;
+	
+	/**
+	 * Replaces the password of the user with the specified name. Returns false if
+	 * there is no such user.
+	 */
+	public boolean setPassword(String name, String password);
+	
+	/**
+	 * Removes the user with the specified name and returns it, or returns null if
+	 * there is no such user.
+	 */
+	public User remove(String name);
+	
+	/**
+	 * Returns the number of users.
+	 */
+	public int size();
+	
+	/**
+	 * Writes pending changes to stable storage and releases the resources of this
+	 * store. The store cannot be used afterwards.
+	 */
+	public void close() throws IOException;
+	
+}
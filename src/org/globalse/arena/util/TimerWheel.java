@@ -0,0 +1,125 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This class is a hashed timer wheel for tracking a large number of deadlines
+ * with a coarse resolution. Time is divided into ticks of fixed duration, and
+ * items are hashed into a circular array of slots by the tick of their deadline.
+ * Scheduling an item takes constant time, and advancing the wheel by one tick
+ * only looks at the items of a single slot. Items whose deadline is more than one
+ * turn of the wheel away stay in their slot until the wheel comes around to them
+ * on the right turn.
+ *
+ * The wheel does not own any thread: its owner periodically invokes advance and
+ * processes the items returned. Items cannot be cancelled; owners instead ignore
+ * items which are no longer relevant when they are returned.
+ */
+public class TimerWheel {
+	
+	private List[] slots;
+	private long tickDuration;
+	
+	// Time of tick 0, and number of ticks already processed
+	private long origin;
+	private long numTicks = 0;
+	private int size = 0;
+	
+	/**
+	 * Creates a timer wheel.
+	 *
+	 * @param    numSlots            the number of slots of the wheel
+	 * @param    tickDuration        the duration of a tick in milliseconds
+	 * @param    now                 the current time in milliseconds
+	 *
+	 */
+	public TimerWheel(int numSlots, long tickDuration, long now) {
+		if (numSlots < 1 || tickDuration <= 0) {
+			throw new IllegalArgumentException("Timer wheel needs at least one slot and a positive tick duration.");
+		}
+		this.slots = new List[numSlots];
+		for (int i = 0; i < numSlots; i++) {
+			slots[i] = new ArrayList();
+		}
+		this.tickDuration = tickDuration;
+		this.origin = now;
+	}
+	
+	public long getTickDuration() {
+		return tickDuration;
+	}
+	
+	/**
+	 * Schedules an item at the specified deadline. Items whose deadline has
+	 * already passed are returned by the next invocation of advance.
+	 */
+	synchronized public void schedule(Object item, long deadline) {
+		long tick = Math.max((deadline - origin) / tickDuration, numTicks);
+		slots[(int)(tick % slots.length)].add(new Timeout(item, deadline));
+		size++;
+	}
+	
+	/**
+	 * Processes all the ticks up to the specified time and returns the items whose
+	 * deadline has passed, in no particular order.
+	 */
+	synchronized public List advance(long now) {
+		List result = new ArrayList();
+		while (origin + numTicks * tickDuration <= now) {
+			long tickEnd = origin + (numTicks + 1) * tickDuration;
+			Iterator it = slots[(int)(numTicks % slots.length)].iterator();
+			while (it.hasNext()) {
+				Timeout timeout = (Timeout)it.next();
+				if (timeout.deadline <= now) {
+					result.add(timeout.item);
+					it.remove();
+					size--;
+				}
+			}
+			if (tickEnd > now) {
+				// The current tick is not over, its slot is processed again next time.
+				break;
+			}
+			numTicks++;
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the number of items scheduled.
+	 */
+	synchronized public int size() {
+		return size;
+	}
+	
+	private static class Timeout {
+		private Object item;
+		private long deadline;
+		Timeout(Object item, long deadline) {
+			this.item = item;
+			this.deadline = deadline;
+		}
+	}
+}
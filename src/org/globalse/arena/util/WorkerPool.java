@@ -0,0 +1,448 @@
+/*
+ * Copyright 2004 (C) Applied Software Engineering--TU Muenchen
+ *                    http://wwwbruegge.in.tum.de
+ *
+ * This file is part of ARENA.
+ *
+ * ARENA is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * ARENA is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with ARENA; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.globalse.arena.util;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class is a fixed size pool of worker threads executing lanes. A lane is
+ * a queue of work items that are always processed one at a time and in the order
+ * in which they were queued, regardless of the number of workers in the pool. Many
+ * lanes (e.g., one per game or one per listener) can thus share a small, bounded
+ * number of threads while each of them still behaves like a dedicated thread.
+ *
+ * A lane is handed to the pool when its queue goes from empty to non-empty. A worker
+ * then processes at most a quantum of items before putting the lane back at the end
+ * of the ready queue, so that a busy lane cannot starve the other lanes of the pool.
+ *
+ * Lanes can also process items in batches. A batching lane hands up to a batch size
+ * of items at once to its process method and can wait for a short window after its
+ * first item is queued, so that items queued in quick succession end up in the same
+ * batch.
+ *
+ * Each lane also records its current and maximum queue depth and the latency between
+ * the time an item is queued and the time it is dispatched.
+ *
+ * Synchronization between the pool and its workers is achieved with a lock on the
+ * pool, while the items of a lane are protected by a lock on the lane.
+ */
+public class WorkerPool {
+
+	private static Logger logger = Logger.getLogger("org.globalse.arena.util");
+
+	// Maximum number of items a worker processes from a lane before moving on.
+	private static final int QUANTUM = 16;
+
+	private String name;
+
+	// Target number of workers and number of workers currently alive
+	private int size;
+	private int numWorkers = 0;
+	private int workerCount = 0;
+	
+	// Number of workers blocked in a lane for longer than expected. Each of
+	// them is temporarily replaced by an additional worker.
+	private int numStalled = 0;
+
+	// Lanes which have items to process and which are not processed by a worker
+	private LinkedList readyLanes = new LinkedList();
+	
+	// Timer for lanes waiting for their batch window to expire, created on demand
+	private Timer timer = null;
+
+	public WorkerPool(String name, int size) {
+		if (name == null) {
+			throw new NullPointerException("Cannot create a worker pool with a null name.");
+		}
+		this.name = name;
+		setSize(size);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	synchronized public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Sets the number of workers of this pool. If the pool shrinks, surplus workers
+	 * terminate as soon as they have finished processing their current lane.
+	 */
+	synchronized public void setSize(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("A worker pool needs at least one worker.");
+		}
+		this.size = size;
+		while (numWorkers < size + numStalled && numWorkers < readyLanes.size()) {
+			startWorker();
+		}
+		notifyAll();
+	}
+
+	synchronized public int getNumWorkers() {
+		return numWorkers;
+	}
+
+	/**
+	 * Returns the number of lanes waiting for a worker.
+	 */
+	synchronized public int getNumReadyLanes() {
+		return readyLanes.size();
+	}
+
+	/**
+	 * Signals that a worker is blocked in a lane for longer than expected (e.g.,
+	 * in a remote call to a peer that does not answer). The pool starts an
+	 * additional worker so that the other lanes are not delayed. The caller
+	 * must invoke recovered once the blocked worker returns.
+	 */
+	synchronized public void stalled() {
+		numStalled++;
+		if (!readyLanes.isEmpty() && numWorkers < size + numStalled) {
+			startWorker();
+		}
+	}
+	
+	/**
+	 * Signals that a worker previously reported with stalled has returned. The
+	 * surplus worker terminates when it has finished its current lane.
+	 */
+	synchronized public void recovered() {
+		if (numStalled > 0) {
+			numStalled--;
+		}
+		notifyAll();
+	}
+	
+	synchronized public int getNumStalled() {
+		return numStalled;
+	}
+	
+	private void startWorker() {
+		numWorkers++;
+		Worker worker = new Worker(name + "-" + (++workerCount));
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	// Workers are created lazily, so that idle pools do not hold any threads.
+	synchronized void schedule(Lane lane) {
+		readyLanes.addLast(lane);
+		if (numWorkers < size + numStalled) {
+			startWorker();
+		} else {
+			notify();
+		}
+	}
+
+	synchronized void scheduleLater(final Lane lane, long delay) {
+		if (timer == null) {
+			timer = new Timer(true);
+		}
+		timer.schedule(new TimerTask() {
+					public void run() {
+						lane.windowExpired();
+					}
+				}, delay);
+	}
+	
+	synchronized private Lane nextLane() {
+		while (readyLanes.isEmpty()) {
+			if (numWorkers > size + numStalled) {
+				break;
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		if (readyLanes.isEmpty() || numWorkers > size + numStalled) {
+			numWorkers--;
+			return null;
+		}
+		return (Lane)readyLanes.removeFirst();
+	}
+
+	private class Worker extends Thread {
+		Worker(String name) {
+			super(name);
+		}
+		public void run() {
+			Lane lane;
+			while ((lane = nextLane()) != null) {
+				lane.run(QUANTUM);
+			}
+		}
+	}
+
+	/**
+	 * A lane is a serial queue of items executed by the workers of a pool. Subclasses
+	 * specify how items are processed by implementing the process method. Lanes
+	 * are cheap: they do not hold any thread while their queue is empty.
+	 */
+	public abstract static class Lane {
+
+		private WorkerPool pool;
+
+		// Queued items, wrapped into entries recording the time they were queued.
+		private LinkedList entries = new LinkedList();
+
+		// True while the lane is either in the ready queue of the pool, processed by a worker,
+		// or waiting for its batch window to expire.
+		private boolean scheduled = false;
+		
+		// True while the lane is waiting for its batch window to expire.
+		private boolean delayed = false;
+
+		// Statistics
+		private int maxDepth = 0;
+		private long numDispatched = 0;
+		private long totalLatency = 0;
+		private long maxLatency = 0;
+
+		protected Lane(WorkerPool pool) {
+			if (pool == null) {
+				throw new NullPointerException("Cannot create a lane in a null pool.");
+			}
+			this.pool = pool;
+		}
+
+		public WorkerPool getPool() {
+			return pool;
+		}
+
+		/**
+		 * Queues an item at the end of this lane and hands the lane to the pool if
+		 * it was idle.
+		 */
+		public void enqueue(Object item) {
+			boolean ready = false;
+			long window = 0;
+			synchronized(this) {
+				entries.addLast(new Entry(item));
+				if (entries.size() > maxDepth) {
+					maxDepth = entries.size();
+				}
+				if (!scheduled) {
+					scheduled = true;
+					window = getBatchWindow();
+					if (window > 0 && entries.size() < getBatchSize()) {
+						delayed = true;
+					} else {
+						ready = true;
+					}
+				} else if (delayed && entries.size() >= getBatchSize()) {
+					// The batch is full, there is no point in waiting any longer.
+					delayed = false;
+					ready = true;
+				}
+			}
+			if (ready) {
+				pool.schedule(this);
+			} else if (window > 0) {
+				pool.scheduleLater(this, window);
+			}
+		}
+		
+		void windowExpired() {
+			synchronized(this) {
+				if (!delayed) {
+					return;
+				}
+				delayed = false;
+			}
+			pool.schedule(this);
+		}
+		
+		/**
+		 * Returns the maximum number of items handed at once to the process method.
+		 * The default is 1, that is, items are processed one by one.
+		 */
+		protected int getBatchSize() {
+			return 1;
+		}
+		
+		/**
+		 * Returns the time in milliseconds this lane waits after its first item is
+		 * queued before it is processed, unless a full batch is queued earlier. The
+		 * default is 0, that is, the lane is processed as soon as possible.
+		 */
+		protected long getBatchWindow() {
+			return 0;
+		}
+
+		/**
+		 * Removes the oldest item waiting in this lane and returns it, or returns
+		 * null if the lane is empty. Subclasses use this method to bound the length
+		 * of the lane.
+		 */
+		synchronized protected final Object removeOldest() {
+			if (entries.isEmpty()) {
+				return null;
+			}
+			return ((Entry)entries.removeFirst()).item;
+		}
+		
+		/**
+		 * Removes a waiting item (compared by identity) from the lane. Returns false
+		 * if the item was not found.
+		 */
+		synchronized protected final boolean removePending(Object item) {
+			for (Iterator i = entries.iterator(); i.hasNext();) {
+				Entry entry = (Entry)i.next();
+				if (entry.item == item) {
+					i.remove();
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		/**
+		 * Returns the items waiting in this lane, oldest first.
+		 */
+		synchronized protected final Object[] getPendingItems() {
+			Object[] result = new Object[entries.size()];
+			int j = 0;
+			for (Iterator i = entries.iterator(); i.hasNext(); j++) {
+				result[j] = ((Entry)i.next()).item;
+			}
+			return result;
+		}
+		
+		/**
+		 * Drops all the items waiting in this lane.
+		 */
+		synchronized protected final void clear() {
+			entries.clear();
+		}
+		
+		/**
+		 * Processes a single item. This method is invoked by at most one worker at a
+		 * time, in the order items were queued.
+		 */
+		protected abstract void process(Object item);
+		
+		/**
+		 * Processes a batch of items, oldest first. This method is only invoked when
+		 * the batch size is more than 1. The default implementation processes the
+		 * items one by one.
+		 */
+		protected void process(Object[] items) {
+			for (int i = 0; i < items.length; i++) {
+				process(items[i]);
+			}
+		}
+
+		void run(int quantum) {
+			int batchSize = getBatchSize();
+			int n = 0;
+			while (n < quantum) {
+				Object[] items = null;
+				synchronized(this) {
+					if (entries.isEmpty()) {
+						scheduled = false;
+						return;
+					}
+					items = new Object[Math.min(Math.max(batchSize, 1), entries.size())];
+					long now = System.currentTimeMillis();
+					for (int i = 0; i < items.length; i++) {
+						Entry entry = (Entry)entries.removeFirst();
+						long latency = now - entry.queued;
+						numDispatched++;
+						totalLatency += latency;
+						if (latency > maxLatency) {
+							maxLatency = latency;
+						}
+						items[i] = entry.item;
+					}
+				}
+				try {
+					if (batchSize > 1) {
+						process(items);
+					} else {
+						process(items[0]);
+					}
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, "Lane of worker pool " + pool.getName() + " failed to process an item.", e);
+				}
+				n += items.length;
+			}
+			// The quantum is used up: go to the end of the ready queue to give other
+			// lanes a chance, unless there is nothing left to do.
+			synchronized(this) {
+				if (entries.isEmpty()) {
+					scheduled = false;
+					return;
+				}
+			}
+			pool.schedule(this);
+		}
+
+		synchronized public int getDepth() {
+			return entries.size();
+		}
+
+		synchronized public int getMaxDepth() {
+			return maxDepth;
+		}
+
+		synchronized public long getNumDispatched() {
+			return numDispatched;
+		}
+
+		/**
+		 * Returns the average time in milliseconds items waited in this lane before
+		 * being dispatched.
+		 */
+		synchronized public long getAverageLatency() {
+			if (numDispatched == 0) {
+				return 0;
+			}
+			return totalLatency / numDispatched;
+		}
+
+		/**
+		 * Returns the longest time in milliseconds an item waited in this lane before
+		 * being dispatched.
+		 */
+		synchronized public long getMaxLatency() {
+			return maxLatency;
+		}
+
+		private static class Entry {
+			private Object item;
+			private long queued;
+			Entry(Object item) {
+				this.item = item;
+				this.queued = System.currentTimeMillis();
+			}
+		}
+	}
+}